@@ -0,0 +1,94 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import de.isas.lipidomics.transitionextractor.services.LipidTargetFinder;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * End-to-end extraction of a synthetic mzML file: parsing, matching and
+ * writing the output files of all groups.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConversionSupplierBenchmark {
+
+    @Param({"10", "100"})
+    public int precursors;
+
+    @Param({"4"})
+    public int fragmentsPerPrecursor;
+
+    @Param({"10"})
+    public int collisionEnergies;
+
+    @Param({"50"})
+    public int noisePeaksPerScan;
+
+    @Param({"false", "true"})
+    public boolean streaming;
+
+    @Param({"false", "true"})
+    public boolean mappedDecoding;
+
+    @Param({"1"})
+    public int matchThreads;
+
+    private SyntheticDataset dataset;
+    private List<TransitionSpecificationGroup> groups;
+    private ExtractionSettings extractionSettings;
+    private Path outputDir;
+
+    @Setup
+    public void setup() throws IOException {
+        dataset = SyntheticDataset.create(precursors, fragmentsPerPrecursor,
+                collisionEnergies, noisePeaksPerScan);
+        groups = dataset.parseGroups();
+        extractionSettings = new ExtractionSettings();
+        extractionSettings.setStreaming(streaming);
+        extractionSettings.setMappedDecoding(mappedDecoding);
+        extractionSettings.setMatchThreads(matchThreads);
+    }
+
+    @Setup(Level.Iteration)
+    public void createOutputDir() throws IOException {
+        outputDir = Files.createTempDirectory(dataset.getDirectory(), "output");
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteOutputDir() throws IOException {
+        SyntheticDataset.delete(outputDir);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dataset.delete();
+    }
+
+    @Benchmark
+    public void get(Blackhole blackhole) {
+        blackhole.consume(new ConversionSupplier(new LipidTargetFinder(),
+                outputDir, dataset.getMzMlFile(), groups, false, LocalDateTime.
+                of(2020, 1, 1, 0, 0), extractionSettings).get());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import de.isas.lipidomics.transitionextractor.services.LipidTargetFinder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Matches one peak per transition specification, slightly off its calculated
+ * mass, with the map based API, and all peaks as one sorted spectrum with the
+ * batch API.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LipidTargetFinderBenchmark {
+
+    @Param({"100"})
+    public int precursors;
+
+    @Param({"4"})
+    public int fragmentsPerPrecursor;
+
+    @Param({"false", "true"})
+    public boolean stopAtSmallestPpm;
+
+    private SyntheticDataset dataset;
+    private final LipidTargetFinder ltf = new LipidTargetFinder();
+    private final SpectrumMatches spectrumMatches = new SpectrumMatches();
+    private List<TransitionSpecification> specifications;
+    private MzRangeIndex mzRangeIndex;
+    private double[] mzValues;
+    private float[] intensityValues;
+
+    @Setup
+    public void setup() throws IOException {
+        dataset = SyntheticDataset.create(precursors, fragmentsPerPrecursor, 1,
+                0);
+        specifications = new ArrayList<>();
+        for (TransitionSpecificationGroup group : dataset.parseGroups()) {
+            specifications.addAll(group.getSpecifications());
+        }
+        mzValues = new double[specifications.size()];
+        for (int i = 0; i < mzValues.length; i++) {
+            // 3 ppm off, within the 5 and 10 ppm windows
+            mzValues[i] = specifications.get(i).
+                    getCalculatedMass() * (1.0d + 3.0e-6d);
+        }
+        Arrays.sort(mzValues);
+        intensityValues = new float[mzValues.length];
+        Arrays.fill(intensityValues, 1000.0f);
+        mzRangeIndex = MzRangeIndex.create(specifications);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dataset.delete();
+    }
+
+    @Benchmark
+    public void apply(Blackhole blackhole) {
+        for (int i = 0; i < mzValues.length; i++) {
+            blackhole.consume(ltf.apply(specifications.get(i), mzValues[i],
+                    1000.0f, 10000.0f, new HashMap<>(), stopAtSmallestPpm));
+        }
+    }
+
+    @Benchmark
+    public void matchSpectrum(Blackhole blackhole) {
+        blackhole.consume(ltf.match(specifications, mzRangeIndex, mzValues,
+                intensityValues, mzValues.length, true, stopAtSmallestPpm,
+                spectrumMatches));
+    }
+}
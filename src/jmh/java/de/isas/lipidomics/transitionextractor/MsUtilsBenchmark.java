@@ -0,0 +1,46 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MsUtilsBenchmark {
+
+    @Param({"5|10", "1|2|5|10|20"})
+    public String ppms;
+
+    private List<Integer> ppmList;
+
+    @Setup
+    public void setup() {
+        ppmList = Arrays.stream(ppms.split("\\|")).
+                map(Integer::valueOf).
+                collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public void createIonTargetMzRanges(Blackhole blackhole) {
+        blackhole.consume(MsUtils.createIonTargetMzRanges(464.4462067101d,
+                ppmList));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import de.isas.lipidomics.transitionextractor.services.LipidTargetFinder;
+import io.github.msdk.MSDKException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * End-to-end extraction of a synthetic mzML file, parsing the mzML file with
+ * mapped peak decoding compared to reading a prebuilt peak cache entry.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PeakCacheBenchmark {
+
+    @Param({"10", "100"})
+    public int precursors;
+
+    @Param({"50", "2000"})
+    public int noisePeaksPerScan;
+
+    private SyntheticDataset dataset;
+    private List<TransitionSpecificationGroup> groups;
+    private ExtractionSettings parseSettings;
+    private ExtractionSettings cacheSettings;
+    private Path outputDir;
+
+    @Setup
+    public void setup() throws IOException, MSDKException {
+        dataset = SyntheticDataset.create(precursors, 4, 10, noisePeaksPerScan);
+        groups = dataset.parseGroups();
+        parseSettings = new ExtractionSettings();
+        parseSettings.setMappedDecoding(true);
+        cacheSettings = new ExtractionSettings();
+        cacheSettings.setPeakCache(PeakCache.open(dataset.getDirectory().
+                resolve("peak-cache"), PeakCache.DEFAULT_MAX_BYTES));
+        cacheSettings.getPeakCache().
+                build(dataset.getMzMlFile());
+    }
+
+    @Setup(Level.Iteration)
+    public void createOutputDir() throws IOException {
+        outputDir = Files.createTempDirectory(dataset.getDirectory(), "output");
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteOutputDir() throws IOException {
+        SyntheticDataset.delete(outputDir);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dataset.delete();
+    }
+
+    private List<?> extract(ExtractionSettings extractionSettings) {
+        return new ConversionSupplier(new LipidTargetFinder(), outputDir,
+                dataset.getMzMlFile(), groups, false, LocalDateTime.of(2020, 1,
+                1, 0, 0), extractionSettings).get();
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        blackhole.consume(extract(parseSettings));
+    }
+
+    @Benchmark
+    public void peakCache(Blackhole blackhole) {
+        blackhole.consume(extract(cacheSettings));
+    }
+}
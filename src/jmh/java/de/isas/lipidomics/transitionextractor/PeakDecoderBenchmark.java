@@ -0,0 +1,87 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.MsScan;
+import io.github.msdk.io.mzml.MzMLFileImportMethod;
+import io.github.msdk.io.mzml.data.MzMLMsScan;
+import io.github.msdk.io.mzml.data.MzMLPeaksDecoder;
+import io.github.msdk.io.mzml.util.ByteBufferInputStream;
+import io.github.msdk.io.mzml.util.FileMemoryMapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding of the peaks of all MS2 scans of a synthetic mzML file, by MSDK
+ * into new arrays for each scan and by the mapped peak decoder into reused
+ * buffers. Run with {@code -prof gc} to compare the allocation rates.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PeakDecoderBenchmark {
+
+    @Param({"50", "2000"})
+    public int noisePeaksPerScan;
+
+    private SyntheticDataset dataset;
+    private List<MzMLMsScan> scans;
+    private ByteBufferInputStream inputStream;
+    private MappedPeakDecoder peakDecoder;
+
+    @Setup
+    public void setup() throws IOException, MSDKException {
+        dataset = SyntheticDataset.create(10, 4, 10, noisePeaksPerScan);
+        scans = new ArrayList<>();
+        for (MsScan scan : new MzMLFileImportMethod(dataset.getMzMlFile()).
+                execute().
+                getScans()) {
+            if (scan.getMsLevel() == 2) {
+                scans.add((MzMLMsScan) scan);
+            }
+        }
+        inputStream = FileMemoryMapper.mapToMemory(dataset.getMzMlFile().
+                toFile());
+        peakDecoder = new MappedPeakDecoder(dataset.getMzMlFile());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        peakDecoder.close();
+        dataset.delete();
+    }
+
+    @Benchmark
+    public void msdk(Blackhole blackhole) throws IOException, DataFormatException, MSDKException {
+        for (MzMLMsScan scan : scans) {
+            blackhole.consume(MzMLPeaksDecoder.decodeToDouble(inputStream,
+                    scan.getMzBinaryDataInfo(), null));
+            blackhole.consume(MzMLPeaksDecoder.decodeToFloat(inputStream,
+                    scan.getIntensityBinaryDataInfo(), null));
+        }
+    }
+
+    @Benchmark
+    public void mapped(Blackhole blackhole) throws IOException {
+        for (MzMLMsScan scan : scans) {
+            blackhole.consume(peakDecoder.decode(scan));
+        }
+    }
+}
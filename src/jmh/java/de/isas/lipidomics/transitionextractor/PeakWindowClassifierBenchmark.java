@@ -0,0 +1,69 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Finds the unsorted peaks of an Orbitrap sized MS2 scan within the 10 ppm
+ * windows of eight fragments, one at a time and with the Vector API. Run with
+ * {@code -jvmArgsAppend --add-modules=jdk.incubator.vector} on JDK 17 or later,
+ * otherwise both use the scalar classifier.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PeakWindowClassifierBenchmark {
+
+    @Param({"2000", "20000"})
+    public int peaks;
+
+    @Param({"false", "true"})
+    public boolean vectorized;
+
+    private PeakWindowClassifier classifier;
+    private double[] mzValues;
+    private double[] lowerBounds;
+    private double[] upperBounds;
+    private int[] hits;
+
+    @Setup
+    public void setup() {
+        classifier = PeakWindowClassifier.create(vectorized);
+        Random random = new Random(1L);
+        mzValues = new double[peaks];
+        for (int i = 0; i < peaks; i++) {
+            mzValues[i] = 100 + random.nextDouble() * 900;
+        }
+        lowerBounds = new double[8];
+        upperBounds = new double[8];
+        for (int i = 0; i < lowerBounds.length; i++) {
+            double mz = mzValues[random.nextInt(peaks)];
+            lowerBounds[i] = mz - mz * 1.0e-5;
+            upperBounds[i] = mz + mz * 1.0e-5;
+        }
+        hits = new int[peaks];
+    }
+
+    @Benchmark
+    public int findInRange() {
+        int nHits = 0;
+        for (int i = 0; i < lowerBounds.length; i++) {
+            nHits += classifier.findInRange(mzValues, 0, peaks,
+                    lowerBounds[i], upperBounds[i], hits);
+        }
+        return nHits;
+    }
+}
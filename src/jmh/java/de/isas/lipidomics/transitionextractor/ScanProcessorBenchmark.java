@@ -0,0 +1,118 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import de.isas.lipidomics.transitionextractor.services.LipidTargetFinder;
+import de.isas.lipidomics.transitionextractor.services.output.TsvRowWriter;
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.MsScan;
+import io.github.msdk.io.mzml.MzMLFileImportMethod;
+import io.github.msdk.io.mzml.data.MzMLMsScan;
+import io.github.msdk.io.mzml.data.MzMLRawDataFile;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Matches the decoded MS2 scans of a synthetic file against all groups, the
+ * per scan work of ConversionSupplier without parsing. Rows are formatted but
+ * discarded.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScanProcessorBenchmark {
+
+    @Param({"10", "100"})
+    public int precursors;
+
+    @Param({"4"})
+    public int fragmentsPerPrecursor;
+
+    @Param({"10"})
+    public int collisionEnergies;
+
+    @Param({"50", "500"})
+    public int noisePeaksPerScan;
+
+    private SyntheticDataset dataset;
+    private List<MzMLMsScan> scans;
+    private List<double[]> mzValues;
+    private List<float[]> intensityValues;
+    private List<ScanProcessor> scanProcessors;
+
+    @Setup
+    public void setup() throws IOException, MSDKException {
+        dataset = SyntheticDataset.create(precursors, fragmentsPerPrecursor,
+                collisionEnergies, noisePeaksPerScan);
+        List<TransitionSpecificationGroup> groups = dataset.parseGroups();
+        ConversionSupplier supplier = new ConversionSupplier(
+                new LipidTargetFinder(), dataset.getDirectory(), dataset.
+                getMzMlFile(), groups, false, LocalDateTime.of(2020, 1, 1, 0, 0),
+                new ExtractionSettings());
+        scanProcessors = new ArrayList<>();
+        for (TransitionSpecificationGroup group : groups) {
+            scanProcessors.add(supplier.createScanProcessor(group,
+                    new TsvRowWriter(new NullWriter())));
+        }
+        MzMLRawDataFile rawDataFile = new MzMLFileImportMethod(dataset.
+                getMzMlFile()).execute();
+        scans = new ArrayList<>();
+        mzValues = new ArrayList<>();
+        intensityValues = new ArrayList<>();
+        for (MsScan scan : rawDataFile.getScans()) {
+            if (scan.getMsLevel() == 2) {
+                MzMLMsScan msScan = (MzMLMsScan) scan;
+                scans.add(msScan);
+                mzValues.add(msScan.getMzValues());
+                intensityValues.add(msScan.getIntensityValues());
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dataset.delete();
+    }
+
+    @Benchmark
+    public void processScans() throws IOException {
+        for (int i = 0; i < scans.size(); i++) {
+            MzMLMsScan scan = scans.get(i);
+            for (ScanProcessor scanProcessor : scanProcessors) {
+                scanProcessor.process(scan, mzValues.get(i), intensityValues.
+                        get(i), scan.getTIC());
+            }
+        }
+    }
+
+    private static class NullWriter extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import de.isas.lipidomics.transitionextractor.services.MappingSpecification;
+import de.isas.lipidomics.transitionextractor.services.mapping.TransitionMappingParser;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticDataGenerator;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticDataSettings;
+import de.isas.lipidomics.transitionextractor.services.transitions.TransitionListParser;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.collections4.MultiValuedMap;
+
+/**
+ * Synthetic mzML, transition list and mapping files written to a temporary
+ * directory, shared by the benchmarks.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class SyntheticDataset {
+
+    private final Path directory;
+    private final SyntheticDataGenerator generator;
+
+    private SyntheticDataset(Path directory, SyntheticDataGenerator generator) {
+        this.directory = directory;
+        this.generator = generator;
+    }
+
+    public static SyntheticDataset create(int precursors,
+            int fragmentsPerPrecursor, int collisionEnergies,
+            int noisePeaksPerScan) throws IOException {
+        SyntheticDataSettings settings = new SyntheticDataSettings();
+        settings.setPrecursors(precursors);
+        settings.setFragmentsPerPrecursor(fragmentsPerPrecursor);
+        settings.setCollisionEnergies(collisionEnergies);
+        settings.setNoisePeaksPerScan(noisePeaksPerScan);
+        SyntheticDataGenerator generator = new SyntheticDataGenerator(settings);
+        Path directory = Files.createTempDirectory("flipr-jmh");
+        generator.writeDataset(directory);
+        return new SyntheticDataset(directory, generator);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public SyntheticDataGenerator getGenerator() {
+        return generator;
+    }
+
+    public Path getMzMlFile() {
+        return directory.resolve(SyntheticDataGenerator.getMzMlFileName(0));
+    }
+
+    public Path getTransitionListFile() {
+        return directory.resolve(SyntheticDataGenerator.TRANSITION_LIST_FILE);
+    }
+
+    public Path getMappingFile() {
+        return directory.resolve(SyntheticDataGenerator.MAPPING_FILE);
+    }
+
+    public MultiValuedMap<ConfigKey, MappingSpecification> parseMapping() throws IOException {
+        return new TransitionMappingParser().parse(getMappingFile(), directory);
+    }
+
+    public List<TransitionSpecificationGroup> parseGroups() throws IOException {
+        Map<Path, List<TransitionSpecificationGroup>> groups = new TransitionListParser().
+                parse(getTransitionListFile(), directory, parseMapping());
+        return new ArrayList<>(groups.values().
+                iterator().
+                next());
+    }
+
+    /**
+     * Deletes the directory and all files below it.
+     *
+     * @throws IOException
+     */
+    public void delete() throws IOException {
+        delete(directory);
+    }
+
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).
+                    collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import de.isas.lipidomics.transitionextractor.services.MappingSpecification;
+import de.isas.lipidomics.transitionextractor.services.transitions.TransitionListParser;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.collections4.MultiValuedMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TransitionListParserBenchmark {
+
+    @Param({"100", "1000"})
+    public int precursors;
+
+    @Param({"4"})
+    public int fragmentsPerPrecursor;
+
+    @Param({"1"})
+    public int threads;
+
+    private SyntheticDataset dataset;
+    private MultiValuedMap<ConfigKey, MappingSpecification> mappingSpecifications;
+
+    @Setup
+    public void setup() throws IOException {
+        // the mzML file is not read by the parser, keep it small
+        dataset = SyntheticDataset.create(precursors, fragmentsPerPrecursor, 1,
+                0);
+        mappingSpecifications = dataset.parseMapping();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dataset.delete();
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) throws IOException {
+        blackhole.consume(new TransitionListParser().parse(dataset.
+                getTransitionListFile(), dataset.getDirectory(),
+                mappingSpecifications, threads));
+    }
+}
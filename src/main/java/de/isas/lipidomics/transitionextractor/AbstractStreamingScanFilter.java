@@ -0,0 +1,81 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import io.github.msdk.datamodel.MsScan;
+import io.github.msdk.io.mzml.data.MzMLMsScan;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Predicate;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Scan predicate for streaming parsing that never lets the parser retain or
+ * decode a scan. The parser tests the predicate several times per spectrum,
+ * so the last MS2 scan is kept as pending and processed once the parser has
+ * moved on to the next spectrum or, after a call of {@link #flush()}, has
+ * finished the file.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Slf4j
+abstract class AbstractStreamingScanFilter implements Predicate<MsScan> {
+
+    private MzMLMsScan pendingScan = null;
+    private MsScan lastScan = null;
+
+    @Override
+    public boolean test(MsScan scan) {
+        if (scan != lastScan) {
+            lastScan = scan;
+            scanRead(scan);
+        }
+        if (scan != pendingScan) {
+            flush();
+            MzMLMsScan msScan = (MzMLMsScan) scan;
+            if (msScan.getMsLevel() == 2) {
+                pendingScan = msScan;
+            } else {
+                log.debug(
+                        "Skipping MS " + msScan.getMsLevel() + " scan " + msScan.
+                        getId());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Processes the pending MS2 scan, if any.
+     *
+     * @throws UncheckedIOException if the scan can not be processed.
+     */
+    void flush() {
+        if (pendingScan == null) {
+            return;
+        }
+        MzMLMsScan msScan = pendingScan;
+        pendingScan = null;
+        try {
+            processScan(msScan);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Called once for every scan of the file, before it is tested.
+     *
+     * @param scan the scan.
+     */
+    protected void scanRead(MsScan scan) {
+    }
+
+    /**
+     * Processes an MS2 scan, whose peaks can be read from the file.
+     *
+     * @param msScan the scan.
+     * @throws IOException if the scan can not be processed.
+     */
+    protected abstract void processScan(MzMLMsScan msScan) throws IOException;
+}
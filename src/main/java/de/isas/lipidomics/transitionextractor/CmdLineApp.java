@@ -4,6 +4,9 @@
 package de.isas.lipidomics.transitionextractor;
 
 import de.isas.lipidomics.transitionextractor.services.LipidTargetFinder;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticDataGenerator;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticDataSettings;
+import io.github.msdk.MSDKException;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
@@ -11,9 +14,12 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Properties;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -22,6 +28,7 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.configuration.CompositeConfiguration;
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.joda.time.DateTime;
@@ -53,6 +60,14 @@ public class CmdLineApp {
         options.addOption("o", true, "the output directory (optional)");
         options.addOption("t", true,
                 "the number of threads / cpus to use for processing (optional)");
+        options.addOption("r", true,
+                "the number of concurrent R model training processes (optional), default: the number of threads");
+        options.addOption("k", true,
+                "whether to keep the R processes alive and reuse them for the model training of all groups (optional), default: false");
+        options.addOption("u", true,
+                "whether to reuse the results of a previous run into the same output directory for groups with unchanged inputs (optional), default: false");
+        options.addOption("e", true,
+                "whether to expose the run metrics through JMX while the run is in progress (optional), default: false");
         options.addOption("m", true,
                 "the minimum inclusive collision energy to use for model calculations (optional), default: 0");
         options.addOption("n", true,
@@ -63,6 +78,23 @@ public class CmdLineApp {
         options.addOption(opt);
         options.addOption("d", true,
                 "whether to plot diagnostic plots of the data (optional), default: false");
+        options.addOption("s", true,
+                "whether to stream MS2 scans from the mzML files instead of loading all scans into memory (optional), default: false");
+        options.addOption("w", true,
+                "whether to match MS2 scans only against the precursors within their isolation window (optional), default: false");
+        options.addOption("b", true,
+                "whether to additionally write the extracted rows to a binary, columnar _fip.fipc file (optional), default: false");
+        options.addOption("a", true,
+                "whether to decode the peaks of MS2 scans from a memory mapping of the mzML files into reused buffers (optional), default: false");
+        options.addOption(Option.builder().hasArg(true).longOpt("peakCache").desc("the directory of the persistent peak cache, which stores the decoded MS2 peaks of each mzML file for later runs (optional), default: no peak cache").numberOfArgs(1).argName("directory").build());
+        options.addOption(Option.builder().hasArg(true).longOpt("peakCacheMaxSize").desc("the maximum size of the peak cache in MB, least recently used entries are evicted (optional), default: 10240").numberOfArgs(1).argName("MB").build());
+        options.addOption(Option.builder().hasArg(true).longOpt("prebuildPeakCache").desc("build the peak cache entries of the given mzML file or of all mzML files in the given directory and exit").numberOfArgs(1).argName("mzML file or directory").build());
+        options.addOption(Option.builder().hasArg(false).longOpt("clearPeakCache").desc("delete all entries of the peak cache and exit").build());
+        options.addOption(Option.builder().hasArg(true).longOpt("maxScanChunks").desc("the maximum number of scan chunks a single mzML file that dominates the run is split into, to be matched in parallel, requires the peak cache (optional), default: 1").numberOfArgs(1).argName("chunks").build());
+        options.addOption(Option.builder().hasArg(true).longOpt("vectorMatching").desc("whether to compare unsorted MS2 peaks with the fragment mz ranges using the Vector API, requires JDK 17 or later and --add-modules jdk.incubator.vector, otherwise falls back to scalar comparisons (optional), default: false").numberOfArgs(1).argName("true|false").build());
+        options.addOption(Option.builder().hasArg(true).longOpt("matchThreads").desc("the number of threads that match the MS2 scans of each mzML file, rows are still written in scan order (optional), default: 1").numberOfArgs(1).argName("threads").build());
+        options.addOption(Option.builder().hasArg(true).longOpt("generate").desc("generate a synthetic data set with mzML files, transition list, mapping file and ground truth into the given directory and exit").numberOfArgs(1).argName("directory").build());
+        options.addOption(Option.builder("G").argName("setting=value").numberOfArgs(2).valueSeparator('=').desc("size of the synthetic data set, one of seed, files, precursors, fragmentsPerPrecursor, collisionEnergies, noisePeaksPerScan, maxMassErrorPpm or ppms (e.g. 5|10)").build());
         options.addOption("c", true, "the configuration file (optional)");
         options.addOption("x", true, "the flipr configuration settings file for regression parameter bounds (optional)");
         options.addOption("h", "help", false,
@@ -80,6 +112,10 @@ public class CmdLineApp {
             if (cmd.hasOption("p")) {
                 concatenateLipidCreatorParameters(cmd);
             }
+            if (cmd.hasOption("generate")) {
+                generateSyntheticData(cmd);
+                return;
+            }
 
             CompositeConfiguration cc = new CompositeConfiguration();
 
@@ -93,6 +129,11 @@ public class CmdLineApp {
                 }
             }
             cc.addConfiguration(defaultProperties);
+            PeakCache peakCache = createPeakCache(cmd, cc);
+            if (cmd.hasOption("clearPeakCache") || cmd.hasOption("prebuildPeakCache")) {
+                managePeakCache(cmd, peakCache);
+                return;
+            }
             Path fliprCfg = null;
             if (cmd.hasOption("x")) {
                 String xOption = cmd.getOptionValue("x");
@@ -127,6 +168,19 @@ public class CmdLineApp {
                     threads, Runtime.getRuntime().
                             availableProcessors()));
             final Integer nThreads = threads;
+            Integer rThreads = cc.getInt("rThreads", nThreads);
+            if (cmd.hasOption("r")) {
+                rThreads = Integer.parseInt(cmd.getOptionValue("r"));
+            }
+            if (rThreads < 1) {
+                LOG.warn("Number of R threads must be at least 1, using 1!");
+                rThreads = 1;
+            }
+            final Integer nRThreads = rThreads;
+            boolean persistentRWorkers = cc.getBoolean("persistentRWorkers", false);
+            if (cmd.hasOption("k")) {
+                persistentRWorkers = Boolean.parseBoolean(cmd.getOptionValue("k"));
+            }
             Path dataFileInputDir = null;
             DateTime now = DateTime.now(DateTimeZone.getDefault());
             DateTimeFormatter dateFormatter = ISODateTimeFormat.
@@ -181,6 +235,45 @@ public class CmdLineApp {
             }
             boolean stopAtSmallestPpm = cc.
                     getBoolean("stopAtSmallestPpm", false);
+            ExtractionSettings extractionSettings = new ExtractionSettings();
+            extractionSettings.setStreaming(cc.getBoolean("streaming", false));
+            if (cmd.hasOption("s")) {
+                extractionSettings.setStreaming(Boolean.parseBoolean(cmd.getOptionValue("s")));
+            }
+            extractionSettings.setPrecursorIsolationFilter(cc.getBoolean("precursorIsolationFilter", false));
+            if (cmd.hasOption("w")) {
+                extractionSettings.setPrecursorIsolationFilter(Boolean.parseBoolean(cmd.getOptionValue("w")));
+            }
+            extractionSettings.setColumnarOutput(cc.getBoolean("columnarOutput", false));
+            if (cmd.hasOption("b")) {
+                extractionSettings.setColumnarOutput(Boolean.parseBoolean(cmd.getOptionValue("b")));
+            }
+            extractionSettings.setMappedDecoding(cc.getBoolean("mappedDecoding", false));
+            if (cmd.hasOption("a")) {
+                extractionSettings.setMappedDecoding(Boolean.parseBoolean(cmd.getOptionValue("a")));
+            }
+            extractionSettings.setScanFilter(createScanFilter(cc));
+            extractionSettings.setPeakCache(peakCache);
+            extractionSettings.setMaxScanChunks(cc.getInt("maxScanChunks", 1));
+            if (cmd.hasOption("maxScanChunks")) {
+                extractionSettings.setMaxScanChunks(Integer.parseInt(cmd.getOptionValue("maxScanChunks")));
+            }
+            extractionSettings.setMatchThreads(cc.getInt("matchThreads", 1));
+            if (cmd.hasOption("matchThreads")) {
+                extractionSettings.setMatchThreads(Integer.parseInt(cmd.getOptionValue("matchThreads")));
+            }
+            extractionSettings.setVectorMatching(cc.getBoolean("vectorMatching", false));
+            if (cmd.hasOption("vectorMatching")) {
+                extractionSettings.setVectorMatching(Boolean.parseBoolean(cmd.getOptionValue("vectorMatching")));
+            }
+            boolean extractionCache = cc.getBoolean("extractionCache", false);
+            if (cmd.hasOption("u")) {
+                extractionCache = Boolean.parseBoolean(cmd.getOptionValue("u"));
+            }
+            boolean jmxMetrics = cc.getBoolean("jmxMetrics", false);
+            if (cmd.hasOption("e")) {
+                jmxMetrics = Boolean.parseBoolean(cmd.getOptionValue("e"));
+            }
             final File outputDirectory = outputDir.toFile();
             
             Integer maxCombinations = cc.getInteger("maxCombinations", 5000);
@@ -191,7 +284,8 @@ public class CmdLineApp {
             runConversion(transitionFile.toPath(), mappingFile, dataFileInputDir,
                     outputDirectory,
                     plotFormat, diagnosticPlots,
-                    minCollisionEnergy, nThreads, stopAtSmallestPpm, fliprCfg, fliprPath, maxCombinations);
+                    minCollisionEnergy, nThreads, nRThreads, persistentRWorkers, stopAtSmallestPpm, fliprCfg, fliprPath, maxCombinations,
+                    extractionSettings, extractionCache, jmxMetrics);
 
         } catch (ParseException | IOException | ConfigurationException ex) {
             LOG.error("Caught exception:", ex);
@@ -203,7 +297,10 @@ public class CmdLineApp {
             final File outputDirectory,
             final String plotFormat, final boolean diagnosticPlots,
             final double minCollisionEnergy, final Integer nThreads,
-            final boolean stopAtSmallestPpm, Path fliprConfigFile, Path fliprPath, Integer maxCombinations) throws IOException {
+            final Integer nRThreads, final boolean persistentRWorkers,
+            final boolean stopAtSmallestPpm, Path fliprConfigFile, Path fliprPath, Integer maxCombinations,
+            ExtractionSettings extractionSettings, boolean extractionCache,
+            boolean jmxMetrics) throws IOException {
         if (transitionFile == null) {
             throw new NullPointerException(
                     "Parameter transitionFile must not be null!");
@@ -229,7 +326,8 @@ public class CmdLineApp {
 
 //        final AtomicInteger filesConverted = new AtomicInteger();
 //        final AtomicInteger filesToConvert = new AtomicInteger();
-        final LipidTargetFinder ltf = new LipidTargetFinder();
+        final LipidTargetFinder ltf = new LipidTargetFinder(PeakWindowClassifier.
+                create(extractionSettings.isVectorMatching()));
 
 //            Path infile = filePath.getParent();
 //            Path configFile = transitionFile;
@@ -242,10 +340,14 @@ public class CmdLineApp {
         Converter.Arguments convArgs = new Converter.Arguments(ltf,
                 inputDir, outPath, transitionFile, mappingFile, plotFormat,
                 diagnosticPlots, minCollisionEnergy, fliprConfigFile, fliprPath, maxCombinations);
+        convArgs.setExtractionSettings(extractionSettings);
+        convArgs.setPersistentRWorkers(persistentRWorkers);
+        convArgs.setExtractionCache(extractionCache);
+        convArgs.setJmxMetrics(jmxMetrics);
         LOG.info(String.format("Running with arguments: %s", convArgs));
         Converter conv = new Converter(convArgs);
         try {
-            conv.convert(nThreads, stopAtSmallestPpm);
+            conv.convert(nThreads, nRThreads, stopAtSmallestPpm);
         } catch (IOException ex) {
             LOG.error("Caught exception:", ex);
         } catch (InterruptedException ex) {
@@ -255,12 +357,142 @@ public class CmdLineApp {
         }
     }
 
+    protected static ScanFilter createScanFilter(Configuration configuration) {
+        ScanFilter scanFilter = new ScanFilter();
+        scanFilter.setMinCollisionEnergy(getOptionalDouble(configuration, "scanFilter.minCollisionEnergy"));
+        scanFilter.setMaxCollisionEnergy(getOptionalDouble(configuration, "scanFilter.maxCollisionEnergy"));
+        scanFilter.setMinRetentionTime(getOptionalDouble(configuration, "scanFilter.minRetentionTime"));
+        scanFilter.setMaxRetentionTime(getOptionalDouble(configuration, "scanFilter.maxRetentionTime"));
+        scanFilter.setPolarity(getOptionalString(configuration, "scanFilter.polarity"));
+        scanFilter.setMsFunction(getOptionalString(configuration, "scanFilter.msFunction"));
+        if (!scanFilter.isEmpty()) {
+            LOG.info(String.format("Using global scan filter %s", scanFilter));
+        }
+        return scanFilter;
+    }
+
+    protected static PeakCache createPeakCache(CommandLine cmd,
+            Configuration configuration) throws IOException {
+        String directory = getOptionalString(configuration, "peakCache");
+        if (cmd.hasOption("peakCache")) {
+            directory = cmd.getOptionValue("peakCache");
+        }
+        if (directory == null || directory.isEmpty()) {
+            return null;
+        }
+        long maxSize = configuration.getLong("peakCacheMaxSize",
+                PeakCache.DEFAULT_MAX_BYTES / (1024 * 1024));
+        if (cmd.hasOption("peakCacheMaxSize")) {
+            maxSize = Long.parseLong(cmd.getOptionValue("peakCacheMaxSize"));
+        }
+        PeakCache peakCache = PeakCache.open(Paths.get(directory),
+                maxSize * 1024 * 1024);
+        LOG.info(String.format("Using %s", peakCache));
+        return peakCache;
+    }
+
+    protected static void managePeakCache(CommandLine cmd, PeakCache peakCache) throws IOException {
+        if (peakCache == null) {
+            throw new IllegalArgumentException(
+                    "The peak cache directory must be set with --peakCache or in the configuration file!");
+        }
+        if (cmd.hasOption("clearPeakCache")) {
+            peakCache.clear();
+        }
+        if (cmd.hasOption("prebuildPeakCache")) {
+            Path input = Paths.get(cmd.getOptionValue("prebuildPeakCache"));
+            List<Path> mzMlFiles;
+            if (input.toFile().
+                    isDirectory()) {
+                try (Stream<Path> files = Files.list(input)) {
+                    mzMlFiles = files.filter((file) -> file.getFileName().
+                            toString().
+                            toLowerCase().
+                            endsWith(".mzml")).
+                            sorted().
+                            collect(Collectors.toList());
+                }
+            } else {
+                mzMlFiles = Arrays.asList(input);
+            }
+            for (Path mzMlFile : mzMlFiles) {
+                try {
+                    LOG.info(String.format("Peak cache entry of %s: %s",
+                            mzMlFile, peakCache.build(mzMlFile)));
+                } catch (MSDKException ex) {
+                    LOG.error("Caught exception:", ex);
+                }
+            }
+        }
+        LOG.info(String.format("Peak cache %s uses %d bytes", peakCache.
+                getDirectory(), peakCache.getSize()));
+    }
+
+    private static String getOptionalString(Configuration configuration,
+            String key) {
+        String value = configuration.getString(key, "").
+                trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static Double getOptionalDouble(Configuration configuration,
+            String key) {
+        String value = getOptionalString(configuration, key);
+        return value == null ? null : Double.valueOf(value);
+    }
+
     protected static void printHelpAndExit(Options options, String version) {
         HelpFormatter formatter = new HelpFormatter();
         formatter.printHelp("java -jar transition-extractor-" + version + ".jar", options);
         System.exit(-1);
     }
 
+    protected static void generateSyntheticData(CommandLine cmd) throws IOException {
+        Path outputDirPath = Paths.get(cmd.getOptionValue("generate"));
+        SyntheticDataSettings settings = new SyntheticDataSettings();
+        Properties properties = cmd.getOptionProperties("G");
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key);
+            switch (key) {
+                case "seed":
+                    settings.setSeed(Long.parseLong(value));
+                    break;
+                case "files":
+                    settings.setFiles(Integer.parseInt(value));
+                    break;
+                case "precursors":
+                    settings.setPrecursors(Integer.parseInt(value));
+                    break;
+                case "fragmentsPerPrecursor":
+                    settings.setFragmentsPerPrecursor(Integer.parseInt(value));
+                    break;
+                case "collisionEnergies":
+                    settings.setCollisionEnergies(Integer.parseInt(value));
+                    break;
+                case "noisePeaksPerScan":
+                    settings.setNoisePeaksPerScan(Integer.parseInt(value));
+                    break;
+                case "maxMassErrorPpm":
+                    settings.setMaxMassErrorPpm(Double.parseDouble(value));
+                    break;
+                case "ppms":
+                    settings.setPpms(Arrays.stream(value.split("\\|")).
+                            map((ppm) -> Integer.valueOf(ppm.trim())).
+                            collect(Collectors.toList()));
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "Unknown synthetic data setting: '" + key + "'");
+            }
+        }
+        LOG.info(String.format("Generating synthetic data with settings %s into %s",
+                settings, outputDirPath));
+        new SyntheticDataGenerator(settings).writeDataset(outputDirPath);
+        LOG.info(String.format("Run the extraction with -i %s -j %s",
+                outputDirPath.resolve(SyntheticDataGenerator.TRANSITION_LIST_FILE),
+                outputDirPath.resolve(SyntheticDataGenerator.MAPPING_FILE)));
+    }
+
     protected static void concatenateLipidCreatorParameters(CommandLine cmd) {
         String outputDir = cmd.getOptionValue("p");
         if (outputDir == null) {
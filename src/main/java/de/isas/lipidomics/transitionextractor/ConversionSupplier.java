@@ -3,8 +3,17 @@
  */
 package de.isas.lipidomics.transitionextractor;
 
+import com.google.common.collect.Range;
 import de.isas.lipidomics.transitionextractor.services.LipidTargetFinder;
+import de.isas.lipidomics.transitionextractor.services.metrics.FileMetrics;
+import de.isas.lipidomics.transitionextractor.services.metrics.GroupMetrics;
+import de.isas.lipidomics.transitionextractor.services.metrics.RunMetrics;
+import de.isas.lipidomics.transitionextractor.services.output.ColumnarRowWriter;
+import de.isas.lipidomics.transitionextractor.services.output.CompositeRowWriter;
+import de.isas.lipidomics.transitionextractor.services.output.RowWriter;
+import de.isas.lipidomics.transitionextractor.services.output.TsvRowWriter;
 import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKRuntimeException;
 import io.github.msdk.datamodel.ActivationInfo;
 import io.github.msdk.datamodel.ActivationType;
 import io.github.msdk.datamodel.IsolationInfo;
@@ -14,17 +23,30 @@ import io.github.msdk.io.mzml.data.MzMLCVParam;
 import io.github.msdk.io.mzml.data.MzMLMsScan;
 import io.github.msdk.io.mzml.data.MzMLPrecursorElement;
 import io.github.msdk.io.mzml.data.MzMLRawDataFile;
+import io.github.msdk.io.mzml.util.FileMemoryMapper;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import lombok.Data;
@@ -36,32 +58,195 @@ import lombok.extern.slf4j.Slf4j;
  */
 @Data
 @Slf4j
-public class ConversionSupplier implements Supplier<Optional<Path>> {
+public class ConversionSupplier implements Supplier<List<Optional<Path>>> {
 
     private final Path outputDirPath;
-    private final TransitionSpecificationGroup transitionSpecGroup;
+    private final Path mzMlFile;
+    private final List<TransitionSpecificationGroup> transitionSpecGroups;
     private final boolean stopAtSmallestPpm;
     private final LipidTargetFinder ltf;
     private final LocalDateTime dateTimeCreated;
+    private final ExtractionSettings extractionSettings;
+    private final RunMetrics runMetrics;
+    // the chunk of the MS2 scans processed by this supplier, see forChunks
+    private final int chunk;
+    private final int chunks;
+    // the scan columns of each group, fixed for all chunks, see forChunks
+    private final List<List<String>> chunkScanColumns;
 
+    /**
+     * Creates a supplier that parses the given mzML file once and matches every
+     * MS2 scan against all transition specification groups targeting that
+     * file. Each group writes its own output file into a sub directory of
+     * outputDirPath named after the group's config key.
+     *
+     * @param ltf the lipid target finder.
+     * @param outputDirPath the base output directory.
+     * @param mzMlFile the mzML file to parse.
+     * @param transitionSpecGroups the groups targeting the mzML file.
+     * @param stopAtSmallestPpm whether to stop at the smallest matching ppm.
+     * @param dateTimeCreated the creation date and time to report.
+     * @param extractionSettings the extraction settings.
+     */
     public ConversionSupplier(LipidTargetFinder ltf, Path outputDirPath,
-            TransitionSpecificationGroup transitionSpecGroup,
-            boolean stopAtSmallestPpm, LocalDateTime dateTimeCreated) {
+            Path mzMlFile,
+            List<TransitionSpecificationGroup> transitionSpecGroups,
+            boolean stopAtSmallestPpm, LocalDateTime dateTimeCreated,
+            ExtractionSettings extractionSettings) {
+        this(ltf, outputDirPath, mzMlFile, transitionSpecGroups,
+                stopAtSmallestPpm, dateTimeCreated, extractionSettings,
+                new RunMetrics());
+    }
+
+    /**
+     * Creates a supplier that records its counters and timers in the given run
+     * metrics.
+     *
+     * @param ltf the lipid target finder.
+     * @param outputDirPath the base output directory.
+     * @param mzMlFile the mzML file to parse.
+     * @param transitionSpecGroups the groups targeting the mzML file.
+     * @param stopAtSmallestPpm whether to stop at the smallest matching ppm.
+     * @param dateTimeCreated the creation date and time to report.
+     * @param extractionSettings the extraction settings.
+     * @param runMetrics the run metrics.
+     */
+    public ConversionSupplier(LipidTargetFinder ltf, Path outputDirPath,
+            Path mzMlFile,
+            List<TransitionSpecificationGroup> transitionSpecGroups,
+            boolean stopAtSmallestPpm, LocalDateTime dateTimeCreated,
+            ExtractionSettings extractionSettings, RunMetrics runMetrics) {
+        this(ltf, outputDirPath, mzMlFile, transitionSpecGroups,
+                stopAtSmallestPpm, dateTimeCreated, extractionSettings,
+                runMetrics, 0, 1, null);
+    }
+
+    private ConversionSupplier(LipidTargetFinder ltf, Path outputDirPath,
+            Path mzMlFile,
+            List<TransitionSpecificationGroup> transitionSpecGroups,
+            boolean stopAtSmallestPpm, LocalDateTime dateTimeCreated,
+            ExtractionSettings extractionSettings, RunMetrics runMetrics,
+            int chunk, int chunks, List<List<String>> chunkScanColumns) {
+        for (TransitionSpecificationGroup group : transitionSpecGroups) {
+            if (!mzMlFile.equals(group.getTargetFile())) {
+                throw new IllegalArgumentException(
+                        "Target file " + group.getTargetFile() + " of transition specification group " + group.
+                        getConfigKey() + " does not match expected one: " + mzMlFile);
+            }
+        }
         this.outputDirPath = outputDirPath;
-        this.transitionSpecGroup = transitionSpecGroup;
+        this.mzMlFile = mzMlFile;
+        this.transitionSpecGroups = transitionSpecGroups;
         this.stopAtSmallestPpm = stopAtSmallestPpm;
         this.ltf = ltf;
         this.dateTimeCreated = dateTimeCreated;
+        this.extractionSettings = extractionSettings;
+        this.runMetrics = runMetrics;
+        this.chunk = chunk;
+        this.chunks = chunks;
+        this.chunkScanColumns = chunkScanColumns;
         log.debug("Conversion supplier: " + this.toString());
     }
 
-    private Map<String, String> prepareScanDefaults(
-            Path mzMlFile, MzMLMsScan msScan) {
+    /**
+     * Returns the suppliers of the given number of chunks of the MS2 scans of
+     * the mzML file. Each one only matches a contiguous range of the scans in
+     * the order of the peak cache entry and writes the rows of each group to a
+     * part file next to its output file. The part files of all chunks are
+     * merged into the output files by {@link #mergeChunks(List)} of this
+     * supplier. The scan columns of each group are fixed before, from the
+     * first MS2 scan of the entry the group has rows for, so that all parts
+     * are written with the columns a single supplier would have written.
+     *
+     * @param chunks the number of chunks.
+     * @return the suppliers of the chunks, in chunk order.
+     * @throws IOException if the peak cache entry can not be read.
+     * @throws MSDKException if the peak cache entry has to be built and the
+     * mzML file can not be parsed.
+     * @throws IllegalStateException if the peak cache is not enabled or
+     * columnar output is enabled.
+     */
+    public List<ConversionSupplier> forChunks(int chunks) throws IOException, MSDKException {
+        if (extractionSettings.getPeakCache() == null || extractionSettings.
+                isColumnarOutput()) {
+            throw new IllegalStateException(
+                    "Scan chunks require the peak cache and do not support columnar output!");
+        }
+        if (chunks < 1) {
+            throw new IllegalArgumentException(
+                    "Number of chunks must be at least 1: " + chunks);
+        }
+        List<List<String>> scanColumns = findScanColumns();
+        List<ConversionSupplier> chunkSuppliers = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            chunkSuppliers.add(new ConversionSupplier(ltf, outputDirPath,
+                    mzMlFile, transitionSpecGroups, stopAtSmallestPpm,
+                    dateTimeCreated, extractionSettings, runMetrics, i, chunks,
+                    scanColumns));
+        }
+        return chunkSuppliers;
+    }
+
+    /**
+     * Returns the scan columns of each group, those of the first MS2 scan in
+     * the peak cache entry the group has rows for, or null for groups without
+     * rows. Reading stops once the columns of all groups are known, which is
+     * usually after the first few scans.
+     */
+    private List<List<String>> findScanColumns() throws IOException, MSDKException {
+        List<ScanProcessor> scanProcessors = new ArrayList<>(
+                transitionSpecGroups.size());
+        for (TransitionSpecificationGroup group : transitionSpecGroups) {
+            // only matches, never writes
+            scanProcessors.add(new ScanProcessor(this, group, null, null));
+        }
+        Function<ScanMetadata, List<ScanProcessor>> scanProcessorSelector = createScanFilter(
+                createScanProcessorSelector(scanProcessors), scanProcessors);
+        Map<ScanProcessor, List<String>> scanColumns = new HashMap<>();
+        ScanMatches scanMatches = new ScanMatches();
+        try (PeakCacheReader reader = extractionSettings.getPeakCache().
+                read(mzMlFile)) {
+            while (scanColumns.size() < scanProcessors.size() && reader.next()) {
+                ScanMetadata scanMetadata = new ScanMetadata(this, reader);
+                boolean decoded = false;
+                for (ScanProcessor scanProcessor : scanProcessorSelector.apply(
+                        scanMetadata)) {
+                    if (scanColumns.containsKey(scanProcessor)) {
+                        continue;
+                    }
+                    if (!decoded) {
+                        int peakCount = reader.readPeaks();
+                        scanMetadata.setPeaks(reader.getMzValues(), peakCount,
+                                reader.getRawTic());
+                        decoded = true;
+                    }
+                    if (scanProcessor.match(scanMetadata, reader.getMzValues(),
+                            reader.getIntensityValues(), scanMatches).
+                            size() > 0) {
+                        scanColumns.put(scanProcessor, ScanProcessor.
+                                createScanColumns(scanMetadata.getScanDefaults(
+                                        scanProcessor.getTransitionSpecGroup().
+                                                getInstrument())));
+                    }
+                }
+            }
+        }
+        return scanProcessors.stream().
+                map(scanColumns::get).
+                collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the scan columns of an MS2 scan that do not depend on the
+     * instrument, the run or the decoded peaks, in output order. The columns
+     * that depend on the instrument hold the raw values they are derived from
+     * and are resolved by {@link #prepareScanDefaults}.
+     *
+     * @param msScan the scan.
+     * @return the scan template.
+     */
+    static Map<String, String> prepareScanTemplate(MzMLMsScan msScan) {
         Map<String, String> scanDefaults = new LinkedHashMap<>();
-        scanDefaults.put("instrument", transitionSpecGroup.getInstrument());
-        scanDefaults.put("localDateTimeCreated", dateTimeCreated.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
-        scanDefaults.put("origin", mzMlFile.getFileName().
-                toString());
         scanDefaults.put("scanNumber", safeToString(msScan.
                 getScanNumber()));
         scanDefaults.put("polarity", msScan.getPolarity().
@@ -110,7 +295,7 @@ public class ConversionSupplier implements Supplier<Optional<Path>> {
                 getScanDefinition());
         scanDefaults.put("msLevel",
                 safeToString(msScan.getMsLevel()));
-        handlePrecursorList(transitionSpecGroup.getInstrument(), msScan, scanDefaults);
+        handlePrecursorList(msScan, scanDefaults);
         handleSourceInducedFragmentation(msScan,
                 scanDefaults);
         handleIsolationInfo(msScan, scanDefaults);
@@ -122,49 +307,61 @@ public class ConversionSupplier implements Supplier<Optional<Path>> {
         scanDefaults.put("spectrumType", msScan.
                 getSpectrumType().
                 toString());
-        Float rawTic = msScan.getTIC();
-        scanDefaults.put("rawTic", safeToString(rawTic));
         return scanDefaults;
     }
 
-    private boolean processLipidTargetSpecification(
-            TransitionSpecification spec,
-            double[] mzValues, Map<String, String> scanDefaults, MzMLMsScan msScan,
-            float[] intensityValues, Float rawTic, boolean firstLine,
-            final BufferedWriter fw, boolean stopAtSmallestPpm) throws IOException {
-        boolean isFirstLine = firstLine;
-        log.debug(String.format(
-                "Applying lipid target specification '%s'",
-                spec));
-        for (int j = 0; j < mzValues.length; j++) {
-            if (spec.isInRange(mzValues[j])) {
-                log.debug(String.format(
-                        "Checking m/z %.8f of scan %d",
-                        mzValues[j], msScan.
-                                getScanNumber()));
-                List<Map<String, String>> results = ltf.apply(spec, mzValues[j],
-                        intensityValues[j], rawTic,
-                        scanDefaults, stopAtSmallestPpm);
-                for (Map<String, String> line : results) {
-                    if (isFirstLine) {
-                        //write the header
-                        fw.write(line.keySet().
-                                stream().
-                                collect(Collectors.joining("\t")));
-                        fw.newLine();
-                        isFirstLine = false;
-                    }
-                    fw.write(line.values().
-                            stream().
-                            collect(Collectors.joining("\t")));
-                    fw.newLine();
-                }
+    /**
+     * Returns the scan columns of a scan for the given instrument, resolving
+     * the instrument specific columns of the scan template.
+     */
+    Map<String, String> prepareScanDefaults(String instrument,
+            Map<String, String> scanTemplate, Float rawTic) {
+        Map<String, String> scanDefaults = new LinkedHashMap<>();
+        scanDefaults.put("instrument", instrument);
+        scanDefaults.put("localDateTimeCreated", dateTimeCreated.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        scanDefaults.put("origin", mzMlFile.getFileName().
+                toString());
+        for (Map.Entry<String, String> entry : scanTemplate.entrySet()) {
+            switch (entry.getKey()) {
+                case "precursorActivationType":
+                    scanDefaults.put(entry.getKey(), getActivationType(
+                            instrument));
+                    break;
+                case "precursorCollisionEnergyUnit":
+                    scanDefaults.put(entry.getKey(), getCollisionEnergyUnit(
+                            instrument, entry.getValue()));
+                    break;
+                default:
+                    scanDefaults.put(entry.getKey(), entry.getValue());
             }
         }
-        return isFirstLine;
+        scanDefaults.put("rawTic", safeToString(rawTic));
+        return scanDefaults;
     }
 
-    private void handlePrecursorList(String machineCvParam, MzMLMsScan msScan,
+    private static String getActivationType(String machineCvParam) {
+        if (machineCvParam.equals("MS:1002523")) { //set this to HCD for Thermo QExHF
+            // <cvParam cvRef="MS" accession="MS:1000422" name="beam-type collision-induced dissociation" value=""/>
+            return ActivationType.HCD.
+                    toString();
+        } else if (machineCvParam.equals("MS:1002791") || machineCvParam.equals("MS:1000490")) { // set this to CID for Agilent 6545 Q-TOF LC/MS  or Agilent instrument models
+            return ActivationType.CID.
+                    toString();
+        }
+        return "beam-type CID";
+    }
+
+    private static String getCollisionEnergyUnit(String machineCvParam,
+            String unitAccession) {
+        if (machineCvParam.equals("MS:1002523")) { //set this to Normalized Collision Energy for Thermo QExHF, the value reported by msConvert is wrongly reported as electronvolt
+            return "normalized";
+        } else if ("UO:0000266".equals(unitAccession)) {
+            return "electronvolt";
+        }
+        return unitAccession;
+    }
+
+    private static void handlePrecursorList(MzMLMsScan msScan,
             Map<String, String> line) {
         List<MzMLPrecursorElement> precursorElementsList = msScan.
                 getPrecursorList().
@@ -228,37 +425,19 @@ public class ConversionSupplier implements Supplier<Optional<Path>> {
 
                      */
                     case "MS:1000422":
-                        if (machineCvParam.equals("MS:1002523")) { //set this to HCD for Thermo QExHF
-                            // <cvParam cvRef="MS" accession="MS:1000422" name="beam-type collision-induced dissociation" value=""/>
-                            line.put("precursorActivationType", ActivationType.HCD.
-                                    toString());
-                        } else if (machineCvParam.equals("MS:1002791") || machineCvParam.equals("MS:1000490")) { // set this to CID for Agilent 6545 Q-TOF LC/MS  or Agilent instrument models
-                            line.put("precursorActivationType", ActivationType.CID.
-                                    toString());
-                        } else {
-                            line.put("precursorActivationType", "beam-type CID");
-                        }
+                        // resolved for the instrument by getActivationType
+                        line.put("precursorActivationType", param.
+                                getAccession());
                         break;
                     case "MS:1000045":
                         // <cvParam cvRef="MS" accession="MS:1000045" name="collision energy" value="10.0" unitCvRef="UO" unitAccession="UO:0000266" unitName="electronvolt"/>
                         line.put("precursorCollisionEnergy",
                                 param.getValue().
                                         get());
-                        if (machineCvParam.equals("MS:1002523")) { //set this to Normalized Collision Energy for Thermo QExHF, the value reported by msConvert is wrongly reported as electronvolt
-                            line.put("precursorCollisionEnergyUnit",
-                                    "normalized");
-                        } else {
-                            if (param.getUnitAccession().
-                                    get().
-                                    equals("UO:0000266")) {
-                                line.put("precursorCollisionEnergyUnit",
-                                        "electronvolt");
-                            } else {
-                                line.put("precursorCollisionEnergyUnit",
-                                        param.getUnitAccession().
-                                                get());
-                            }
-                        }
+                        // resolved for the instrument by getCollisionEnergyUnit
+                        line.put("precursorCollisionEnergyUnit",
+                                param.getUnitAccession().
+                                        orElse(""));
                         break;
                     default:
                         log.debug("Unsupported CV term: " + param.
@@ -269,7 +448,7 @@ public class ConversionSupplier implements Supplier<Optional<Path>> {
         }
     }
 
-    private void handleSourceInducedFragmentation(MzMLMsScan msScan,
+    private static void handleSourceInducedFragmentation(MzMLMsScan msScan,
             Map<String, String> line) {
         ActivationInfo sourceInducedFragmentation = msScan.
                 getSourceInducedFragmentation();
@@ -284,7 +463,7 @@ public class ConversionSupplier implements Supplier<Optional<Path>> {
         }
     }
 
-    private void handleIsolationInfo(MzMLMsScan msScan,
+    private static void handleIsolationInfo(MzMLMsScan msScan,
             Map<String, String> line) {
         if (msScan.getIsolations().
                 size() > 1) {
@@ -355,69 +534,511 @@ public class ConversionSupplier implements Supplier<Optional<Path>> {
         return Integer.toString(value);
     }
 
+    /**
+     * Returns the output file of the given group.
+     *
+     * @param transitionSpecGroup the transition specification group.
+     * @return the path of the output file.
+     */
+    public Path getOutputFile(TransitionSpecificationGroup transitionSpecGroup) {
+        return getOutputFile(transitionSpecGroup, "_fip.tsv");
+    }
+
+    /**
+     * Returns the columnar output file of the given group, which is written
+     * next to the tab separated output file, if enabled in the extraction
+     * settings.
+     *
+     * @param transitionSpecGroup the transition specification group.
+     * @return the path of the columnar output file.
+     */
+    public Path getColumnarOutputFile(
+            TransitionSpecificationGroup transitionSpecGroup) {
+        return getOutputFile(transitionSpecGroup, "_fip.fipc");
+    }
+
+    /**
+     * Returns the file the rows of the given group are written to, the part
+     * file of the chunk, if this supplier processes a scan chunk.
+     */
+    private Path getRowOutputFile(
+            TransitionSpecificationGroup transitionSpecGroup) {
+        return chunks > 1 ? getPartFile(transitionSpecGroup, chunk) : getOutputFile(
+                transitionSpecGroup);
+    }
+
+    private Path getPartFile(TransitionSpecificationGroup transitionSpecGroup,
+            int chunk) {
+        return getOutputFile(transitionSpecGroup, "_fip.tsv.part" + chunk);
+    }
+
+    private Path getOutputFile(TransitionSpecificationGroup transitionSpecGroup,
+            String suffix) {
+        String configKey = transitionSpecGroup.getConfigKey().
+                toString();
+        return outputDirPath.resolve(configKey).
+                resolve(
+                        configKey.
+                                replaceAll("/", "-").
+                                replaceAll(";", "_").
+                                replaceAll(":", "_").
+                                replaceAll(" ", "_") + suffix);
+    }
+
+    /**
+     * Parses the mzML file once and writes the output file of every
+     * transition specification group.
+     *
+     * @return the output files, in the order of the transition specification
+     * groups, or empty for all groups if the output could not be written.
+     */
     @Override
-    public Optional<Path> get() {
-        boolean firstLine = true;
-        outputDirPath.toFile().mkdirs();
-        Path lipidOutputFile = outputDirPath.resolve(
-                transitionSpecGroup.getConfigKey().
-                        toString().
-                        replaceAll("/", "-").
-                        replaceAll(";", "_").
-                        replaceAll(":", "_").
-                        replaceAll(" ", "_") + "_fip.tsv");
-        try (BufferedWriter fw = new BufferedWriter(Files.
-                newBufferedWriter(lipidOutputFile, Charset.
-                        forName(
-                                "UTF-8")))) {
-            Path mzMlFile = transitionSpecGroup.getTargetFile();
-            MzMLFileImportMethod parser = new MzMLFileImportMethod(
-                    mzMlFile);
-            final MzMLRawDataFile df;
+    public List<Optional<Path>> get() {
+        List<ScanProcessor> scanProcessors = new ArrayList<>(
+                transitionSpecGroups.size());
+        boolean success = true;
+        FileMetrics fileMetrics = runMetrics.getFileMetrics(mzMlFile);
+        long start = System.nanoTime();
+        MappedPeakDecoder peakDecoder = null;
+        ScanMatcher scanMatcher = extractionSettings.getMatchThreads() > 1 ? new ParallelScanMatcher(
+                fileMetrics, mzMlFile, extractionSettings.getMatchThreads()) : new ScanMatcher(
+                fileMetrics);
+        try {
+            for (int i = 0; i < transitionSpecGroups.size(); i++) {
+                TransitionSpecificationGroup group = transitionSpecGroups.get(i);
+                scanProcessors.add(new ScanProcessor(this, group, createRowWriter(
+                        group), chunkScanColumns == null ? null : chunkScanColumns.
+                        get(i)));
+            }
+            Function<ScanMetadata, List<ScanProcessor>> scanProcessorSelector = createScanFilter(
+                    createScanProcessorSelector(scanProcessors),
+                    scanProcessors);
+            if (extractionSettings.getPeakCache() != null) {
+                try (PeakCacheReader reader = extractionSettings.getPeakCache().
+                        read(mzMlFile)) {
+                    readCachedScans(scanProcessorSelector, reader, scanMatcher,
+                            fileMetrics);
+                    // pending scans refer to the mapped entry
+                    scanMatcher.finish();
+                }
+            } else {
+                if (extractionSettings.isMappedDecoding()) {
+                    peakDecoder = new MappedPeakDecoder(mzMlFile);
+                }
+                if (extractionSettings.isStreaming()) {
+                    streamScans(scanProcessorSelector, peakDecoder,
+                            scanMatcher, fileMetrics);
+                } else {
+                    readScans(scanProcessorSelector, peakDecoder, scanMatcher,
+                            fileMetrics);
+                }
+                scanMatcher.finish();
+            }
+        } catch (MSDKException | MSDKRuntimeException ex) {
+            // the output files are incomplete
+            log.error("Caught exception:", ex);
+            success = false;
+        } catch (IOException ex) {
+            log.error("Caught exception:", ex);
+            success = false;
+        } catch (UncheckedIOException ex) {
+            log.error("Caught exception:", ex.getCause());
+            success = false;
+        } finally {
+            scanMatcher.close();
+            for (ScanProcessor scanProcessor : scanProcessors) {
+                try {
+                    scanProcessor.close();
+                } catch (IOException ex) {
+                    log.error("Caught exception:", ex);
+                    success = false;
+                }
+            }
+            if (peakDecoder != null) {
+                try {
+                    peakDecoder.close();
+                } catch (IOException ex) {
+                    log.error("Caught exception:", ex);
+                }
+            }
+            fileMetrics.getReadNanos().
+                    add(System.nanoTime() - start);
+        }
+        List<Optional<Path>> outputFiles = new ArrayList<>(
+                transitionSpecGroups.size());
+        for (TransitionSpecificationGroup group : transitionSpecGroups) {
+            outputFiles.add(success ? Optional.of(getRowOutputFile(group)) : Optional.
+                    empty());
+            if (chunks == 1) {
+                // chunks are recorded once they are merged
+                recordOutput(group, success);
+            }
+        }
+        return outputFiles;
+    }
+
+    /**
+     * Merges the part files written by the chunk suppliers of this supplier
+     * into the output file of each group, in chunk order, and deletes them.
+     * The output of a group is only written if all of its chunks succeeded.
+     *
+     * @param chunkResults the results of the chunk suppliers, in chunk order.
+     * @return the output files, in the order of the transition specification
+     * groups, or empty for groups whose output could not be written.
+     */
+    public List<Optional<Path>> mergeChunks(
+            List<List<Optional<Path>>> chunkResults) {
+        List<Optional<Path>> outputFiles = new ArrayList<>(
+                transitionSpecGroups.size());
+        for (int i = 0; i < transitionSpecGroups.size(); i++) {
+            TransitionSpecificationGroup group = transitionSpecGroups.get(i);
+            List<Path> partFiles = new ArrayList<>(chunkResults.size());
+            boolean success = true;
+            for (List<Optional<Path>> chunkResult : chunkResults) {
+                Optional<Path> partFile = chunkResult.get(i);
+                success &= partFile.isPresent();
+                partFile.ifPresent(partFiles::add);
+            }
             try {
-                df = parser.execute();
-                log.info(String.format(
-                        "Processing file '%s' with %d transition target definitions.",
-                        mzMlFile.toString(),
-                        transitionSpecGroup.getSpecifications().
-                                size()));
-                log.debug(String.format(
-                        "with MS functions: '%s'", df.getMsFunctions()));
-                List<MsScan> scans = df.getScans();
-                for (int i = 0; i < scans.size(); i++) {
-                    MzMLMsScan msScan = (MzMLMsScan) scans.get(i);
-                    if (msScan.getMsLevel() == 2) {
-                        //potentially slow, so do not perform in loop below
-                        Float rawTic = msScan.getTIC();
-                        Map<String, String> scanDefaults = prepareScanDefaults(
-                                mzMlFile, msScan);
-                        double[] mzValues = msScan.getMzValues();
-                        float[] intensityValues = msScan.
-                                getIntensityValues();
-                        for (TransitionSpecification spec : transitionSpecGroup.
-                                getSpecifications()) {
-                            firstLine = processLipidTargetSpecification(spec,
-                                    mzValues, scanDefaults, msScan,
-                                    intensityValues, rawTic, firstLine, fw,
-                                    stopAtSmallestPpm);
-                        }
-                    } else {
-                        log.debug(
-                                "Skipping MS " + msScan.getMsLevel() + " scan at index " + i);
-                    }
+                if (success) {
+                    mergeParts(partFiles, getOutputFile(group));
                 }
-            } catch (MSDKException ex) {
-                log.error("Caught exception:", ex);
             } catch (IOException ex) {
                 log.error("Caught exception:", ex);
-                return Optional.empty();
+                success = false;
+            } finally {
+                for (int c = 0; c < chunkResults.size(); c++) {
+                    try {
+                        Files.deleteIfExists(getPartFile(group, c));
+                    } catch (IOException ex) {
+                        log.warn("Could not delete part file:", ex);
+                    }
+                }
             }
+            outputFiles.add(success ? Optional.of(getOutputFile(group)) : Optional.
+                    empty());
+            recordOutput(group, success);
+        }
+        return outputFiles;
+    }
 
-        } catch (IOException ex) {
-            log.error("Caught exception:", ex);
-            return Optional.empty();
+    /**
+     * Concatenates the part files without their headers after the header of
+     * the first part with rows. All parts are written with the scan columns
+     * fixed by {@link #forChunks(int)}, so their headers are the same.
+     */
+    private static void mergeParts(List<Path> partFiles, Path outputFile) throws IOException {
+        try (OutputStream output = new BufferedOutputStream(Files.
+                newOutputStream(outputFile))) {
+            byte[] header = null;
+            byte[] buffer = new byte[1 << 16];
+            for (Path partFile : partFiles) {
+                try (InputStream input = new BufferedInputStream(Files.
+                        newInputStream(partFile))) {
+                    byte[] headerLine = readLine(input);
+                    if (headerLine == null) {
+                        // no rows in this chunk
+                        continue;
+                    }
+                    if (header == null) {
+                        header = headerLine;
+                        output.write(headerLine);
+                    } else if (!Arrays.equals(header, headerLine)) {
+                        throw new IOException(
+                                "Scan columns of part file " + partFile + " differ from those of the first part!");
+                    }
+                    int n;
+                    while ((n = input.read(buffer)) > 0) {
+                        output.write(buffer, 0, n);
+                    }
+                }
+            }
+        }
+    }
+
+    private static byte[] readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) >= 0) {
+            line.write(b);
+            if (b == '\n') {
+                break;
+            }
+        }
+        return line.size() == 0 ? null : line.toByteArray();
+    }
+
+    private void recordOutput(TransitionSpecificationGroup group,
+            boolean success) {
+        GroupMetrics groupMetrics = runMetrics.getGroupMetrics(group);
+        groupMetrics.setExtraction(success ? GroupMetrics.EXTRACTED : GroupMetrics.FAILED);
+        if (success) {
+            for (Path outputFile : Arrays.asList(getOutputFile(group),
+                    getColumnarOutputFile(group))) {
+                if (outputFile.toFile().
+                        isFile()) {
+                    groupMetrics.getBytesWritten().
+                            add(outputFile.toFile().
+                                    length());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a function that selects the scan processors an MS2 scan is
+     * matched against. With the precursor isolation filter, only the groups
+     * whose precursor m/z lies within the isolation windows of the scan are
+     * selected, otherwise all groups are.
+     */
+    private Function<ScanMetadata, List<ScanProcessor>> createScanProcessorSelector(
+            List<ScanProcessor> scanProcessors) {
+        if (!extractionSettings.isPrecursorIsolationFilter()) {
+            return (msScan) -> scanProcessors;
+        }
+        PrecursorIsolationIndex<ScanProcessor> index = new PrecursorIsolationIndex<>(
+                scanProcessors, (scanProcessor) -> scanProcessor.
+                getTransitionSpecGroup().
+                getPrecursorMz());
+        return (scanMetadata) -> index.getCandidates(
+                scanMetadata.getIsolationWindows());
+    }
+
+    /**
+     * Returns a function that removes the scan processors whose scan filter
+     * rejects an MS2 scan from the selected ones. The filters only use the
+     * metadata of the scan, so rejected scans are neither decoded nor written.
+     */
+    private Function<ScanMetadata, List<ScanProcessor>> createScanFilter(
+            Function<ScanMetadata, List<ScanProcessor>> scanProcessorSelector,
+            List<ScanProcessor> scanProcessors) {
+        if (scanProcessors.stream().
+                allMatch((scanProcessor) -> scanProcessor.getScanFilter().
+                isEmpty())) {
+            return scanProcessorSelector;
+        }
+        return (scanMetadata) -> {
+            List<ScanProcessor> candidates = scanProcessorSelector.apply(
+                    scanMetadata);
+            if (candidates.isEmpty()) {
+                return candidates;
+            }
+            List<ScanProcessor> accepted = new ArrayList<>(candidates.size());
+            for (ScanProcessor scanProcessor : candidates) {
+                if (scanProcessor.getScanFilter().
+                        accepts(scanMetadata.getCollisionEnergy(),
+                                scanMetadata.getRetentionTime(), scanMetadata.
+                                getPolarity(), scanMetadata.getMsFunction())) {
+                    accepted.add(scanProcessor);
+                }
+            }
+            return accepted;
+        };
+    }
+
+    /**
+     * Returns the collision energy (MS:1000045) of the first precursor of the
+     * scan that reports one.
+     */
+    static Double getCollisionEnergy(MzMLMsScan msScan) {
+        for (MzMLPrecursorElement pel : msScan.getPrecursorList().
+                getPrecursorElements()) {
+            for (MzMLCVParam param : pel.getActivation().
+                    getCVParamsList()) {
+                if ("MS:1000045".equals(param.getAccession()) && param.
+                        getValue().
+                        isPresent()) {
+                    try {
+                        return Double.valueOf(param.getValue().
+                                get());
+                    } catch (NumberFormatException ex) {
+                        log.debug("Invalid collision energy " + param.
+                                getValue().
+                                get() + " of scan " + msScan.getId());
+                    }
+                }
+            }
         }
-        return Optional.of(lipidOutputFile);
+        return null;
     }
 
+    /**
+     * Returns the isolation windows of the scan, or an empty list, if any of
+     * them is unknown.
+     */
+    static List<Range<Double>> getIsolationWindows(MzMLMsScan msScan) {
+        List<Range<Double>> isolationWindows = new ArrayList<>();
+        for (IsolationInfo isolationInfo : msScan.getIsolations()) {
+            if (isolationInfo == null || isolationInfo.getIsolationMzRange() == null) {
+                // unknown isolation window, match against all groups
+                return Collections.emptyList();
+            }
+            isolationWindows.add(isolationInfo.getIsolationMzRange());
+        }
+        return isolationWindows;
+    }
+
+    /**
+     * Parses the complete mzML file into memory and processes all MS2 scans
+     * afterwards.
+     */
+    private void readScans(
+            Function<ScanMetadata, List<ScanProcessor>> scanProcessorSelector,
+            MappedPeakDecoder peakDecoder, ScanMatcher scanMatcher,
+            FileMetrics fileMetrics) throws MSDKException, IOException {
+        MzMLFileImportMethod parser = new MzMLFileImportMethod(
+                mzMlFile);
+        final MzMLRawDataFile df = parser.execute();
+        log.info(String.format(
+                "Processing file '%s' with %d transition target definitions in %d groups.",
+                mzMlFile.toString(),
+                getNumberOfSpecifications(), transitionSpecGroups.size()));
+        log.debug(String.format(
+                "with MS functions: '%s'", df.getMsFunctions()));
+        List<MsScan> scans = df.getScans();
+        fileMetrics.getScansRead().
+                add(scans.size());
+        for (int i = 0; i < scans.size(); i++) {
+            MzMLMsScan msScan = (MzMLMsScan) scans.get(i);
+            if (msScan.getMsLevel() == 2) {
+                fileMetrics.getMs2Scans().
+                        increment();
+                ScanMetadata scanMetadata = new ScanMetadata(this, msScan);
+                List<ScanProcessor> scanProcessors = scanProcessorSelector.
+                        apply(scanMetadata);
+                if (scanProcessors.isEmpty()) {
+                    log.debug(
+                            "Skipping MS 2 scan at index " + i + " without target precursor in isolation window");
+                    continue;
+                }
+                scanMatcher.decodeAndMatch(msScan, scanMetadata,
+                        scanProcessors, peakDecoder);
+            } else {
+                log.debug(
+                        "Skipping MS " + msScan.getMsLevel() + " scan at index " + i);
+            }
+        }
+    }
+
+    /**
+     * Reads the MS2 scans from the peak cache instead of parsing the mzML
+     * file. Only the peaks of scans selected by a scan processor are copied
+     * from the cache entry.
+     */
+    private void readCachedScans(
+            Function<ScanMetadata, List<ScanProcessor>> scanProcessorSelector,
+            PeakCacheReader reader, ScanMatcher scanMatcher,
+            FileMetrics fileMetrics) throws IOException {
+        log.info(String.format(
+                "Reading file '%s' from peak cache %s with %d transition target definitions in %d groups.",
+                mzMlFile.toString(), reader, getNumberOfSpecifications(),
+                transitionSpecGroups.size()));
+        int from = 0;
+        int to = Integer.MAX_VALUE;
+        if (chunks > 1) {
+            from = (int) ((long) reader.getMs2ScanCount() * chunk / chunks);
+            to = (int) ((long) reader.getMs2ScanCount() * (chunk + 1) / chunks);
+            log.info(String.format("Reading MS2 scans %d to %d of %d.", from,
+                    to, reader.getMs2ScanCount()));
+        }
+        if (chunk == 0) {
+            fileMetrics.getScansRead().
+                    add(reader.getScanCount());
+        }
+        for (int ms2Scan = 0; ms2Scan < to && reader.next(); ms2Scan++) {
+            if (ms2Scan < from) {
+                continue;
+            }
+            fileMetrics.getMs2Scans().
+                    increment();
+            ScanMetadata scanMetadata = new ScanMetadata(this, reader);
+            List<ScanProcessor> scanProcessors = scanProcessorSelector.
+                    apply(scanMetadata);
+            if (scanProcessors.isEmpty()) {
+                log.debug(
+                        "Skipping MS 2 scan " + reader.getScanNumber() + " without target precursor in isolation window");
+                continue;
+            }
+            fileMetrics.getMs2ScansKept().
+                    increment();
+            long start = System.nanoTime();
+            int peakCount = reader.readPeaks();
+            scanMetadata.setPeaks(reader.getMzValues(), peakCount, reader.
+                    getRawTic());
+            scanMatcher.match(scanMetadata, reader.getMzValues(), reader.
+                    getIntensityValues(), true, scanProcessors, start);
+        }
+    }
+
+    /**
+     * Processes each MS2 scan while the mzML file is being parsed. MS1 scans
+     * are skipped by the scan predicate, the peaks of an MS2 scan are decoded
+     * from a separate memory mapping of the file, matched and then dropped
+     * together with the scan, so memory use does not grow with the size of the
+     * file.
+     */
+    private void streamScans(
+            Function<ScanMetadata, List<ScanProcessor>> scanProcessorSelector,
+            MappedPeakDecoder peakDecoder, ScanMatcher scanMatcher,
+            FileMetrics fileMetrics) throws MSDKException, IOException {
+        log.info(String.format(
+                "Streaming file '%s' with %d transition target definitions in %d groups.",
+                mzMlFile.toString(),
+                getNumberOfSpecifications(), transitionSpecGroups.size()));
+        StreamingScanFilter scanFilter = new StreamingScanFilter(this,
+                FileMemoryMapper.mapToMemory(mzMlFile.toFile()),
+                scanProcessorSelector, peakDecoder, scanMatcher, fileMetrics);
+        // MSDK only applies the scan predicate when parsing from a stream
+        MzMLFileImportMethod parser = new MzMLFileImportMethod(
+                FileMemoryMapper.mapToMemory(mzMlFile.toFile()), scanFilter,
+                (chromatogram) -> false);
+        parser.execute();
+        scanFilter.flush();
+    }
+
+    private int getNumberOfSpecifications() {
+        return transitionSpecGroups.stream().
+                mapToInt((group) -> group.getSpecifications().
+                        size()).
+                sum();
+    }
+
+    private RowWriter createRowWriter(
+            TransitionSpecificationGroup transitionSpecGroup) throws IOException {
+        Path lipidOutputFile = getRowOutputFile(transitionSpecGroup);
+        lipidOutputFile.getParent().
+                toFile().
+                mkdirs();
+        RowWriter tsvRowWriter = new TsvRowWriter(new BufferedWriter(Files.
+                newBufferedWriter(lipidOutputFile, Charset.
+                        forName(
+                                "UTF-8"))));
+        if (extractionSettings.isColumnarOutput()) {
+            try {
+                return new CompositeRowWriter(Arrays.asList(
+                        tsvRowWriter, new ColumnarRowWriter(Files.
+                                newOutputStream(getColumnarOutputFile(
+                                        transitionSpecGroup)))));
+            } catch (IOException ex) {
+                tsvRowWriter.close();
+                throw ex;
+            }
+        }
+        return tsvRowWriter;
+    }
+
+    /**
+     * Creates a scan processor for the group that writes its rows to the
+     * given row writer instead of the group's output files. Used by the
+     * benchmarks to measure the matching of single scans.
+     *
+     * @param transitionSpecGroup the transition specification group.
+     * @param rowWriter the row writer.
+     * @return the scan processor.
+     */
+    ScanProcessor createScanProcessor(
+            TransitionSpecificationGroup transitionSpecGroup,
+            RowWriter rowWriter) {
+        return new ScanProcessor(this, transitionSpecGroup, rowWriter, null);
+    }
 }
@@ -7,20 +7,32 @@ import de.isas.lipidomics.transitionextractor.services.transitions.TransitionLis
 import de.isas.lipidomics.transitionextractor.services.LipidTargetFinder;
 import de.isas.lipidomics.transitionextractor.services.MappingSpecification;
 import de.isas.lipidomics.transitionextractor.services.mapping.TransitionMappingParser;
+import de.isas.lipidomics.transitionextractor.services.metrics.GroupMetrics;
+import de.isas.lipidomics.transitionextractor.services.metrics.RunMetrics;
+import io.github.msdk.MSDKException;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.time.Clock;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.MultiValuedMap;
@@ -46,6 +58,10 @@ public class Converter {
         private final Path fliprConfigFile;
         private final Path fliprPath;
         private final Integer maxCombinations;
+        private ExtractionSettings extractionSettings = new ExtractionSettings();
+        private boolean persistentRWorkers = false;
+        private boolean extractionCache = false;
+        private boolean jmxMetrics = false;
     }
 
     private final Arguments arguments;
@@ -55,6 +71,38 @@ public class Converter {
     }
 
     public void convert(Integer nThreads, boolean stopAtSmallestPpm) throws IOException, InterruptedException, ExecutionException {
+        convert(nThreads, nThreads, stopAtSmallestPpm);
+    }
+
+    /**
+     * Runs the extraction of all mzML files on nThreads threads and the flipr
+     * model training of the extracted groups on a separate pool of
+     * nRThreads threads. Files are extracted in the order of their estimated
+     * cost, largest first, and files whose cost exceeds the share of a single
+     * thread are split into up to maxScanChunks scan chunks of the extraction
+     * settings, which are matched in parallel. Training tasks are queued as soon as the extraction
+     * of their file has finished, so that the extraction of later files
+     * overlaps with the training of earlier ones. If persistent R workers are
+     * enabled, the training runs on nRThreads long-lived R processes instead
+     * of one Rscript process per group. If the extraction cache is enabled,
+     * groups whose inputs are unchanged since a previous run into the same
+     * output directory reuse its output files and model training results.
+     * If the mapping row of a group sets MinDataPoints, it is passed to flipr,
+     * and groups in which no fragment has as many matched rows are not
+     * submitted for model training.
+     * Counters and timers of the run are written to a JSON and a CSV report
+     * into the output directory and, if enabled, exposed through JMX while
+     * the run is in progress.
+     *
+     * @param nThreads the number of extraction threads.
+     * @param nRThreads the number of concurrent R training processes.
+     * @param stopAtSmallestPpm whether to stop at the smallest matching ppm.
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public void convert(Integer nThreads, Integer nRThreads,
+        boolean stopAtSmallestPpm) throws IOException, InterruptedException, ExecutionException {
         this.arguments.outputDirPath.toFile().
             mkdirs();
         Files.copy(this.arguments.mappingFile, this.arguments.outputDirPath.
@@ -73,88 +121,72 @@ public class Converter {
             resolve(this.arguments.transitionsFile.getFileName()),
             StandardCopyOption.REPLACE_EXISTING);
         TransitionListParser cfp = new TransitionListParser();
-        Map<Path, TransitionSpecificationGroup> targetSpecifications;
+        Map<Path, List<TransitionSpecificationGroup>> targetSpecifications;
         try {
             targetSpecifications = cfp.parse(this.arguments.transitionsFile,
-                this.arguments.mzMlInputPath, mappingSpecifications);
+                this.arguments.mzMlInputPath, mappingSpecifications, nThreads);
             log.info(String.format(
                 "Loaded %d target specifications for %d files.",
                 targetSpecifications.values().
-                    size(), targetSpecifications.keySet().
+                    stream().
+                    mapToInt(List::size).
+                    sum(), targetSpecifications.keySet().
                     size()));
         } catch (IOException ex) {
             log.error("Caught exception:", ex);
             return;
         }
 
-        final ExecutorService es = Executors.newFixedThreadPool(nThreads);
+        final ExtractionScheduler scheduler = new ExtractionScheduler(nThreads);
+        // R processes block their thread for minutes, keep them off the extraction and common pools
+        final ExecutorService rEs = Executors.newFixedThreadPool(nRThreads);
+        final RWorkerPool rWorkerPool = createRWorkerPool(nRThreads);
+        final ExtractionCache cache = this.arguments.extractionCache ? ExtractionCache.
+            load(this.arguments.outputDirPath) : null;
+        final String modelSettings = cache == null ? null : getModelSettings(
+            cache);
         final LocalDateTime dateTimeCreated = LocalDateTime.now(Clock.
             systemUTC());
-        List<CompletableFuture<String>> futures = targetSpecifications.
-            keySet().
+        final RunMetrics metrics = new RunMetrics();
+        final ObjectName metricsName = this.arguments.jmxMetrics ? registerMetrics(
+            metrics) : null;
+        final Map<Path, Long> costs = new HashMap<>();
+        for (Map.Entry<Path, List<TransitionSpecificationGroup>> entry : targetSpecifications.
+            entrySet()) {
+            costs.put(entry.getKey(), ExtractionScheduler.estimateCost(entry.
+                getKey(), entry.getValue()));
+        }
+        final long totalCost = costs.values().
             stream().
-            map((key) ->
-            {
-                final TransitionSpecificationGroup tsg = targetSpecifications.
-                    get(
-                        key);
-                final Path outputDirPath = this.arguments.outputDirPath.resolve(
-                    tsg.getConfigKey().
-                        toString());
-                return CompletableFuture.supplyAsync(new ConversionSupplier(
-                    this.arguments.ltf,
-                    outputDirPath, tsg,
-                    stopAtSmallestPpm, dateTimeCreated), es).
-                    thenApplyAsync((t) ->
-                    {
-                        if (t.isPresent() && t.get().
-                            toFile().
-                            exists()) {
-                            try {
-                                RJobRunner plotter = new RJobRunner();
-                                RJobRunner.Arguments args = new RJobRunner.Arguments();
-                                args.setOutputDir(outputDirPath);
-                                args.setDataPlots(this.arguments.plotData);
-                                args.setFileFormat(this.arguments.plotFormat);
-                                args.setMinCollisionEnergy(
-                                    this.arguments.minCollisionEnergy);
-                                args.setBaseName(tsg.getConfigKey().
-                                    toString());
-                                args.setFile(t.get());
-                                args.setFliprConfigFile(this.arguments.fliprConfigFile);
-                                args.setFliprPath(this.arguments.fliprPath);
-                                args.setMaxCombinations(this.arguments.maxCombinations);
-                                CompletableFuture<Integer> res = plotter.apply(
-                                    args);
-                                Integer returnValue = res.get();
-                                if (returnValue == 0) {
-                                    return "Generated result for " + this.arguments.outputDirPath + " (" + tsg.
-                                        getPrecursorName() + tsg.
-                                            getPrecursorAdduct() + " )" + " and key=" + key;
-                                } else {
-                                    return "Failed to generate result for " + this.arguments.outputDirPath + " (" + tsg.
-                                        getPrecursorName() + tsg.
-                                            getPrecursorAdduct() + " )" + " and key=" + key + " with return value=" + returnValue;
-                                }
-                            } catch (InterruptedException ex) {
-                                log.error("Caught exception:", ex);
-                                return "Failed to generate result for " + this.arguments.outputDirPath + " (" + tsg.
-                                    getPrecursorName() + tsg.
-                                        getPrecursorAdduct() + " )" + " and key=" + key + ", caused by: " + ex.
-                                        getLocalizedMessage();
-                            } catch (ExecutionException ex) {
-                                log.error("Caught exception:", ex);
-                                return "Failed to generate result for " + this.arguments.outputDirPath + " (" + tsg.
-                                    getPrecursorName() + tsg.
-                                        getPrecursorAdduct() + " )" + " and key=" + key + ", caused by: " + ex.
-                                        getLocalizedMessage();
-                            }
-                        } else {
-                            return "No result for " + this.arguments.outputDirPath + " and key=" + key;
-                        }
-                    });
-            }).
-            collect(Collectors.toList());
+            mapToLong(Long::longValue).
+            sum();
+        final int maxScanChunks = getMaxScanChunks();
+        List<Path> keys = new ArrayList<>(targetSpecifications.keySet());
+        // longest first, so that the largest files do not start last
+        keys.sort(Comparator.comparing(costs::get, Comparator.reverseOrder()));
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (Path key : keys) {
+            final List<TransitionSpecificationGroup> tsgs = targetSpecifications.
+                get(key);
+            final long cost = costs.get(key);
+            final int chunks = ExtractionScheduler.getChunks(cost, totalCost,
+                nThreads, maxScanChunks);
+            log.info(String.format(
+                "Scheduling file '%s' with estimated cost %d in %d scan chunk(s).",
+                key, cost, chunks));
+            // parse each file once for all groups targeting it
+            final CompletableFuture<List<Optional<Path>>> conversion = CompletableFuture.
+                supplyAsync(() -> extract(key, tsgs, stopAtSmallestPpm,
+                    dateTimeCreated, cache, metrics, scheduler, cost, chunks),
+                    scheduler.withCost(cost));
+            for (int i = 0; i < tsgs.size(); i++) {
+                final TransitionSpecificationGroup tsg = tsgs.get(i);
+                final int index = i;
+                futures.add(conversion.thenApplyAsync((t) ->
+                    runFlipr(key, tsg, t.get(index), rWorkerPool, cache,
+                        modelSettings, metrics), rEs));
+            }
+        }
         CompletableFuture<Void> allOf = CompletableFuture.allOf(futures.
             toArray(new CompletableFuture[futures.size()]));
 
@@ -165,19 +197,302 @@ public class Converter {
                     future.join()).
                 collect(Collectors.toList());
         });
-        allFutures.thenApply((t) ->
-        {
-            t.stream().
-                forEach((output) ->
-                {
-                    log.
-                        info(String.format(
-                            "Processing results: %s", output));
-                });
-            return Void.TYPE;
-        }).
-            get();
-        es.shutdown();
-        es.awaitTermination(24, TimeUnit.HOURS);
+        try {
+            allFutures.thenApply((t) ->
+            {
+                t.stream().
+                    forEach((output) ->
+                    {
+                        log.
+                            info(String.format(
+                                "Processing results: %s", output));
+                    });
+                return Void.TYPE;
+            }).
+                get();
+            scheduler.shutdown();
+            rEs.shutdown();
+            scheduler.awaitTermination(24, TimeUnit.HOURS);
+            rEs.awaitTermination(24, TimeUnit.HOURS);
+            metrics.finish();
+            metrics.writeReport(this.arguments.outputDirPath);
+            log.info(String.format("Run metrics: %s", metrics.getTotals()));
+        } finally {
+            // after a failure, stops the running and queued tasks, whose threads would keep the JVM alive
+            scheduler.shutdownNow();
+            rEs.shutdownNow();
+            if (rWorkerPool != null) {
+                rWorkerPool.close();
+            }
+            if (metricsName != null) {
+                unregisterMetrics(metricsName);
+            }
+        }
+        if (cache != null) {
+            cache.save();
+            log.info(String.format(
+                "Extraction cache: %d hits, %d misses. Model cache: %d hits, %d misses.",
+                cache.getExtractionHits(), cache.getExtractionMisses(), cache.
+                getModelHits(), cache.getModelMisses()));
+        }
+    }
+
+    private ObjectName registerMetrics(RunMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName(
+                "de.isas.lipidomics.transitionextractor:type=RunMetrics,name=" + ObjectName.
+                    quote(this.arguments.outputDirPath.toString()));
+            ManagementFactory.getPlatformMBeanServer().
+                registerMBean(metrics, name);
+            log.info(String.format("Exposing run metrics through JMX as %s",
+                name));
+            return name;
+        } catch (JMException ex) {
+            log.warn("Could not register run metrics with JMX:", ex);
+            return null;
+        }
+    }
+
+    private void unregisterMetrics(ObjectName name) {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+        } catch (JMException ex) {
+            log.warn("Could not unregister run metrics from JMX:", ex);
+        }
+    }
+
+    private int getMaxScanChunks() {
+        ExtractionSettings extractionSettings = this.arguments.extractionSettings;
+        if (extractionSettings.getMaxScanChunks() > 1 && (extractionSettings.
+            getPeakCache() == null || extractionSettings.isColumnarOutput())) {
+            log.warn(
+                "Scan chunks require the peak cache and do not support columnar output, extracting each file in a single task!");
+            return 1;
+        }
+        return extractionSettings.getMaxScanChunks();
+    }
+
+    private List<Optional<Path>> extract(Path key,
+        List<TransitionSpecificationGroup> tsgs, boolean stopAtSmallestPpm,
+        LocalDateTime dateTimeCreated, ExtractionCache cache,
+        RunMetrics metrics, ExtractionScheduler scheduler, long cost,
+        int chunks) {
+        if (cache == null) {
+            return extractGroups(key, tsgs, stopAtSmallestPpm,
+                dateTimeCreated, metrics, scheduler, cost, chunks);
+        }
+        ConversionSupplier allGroups = new ConversionSupplier(
+            this.arguments.ltf, this.arguments.outputDirPath, key, tsgs,
+            stopAtSmallestPpm, dateTimeCreated,
+            this.arguments.extractionSettings, metrics);
+        List<Optional<Path>> results = new ArrayList<>();
+        List<String> extractionKeys = new ArrayList<>();
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < tsgs.size(); i++) {
+            Path outputFile = allGroups.getOutputFile(tsgs.get(i));
+            String extractionKey = null;
+            try {
+                extractionKey = cache.getExtractionKey(key, tsgs.get(i),
+                    stopAtSmallestPpm, this.arguments.extractionSettings);
+            } catch (IOException ex) {
+                log.warn("Could not calculate extraction key for " + key, ex);
+            }
+            extractionKeys.add(extractionKey);
+            if (extractionKey != null && cache.isExtracted(outputFile,
+                extractionKey)) {
+                metrics.getGroupMetrics(tsgs.get(i)).
+                    setExtraction(GroupMetrics.REUSED);
+                results.add(Optional.of(outputFile));
+            } else {
+                results.add(Optional.empty());
+                pending.add(i);
+            }
+        }
+        if (pending.isEmpty()) {
+            log.info(String.format("Reusing cached results for %s", key));
+            return results;
+        }
+        List<TransitionSpecificationGroup> pendingGroups = pending.stream().
+            map(tsgs::get).
+            collect(Collectors.toList());
+        List<Optional<Path>> pendingResults = extractGroups(key,
+            pendingGroups, stopAtSmallestPpm, dateTimeCreated, metrics,
+            scheduler, cost, chunks);
+        for (int i = 0; i < pending.size(); i++) {
+            int index = pending.get(i);
+            Optional<Path> result = pendingResults.get(i);
+            cache.putExtracted(allGroups.getOutputFile(tsgs.get(index)),
+                result.isPresent() ? extractionKeys.get(index) : null);
+            results.set(index, result);
+        }
+        return results;
+    }
+
+    /**
+     * Extracts the given groups from the mzML file, in the calling thread or,
+     * with more than one chunk, from the peak cache entry of the file in scan
+     * chunks that are matched in parallel and merged in scan order.
+     */
+    private List<Optional<Path>> extractGroups(Path key,
+        List<TransitionSpecificationGroup> tsgs, boolean stopAtSmallestPpm,
+        LocalDateTime dateTimeCreated, RunMetrics metrics,
+        ExtractionScheduler scheduler, long cost, int chunks) {
+        ConversionSupplier conversion = new ConversionSupplier(
+            this.arguments.ltf, this.arguments.outputDirPath, key, tsgs,
+            stopAtSmallestPpm, dateTimeCreated,
+            this.arguments.extractionSettings, metrics);
+        if (chunks <= 1) {
+            return conversion.get();
+        }
+        List<ConversionSupplier> chunkConversions;
+        try {
+            // build the entry once, before the chunks read it
+            this.arguments.extractionSettings.getPeakCache().
+                build(key);
+            chunkConversions = conversion.forChunks(chunks);
+        } catch (IOException | MSDKException ex) {
+            log.error("Caught exception:", ex);
+            return conversion.get();
+        }
+        try {
+            return conversion.mergeChunks(scheduler.invokeAll(cost / chunks,
+                chunkConversions));
+        } catch (InterruptedException ex) {
+            log.error("Caught exception:", ex);
+            Thread.currentThread().
+                interrupt();
+        } catch (ExecutionException ex) {
+            log.error("Caught exception:", ex);
+        }
+        // deletes the part files and records the failure
+        return conversion.mergeChunks(Collections.nCopies(chunks, Collections.
+            nCopies(tsgs.size(), Optional.empty())));
+    }
+
+    private String getModelSettings(ExtractionCache cache) throws IOException {
+        return String.join("|", this.arguments.plotFormat, Boolean.toString(
+            this.arguments.plotData), Double.toString(
+                this.arguments.minCollisionEnergy), String.valueOf(
+                this.arguments.maxCombinations),
+            this.arguments.fliprConfigFile == null ? "" : cache.getFileDigest(
+                    this.arguments.fliprConfigFile),
+            this.arguments.fliprPath == null ? "" : cache.getFileDigest(
+                    this.arguments.fliprPath));
+    }
+
+    private RWorkerPool createRWorkerPool(Integer nRThreads) throws IOException {
+        if (!this.arguments.persistentRWorkers) {
+            return null;
+        }
+        if (this.arguments.fliprPath != null) {
+            log.warn(
+                "Persistent R workers only support the embedded flipr worker script, running one Rscript process per group for provided flipr path!");
+            return null;
+        }
+        log.info(String.format("Using %d persistent R workers.", nRThreads));
+        return new RWorkerPool(nRThreads, this.arguments.outputDirPath);
+    }
+
+    private String runFlipr(Path key, TransitionSpecificationGroup tsg,
+        Optional<Path> t, RWorkerPool rWorkerPool, ExtractionCache cache,
+        String modelSettings, RunMetrics metrics) {
+        GroupMetrics groupMetrics = metrics.getGroupMetrics(tsg);
+        if (t.isPresent() && t.get().
+            toFile().
+            exists()) {
+            String modelKey = cache == null ? null : cache.getModelKey(t.get(),
+                modelSettings);
+            if (cache != null && cache.isModelled(t.get(), modelKey)) {
+                if (GroupMetrics.INSUFFICIENT_DATA.equals(cache.getModelStatus(
+                    t.get()))) {
+                    groupMetrics.setModel(GroupMetrics.INSUFFICIENT_DATA);
+                    return "Skipped model training for " + this.arguments.outputDirPath + " (" + tsg.
+                        getPrecursorName() + tsg.
+                            getPrecursorAdduct() + " )" + " and key=" + key + ", as in a previous run";
+                }
+                groupMetrics.setModel(GroupMetrics.REUSED);
+                return "Reused result for " + this.arguments.outputDirPath + " (" + tsg.
+                    getPrecursorName() + tsg.
+                        getPrecursorAdduct() + " )" + " and key=" + key;
+            }
+            Long maxFragmentDataPoints = groupMetrics.
+                getMaxFragmentDataPoints();
+            if (tsg.getMinDataPoints() != null && maxFragmentDataPoints != null
+                && maxFragmentDataPoints < tsg.getMinDataPoints()) {
+                // no fragment can reach the minimum, flipr would not fit any model
+                groupMetrics.setModel(GroupMetrics.INSUFFICIENT_DATA);
+                if (modelKey != null) {
+                    cache.putModelled(t.get(), modelKey,
+                        GroupMetrics.INSUFFICIENT_DATA);
+                }
+                return "Skipped model training for " + this.arguments.outputDirPath + " (" + tsg.
+                    getPrecursorName() + tsg.
+                        getPrecursorAdduct() + " )" + " and key=" + key + ", at most " + maxFragmentDataPoints + " of " + tsg.
+                        getMinDataPoints() + " required data points per fragment";
+            }
+            try {
+                RJobRunner plotter = new RJobRunner(rWorkerPool);
+                RJobRunner.Arguments args = new RJobRunner.Arguments();
+                args.setOutputDir(t.get().
+                    getParent());
+                args.setDataPlots(this.arguments.plotData);
+                args.setFileFormat(this.arguments.plotFormat);
+                args.setMinCollisionEnergy(
+                    this.arguments.minCollisionEnergy);
+                args.setBaseName(tsg.getConfigKey().
+                    toString());
+                args.setFile(t.get());
+                args.setFliprConfigFile(this.arguments.fliprConfigFile);
+                args.setFliprPath(this.arguments.fliprPath);
+                args.setMaxCombinations(this.arguments.maxCombinations);
+                args.setMinDataPoints(tsg.getMinDataPoints());
+                long start = System.nanoTime();
+                CompletableFuture<Integer> res = plotter.apply(
+                    args);
+                Integer returnValue;
+                try {
+                    returnValue = res.get();
+                } finally {
+                    groupMetrics.getRWallNanos().
+                        add(System.nanoTime() - start);
+                }
+                groupMetrics.setRExitCode(returnValue);
+                if (returnValue == 0) {
+                    groupMetrics.setModel(GroupMetrics.TRAINED);
+                    if (modelKey != null) {
+                        cache.putModelled(t.get(), modelKey,
+                            GroupMetrics.TRAINED);
+                    }
+                    return "Generated result for " + this.arguments.outputDirPath + " (" + tsg.
+                        getPrecursorName() + tsg.
+                            getPrecursorAdduct() + " )" + " and key=" + key;
+                } else {
+                    groupMetrics.setModel(GroupMetrics.FAILED);
+                    return "Failed to generate result for " + this.arguments.outputDirPath + " (" + tsg.
+                        getPrecursorName() + tsg.
+                            getPrecursorAdduct() + " )" + " and key=" + key + " with return value=" + returnValue;
+                }
+            } catch (InterruptedException ex) {
+                log.error("Caught exception:", ex);
+                groupMetrics.setModel(GroupMetrics.FAILED);
+                return "Failed to generate result for " + this.arguments.outputDirPath + " (" + tsg.
+                    getPrecursorName() + tsg.
+                        getPrecursorAdduct() + " )" + " and key=" + key + ", caused by: " + ex.
+                        getLocalizedMessage();
+            } catch (ExecutionException ex) {
+                log.error("Caught exception:", ex);
+                groupMetrics.setModel(GroupMetrics.FAILED);
+                return "Failed to generate result for " + this.arguments.outputDirPath + " (" + tsg.
+                    getPrecursorName() + tsg.
+                        getPrecursorAdduct() + " )" + " and key=" + key + ", caused by: " + ex.
+                        getLocalizedMessage();
+            }
+        } else {
+            groupMetrics.setModel(GroupMetrics.SKIPPED);
+            return "No result for " + this.arguments.outputDirPath + " and key=" + key;
+        }
     }
 }
@@ -0,0 +1,314 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Persistent cache of the extraction and model training results in an output
+ * directory. Each group output file is recorded with a content-addressed key,
+ * derived from the mzML file (size, modification time and SHA-256 digest), the
+ * group's transition specifications, the extraction settings and the tool
+ * version. Results whose recorded key matches the key of the current run are
+ * reused instead of being recomputed.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Slf4j
+public class ExtractionCache {
+
+    public static final String CACHE_FILE = "fip-cache.properties";
+
+    private static final String FILE_PREFIX = "file.";
+    private static final String EXTRACTION_PREFIX = "extraction.";
+    private static final String MODEL_PREFIX = "model.";
+    private static final String MODEL_FILES_PREFIX = "modelFiles.";
+    private static final String MODEL_STATUS_PREFIX = "modelStatus.";
+
+    private final Path outputDirPath;
+    private final String version;
+    private final Properties entries;
+    private final AtomicInteger extractionHits = new AtomicInteger();
+    private final AtomicInteger extractionMisses = new AtomicInteger();
+    private final AtomicInteger modelHits = new AtomicInteger();
+    private final AtomicInteger modelMisses = new AtomicInteger();
+
+    private ExtractionCache(Path outputDirPath, String version,
+            Properties entries) {
+        this.outputDirPath = outputDirPath;
+        this.version = version;
+        this.entries = entries;
+    }
+
+    /**
+     * Loads the cache of the given output directory, or creates an empty one.
+     *
+     * @param outputDirPath the output directory.
+     * @return the cache.
+     * @throws IOException if the cache file can not be read.
+     */
+    public static ExtractionCache load(Path outputDirPath) throws IOException {
+        Properties entries = new Properties();
+        File cacheFile = outputDirPath.resolve(CACHE_FILE).
+                toFile();
+        if (cacheFile.isFile()) {
+            try (InputStream is = Files.newInputStream(cacheFile.toPath())) {
+                entries.load(is);
+            }
+            log.info(String.format("Loaded %d cache entries from %s",
+                    entries.size(), cacheFile));
+        }
+        return new ExtractionCache(outputDirPath, getToolVersion(), entries);
+    }
+
+    private static String getToolVersion() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream is = ExtractionCache.class.getResourceAsStream(
+                "/config.properties")) {
+            if (is != null) {
+                properties.load(is);
+            }
+        }
+        return properties.getProperty("version", "<VERSION>");
+    }
+
+    /**
+     * Saves the cache to the output directory.
+     *
+     * @throws IOException if the cache file can not be written.
+     */
+    public void save() throws IOException {
+        outputDirPath.toFile().
+                mkdirs();
+        Path cacheFile = outputDirPath.resolve(CACHE_FILE);
+        Path tmpFile = outputDirPath.resolve(CACHE_FILE + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmpFile)) {
+            entries.store(os, "flipr extraction cache, version " + version);
+        }
+        Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Returns the digest of the given file. The digest is cached for the
+     * file's size and modification time, so that unchanged files are only
+     * read once.
+     *
+     * @param file the file.
+     * @return the digest, prefixed by size and modification time.
+     * @throws IOException if the file can not be read.
+     */
+    public String getFileDigest(Path file) throws IOException {
+        return FileDigests.getDigest(entries, FILE_PREFIX, file).
+                getValue();
+    }
+
+    /**
+     * Returns the extraction key of a group.
+     *
+     * @param mzMlFile the mzML file.
+     * @param group the transition specification group.
+     * @param stopAtSmallestPpm whether to stop at the smallest matching ppm.
+     * @param extractionSettings the extraction settings.
+     * @return the extraction key.
+     * @throws IOException if the mzML file can not be read.
+     */
+    public String getExtractionKey(Path mzMlFile,
+            TransitionSpecificationGroup group, boolean stopAtSmallestPpm,
+            ExtractionSettings extractionSettings) throws IOException {
+        // specification order does not influence the output rows of a group
+        List<String> specifications = group.getSpecifications().
+                stream().
+                map(TransitionSpecification::toString).
+                sorted().
+                collect(Collectors.toList());
+        Hasher hasher = Hashing.sha256().
+                newHasher().
+                putString(version, StandardCharsets.UTF_8).
+                putString(getFileDigest(mzMlFile), StandardCharsets.UTF_8).
+                putString(group.getConfigKey().
+                        toString(), StandardCharsets.UTF_8).
+                putBoolean(stopAtSmallestPpm).
+                putString(extractionSettings.toString(),
+                        StandardCharsets.UTF_8);
+        specifications.forEach((s) -> hasher.putString(s,
+                StandardCharsets.UTF_8));
+        return hasher.hash().
+                toString();
+    }
+
+    /**
+     * Returns true and counts a hit, if the output file exists and was
+     * extracted with the given key, otherwise counts a miss.
+     *
+     * @param outputFile the group output file.
+     * @param extractionKey the extraction key of the current run.
+     * @return true, if the output file can be reused.
+     */
+    public boolean isExtracted(Path outputFile, String extractionKey) {
+        if (outputFile.toFile().
+                isFile() && extractionKey.equals(entries.getProperty(
+                        EXTRACTION_PREFIX + relativize(outputFile)))) {
+            extractionHits.incrementAndGet();
+            return true;
+        }
+        extractionMisses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Records the output file as extracted with the given key and invalidates
+     * its model entry, or removes the entries, if the key is null.
+     *
+     * @param outputFile the group output file.
+     * @param extractionKey the extraction key, may be null.
+     */
+    public void putExtracted(Path outputFile, String extractionKey) {
+        String relativePath = relativize(outputFile);
+        entries.remove(MODEL_PREFIX + relativePath);
+        entries.remove(MODEL_FILES_PREFIX + relativePath);
+        entries.remove(MODEL_STATUS_PREFIX + relativePath);
+        if (extractionKey == null) {
+            entries.remove(EXTRACTION_PREFIX + relativePath);
+        } else {
+            entries.setProperty(EXTRACTION_PREFIX + relativePath,
+                    extractionKey);
+        }
+    }
+
+    /**
+     * Returns the model key of an extracted output file, combining its
+     * extraction key with the given model settings.
+     *
+     * @param outputFile the group output file.
+     * @param modelSettings the model training settings.
+     * @return the model key, or null if the output file has not been recorded.
+     */
+    public String getModelKey(Path outputFile, String modelSettings) {
+        String extractionKey = entries.getProperty(EXTRACTION_PREFIX + relativize(
+                outputFile));
+        if (extractionKey == null) {
+            return null;
+        }
+        return Hashing.sha256().
+                newHasher().
+                putString(extractionKey, StandardCharsets.UTF_8).
+                putString(modelSettings, StandardCharsets.UTF_8).
+                hash().
+                toString();
+    }
+
+    /**
+     * Returns true and counts a hit, if the model of the output file was
+     * successfully trained with the given key and all files in the directory
+     * of the output file at that time still exist, otherwise counts a miss.
+     *
+     * @param outputFile the group output file.
+     * @param modelKey the model key of the current run.
+     * @return true, if the model training results can be reused.
+     */
+    public boolean isModelled(Path outputFile, String modelKey) {
+        String relativePath = relativize(outputFile);
+        String modelFiles = entries.getProperty(MODEL_FILES_PREFIX + relativePath);
+        if (modelKey != null && modelKey.equals(entries.getProperty(
+                MODEL_PREFIX + relativePath)) && modelFiles != null && Arrays.
+                stream(modelFiles.split("\n")).
+                filter((file) -> !file.isEmpty()).
+                allMatch((file) -> outputFile.resolveSibling(file).
+                        toFile().
+                        isFile())) {
+            modelHits.incrementAndGet();
+            return true;
+        }
+        modelMisses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Returns the model status recorded with the model training of the output
+     * file.
+     *
+     * @param outputFile the group output file.
+     * @return the model status, or null if none was recorded.
+     */
+    public String getModelStatus(Path outputFile) {
+        return entries.getProperty(MODEL_STATUS_PREFIX + relativize(outputFile));
+    }
+
+    /**
+     * Records the completed model training of the output file with its model
+     * status, together with the files written next to it, such as the plots
+     * and model results of flipr. Nothing is recorded, if the files can not be
+     * listed.
+     *
+     * @param outputFile the group output file.
+     * @param modelKey the model key.
+     * @param modelStatus the model status, such as trained or insufficientData.
+     */
+    public void putModelled(Path outputFile, String modelKey,
+            String modelStatus) {
+        Path groupDir = outputFile.getParent();
+        String outputName = outputFile.getFileName().
+                toString();
+        // the columnar output belongs to the extraction
+        String columnarName = outputName.replaceFirst("\\.tsv$", ".fipc");
+        String modelFiles;
+        try (Stream<Path> files = Files.walk(groupDir)) {
+            modelFiles = files.filter(Files::isRegularFile).
+                    map((file) -> groupDir.relativize(file).
+                    toString()).
+                    filter((file) -> !file.equals(outputName) && !file.equals(
+                            columnarName)).
+                    sorted().
+                    collect(Collectors.joining("\n"));
+        } catch (IOException ex) {
+            log.warn("Could not list model files of " + outputFile, ex);
+            return;
+        }
+        String relativePath = relativize(outputFile);
+        entries.setProperty(MODEL_PREFIX + relativePath, modelKey);
+        entries.setProperty(MODEL_FILES_PREFIX + relativePath, modelFiles);
+        entries.setProperty(MODEL_STATUS_PREFIX + relativePath, modelStatus);
+    }
+
+    public int getExtractionHits() {
+        return extractionHits.get();
+    }
+
+    public int getExtractionMisses() {
+        return extractionMisses.get();
+    }
+
+    public int getModelHits() {
+        return modelHits.get();
+    }
+
+    public int getModelMisses() {
+        return modelMisses.get();
+    }
+
+    private String relativize(Path outputFile) {
+        return outputDirPath.toAbsolutePath().
+                normalize().
+                relativize(outputFile.toAbsolutePath().
+                        normalize()).
+                toString().
+                replace(File.separatorChar, '/');
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs extraction tasks on a fixed number of threads, queued by their
+ * estimated cost, largest first, so that the largest mzML files of a run
+ * start first instead of dominating its wall time when they happen to start
+ * last. Tasks of equal cost run in submission order.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Slf4j
+public class ExtractionScheduler {
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Creates a scheduler with the given number of threads.
+     *
+     * @param nThreads the number of extraction threads.
+     */
+    public ExtractionScheduler(int nThreads) {
+        this.executor = new ThreadPoolExecutor(nThreads, nThreads, 0L,
+                TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>());
+    }
+
+    /**
+     * Estimates the cost of extracting the given groups from an mzML file as
+     * the size of the file times the number of transition specifications.
+     *
+     * @param mzMlFile the mzML file.
+     * @param groups the groups targeting the mzML file.
+     * @return the estimated cost, 0 if the size of the file is unknown.
+     */
+    public static long estimateCost(Path mzMlFile,
+            List<TransitionSpecificationGroup> groups) {
+        long specifications = groups.stream().
+                mapToLong((group) -> group.getSpecifications().
+                size()).
+                sum();
+        try {
+            return Files.size(mzMlFile) * Math.max(1, specifications);
+        } catch (IOException ex) {
+            log.warn("Could not determine size of " + mzMlFile, ex);
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the number of scan chunks a file is split into, so that no chunk
+     * costs much more than the share of the total cost of the run that falls
+     * on each thread.
+     *
+     * @param cost the estimated cost of the file.
+     * @param totalCost the estimated cost of all files of the run.
+     * @param nThreads the number of extraction threads.
+     * @param maxChunks the maximum number of chunks.
+     * @return the number of chunks, between 1 and maxChunks.
+     */
+    public static int getChunks(long cost, long totalCost, int nThreads,
+            int maxChunks) {
+        if (maxChunks <= 1 || cost <= 0 || totalCost <= 0) {
+            return 1;
+        }
+        double share = (double) totalCost / nThreads;
+        return (int) Math.max(1, Math.min(maxChunks, Math.ceil(cost / share)));
+    }
+
+    /**
+     * Returns an executor that queues its tasks with the given cost.
+     *
+     * @param cost the estimated cost of the tasks.
+     * @return the executor.
+     */
+    public Executor withCost(long cost) {
+        return (task) -> execute(cost, task);
+    }
+
+    /**
+     * Queues the given task with the given cost.
+     *
+     * @param cost the estimated cost of the task.
+     * @param task the task.
+     */
+    public void execute(long cost, Runnable task) {
+        executor.execute(new CostedTask(cost, sequence.getAndIncrement(), task));
+    }
+
+    /**
+     * Runs the given tasks in parallel and returns their results in order.
+     * The calling thread runs the first task and then every task that no other
+     * thread has started yet, so it can be called from a task of this
+     * scheduler without waiting for queued tasks.
+     *
+     * @param <T> the result type.
+     * @param cost the estimated cost of each task.
+     * @param tasks the tasks.
+     * @return the results, in the order of the tasks.
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for a task.
+     * @throws ExecutionException if a task threw an exception.
+     */
+    public <T> List<T> invokeAll(long cost, List<? extends Supplier<T>> tasks) throws InterruptedException, ExecutionException {
+        List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+        for (Supplier<T> task : tasks) {
+            futures.add(new FutureTask<>(task::get));
+        }
+        for (int i = 1; i < futures.size(); i++) {
+            execute(cost, futures.get(i));
+        }
+        for (FutureTask<T> future : futures) {
+            // does nothing, if another thread has already started the task
+            future.run();
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        for (FutureTask<T> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public List<Runnable> shutdownNow() {
+        return executor.shutdownNow();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private static class CostedTask implements Runnable, Comparable<CostedTask> {
+
+        private final long cost;
+        private final long sequence;
+        private final Runnable task;
+
+        CostedTask(long cost, long sequence, Runnable task) {
+            this.cost = cost;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(CostedTask other) {
+            int byCost = Long.compare(other.cost, cost);
+            return byCost != 0 ? byCost : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * 
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+/**
+ * Settings that control how MS2 scans are read from the mzML files and
+ * matched against the transition specifications.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Data
+public class ExtractionSettings {
+
+    /**
+     * If true, MS2 scans are decoded and matched one at a time while the mzML
+     * file is being parsed, instead of loading all scans of the file first.
+     */
+    private boolean streaming = false;
+
+    /**
+     * If true, MS2 scans are only matched against the transition specification
+     * groups whose precursor m/z lies within the isolation window of the scan.
+     */
+    private boolean precursorIsolationFilter = false;
+
+    /**
+     * If true, the rows of each group are additionally written to a
+     * dictionary-encoded, compressed columnar _fip.fipc file next to the
+     * _fip.tsv file.
+     */
+    private boolean columnarOutput = false;
+
+    /**
+     * If true, the peaks of MS2 scans are decoded from a memory mapping of the
+     * mzML file into buffers that are reused for all scans of the file, instead
+     * of into new arrays for each scan.
+     */
+    private boolean mappedDecoding = false;
+
+    /**
+     * Global scan filter, applied to all groups before peak decoding. Criteria
+     * set in the mapping file override the global ones for their group.
+     */
+    private ScanFilter scanFilter = new ScanFilter();
+
+    /**
+     * If set, the decoded MS2 peaks and scan metadata are read from this peak
+     * cache, which parses each mzML file only once. Not part of the string
+     * representation, since the cache does not change the extracted rows.
+     */
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private PeakCache peakCache = null;
+
+    /**
+     * The maximum number of contiguous scan chunks the MS2 scans of a single
+     * mzML file are split into, to be matched in parallel when the file
+     * dominates the estimated extraction cost of the run. Requires the peak
+     * cache and is not supported with columnar output. Not part of the string
+     * representation, since the merged output files are the same.
+     */
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private int maxScanChunks = 1;
+
+    /**
+     * The number of threads that match the MS2 scans of a single mzML file
+     * against the transition specifications, while the rows are written in
+     * scan order by the thread that reads the file. Not part of the string
+     * representation, since the output files are the same.
+     */
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private int matchThreads = 1;
+
+    /**
+     * Whether to compare unsorted peaks with the mz ranges of the transition
+     * specifications with the Vector API, if it is available. Not part of the
+     * string representation, since the output files are the same.
+     */
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private boolean vectorMatching = false;
+
+}
@@ -0,0 +1,68 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * SHA-256 digests of file contents, recorded in properties together with the
+ * size and modification time of each file, so that unchanged files are only
+ * read once.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Slf4j
+final class FileDigests {
+
+    private FileDigests() {
+    }
+
+    /**
+     * Returns the digest of the given file, recorded under the key prefix
+     * followed by the absolute path of the file. The digest is calculated
+     * without holding a lock, so that different files can be hashed
+     * concurrently.
+     *
+     * @param digests the recorded digests.
+     * @param keyPrefix the prefix of the property key.
+     * @param file the file.
+     * @return the digest.
+     * @throws IOException if the file can not be read.
+     */
+    static Digest getDigest(Properties digests, String keyPrefix, Path file) throws IOException {
+        Path absoluteFile = file.toAbsolutePath().
+                normalize();
+        String prefix = Files.size(absoluteFile) + ":" + Files.
+                getLastModifiedTime(absoluteFile).
+                toMillis() + ":";
+        String key = keyPrefix + absoluteFile;
+        String digest = digests.getProperty(key);
+        if (digest != null && digest.startsWith(prefix)) {
+            return new Digest(digest, digest.substring(prefix.length()), false);
+        }
+        log.debug("Calculating digest of {}", absoluteFile);
+        String contentDigest = com.google.common.io.Files.asByteSource(
+                absoluteFile.toFile()).
+                hash(Hashing.sha256()).
+                toString();
+        digests.setProperty(key, prefix + contentDigest);
+        return new Digest(prefix + contentDigest, contentDigest, true);
+    }
+
+    @Value
+    static class Digest {
+
+        // the content digest, prefixed by size and modification time
+        String value;
+        String contentDigest;
+        // whether the file was read, since no recorded digest matched
+        boolean calculated;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+
+/**
+ * The ppm search windows of a transition specification as parallel primitive
+ * arrays, ordered by ascending ppm.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+public class IonTargetMzWindows {
+
+    private final int[] ppms;
+    private final double[] lowerBounds;
+    private final double[] upperBounds;
+
+    public int size() {
+        return ppms.length;
+    }
+
+    public int getPpm(int window) {
+        return ppms[window];
+    }
+
+    public double getLowerBound(int window) {
+        return lowerBounds[window];
+    }
+
+    public double getUpperBound(int window) {
+        return upperBounds[window];
+    }
+
+    /**
+     * Returns true, if the given mz value is within the closed window.
+     *
+     * @param window the window index.
+     * @param mzValue the mz value.
+     * @return true, if lower bound &lt;= mzValue &lt;= upper bound.
+     */
+    public boolean contains(int window, double mzValue) {
+        return lowerBounds[window] <= mzValue && mzValue <= upperBounds[window];
+    }
+}
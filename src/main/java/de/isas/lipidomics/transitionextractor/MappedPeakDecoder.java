@@ -0,0 +1,288 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import io.github.msdk.io.mzml.data.MzMLBinaryDataInfo;
+import io.github.msdk.io.mzml.data.MzMLBitLength;
+import io.github.msdk.io.mzml.data.MzMLCompressionType;
+import io.github.msdk.io.mzml.data.MzMLMsScan;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decodes the m/z and intensity arrays of mzML scans directly from a memory
+ * mapping of the mzML file. The base64 text at the offsets recorded by the
+ * parser is decoded and, for zlib compressed arrays, inflated into byte
+ * buffers, and then converted into double and float buffers, all of which are
+ * reused for the following scans. The buffers are usually longer than the
+ * decoded arrays, only the first {@link #decode(MzMLMsScan)} values are valid.
+ * Arrays with MS-Numpress compression or integer and 16 bit precision are
+ * decoded by MSDK and copied into the buffers.
+ *
+ * Instances are not thread safe, each thread needs its own decoder.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Slf4j
+public class MappedPeakDecoder implements Closeable {
+
+    private static final int MAX_REGION_SIZE = Integer.MAX_VALUE;
+    private static final int[] BASE64_VALUES = new int[256];
+
+    static {
+        Arrays.fill(BASE64_VALUES, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] regions;
+    private final Inflater inflater = new Inflater();
+    private byte[] encoded = new byte[0];
+    private byte[] decoded = new byte[0];
+    private byte[] inflated = new byte[0];
+    private ByteBuffer decodedValues = ByteBuffer.wrap(decoded).
+            order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer inflatedValues = ByteBuffer.wrap(inflated).
+            order(ByteOrder.LITTLE_ENDIAN);
+    private double[] mzValues = new double[0];
+    private float[] intensityValues = new float[0];
+
+    /**
+     * Maps the given mzML file into memory, in regions of at most 2 GB.
+     *
+     * @param mzMlFile the mzML file.
+     * @throws IOException if the file can not be opened or mapped.
+     */
+    public MappedPeakDecoder(Path mzMlFile) throws IOException {
+        this.channel = FileChannel.open(mzMlFile, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            this.regions = new MappedByteBuffer[(int) ((size + MAX_REGION_SIZE - 1) / MAX_REGION_SIZE)];
+            for (int i = 0; i < regions.length; i++) {
+                long position = (long) i * MAX_REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position, Math.min(MAX_REGION_SIZE, size - position));
+            }
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Decodes the m/z and intensity arrays of the given scan into the m/z and
+     * intensity buffers.
+     *
+     * @param msScan the scan, parsed from the mapped mzML file.
+     * @return the number of decoded data points.
+     * @throws IOException if the arrays can not be read or decoded.
+     */
+    public int decode(MzMLMsScan msScan) throws IOException {
+        MzMLBinaryDataInfo mzInfo = msScan.getMzBinaryDataInfo();
+        MzMLBinaryDataInfo intensityInfo = msScan.getIntensityBinaryDataInfo();
+        if (!isSupported(mzInfo) || !isSupported(intensityInfo) || mzInfo.
+                getArrayLength() != intensityInfo.getArrayLength()) {
+            log.debug("Decoding peaks of scan {} with MSDK.", msScan.getId());
+            return copy(msScan.getMzValues(), msScan.getIntensityValues());
+        }
+        int peakCount = mzInfo.getArrayLength();
+        ensureCapacity(peakCount, peakCount);
+        ByteBuffer values = decodeValues(mzInfo);
+        if (is64Bit(mzInfo)) {
+            for (int i = 0; i < peakCount; i++) {
+                mzValues[i] = values.getDouble(i << 3);
+            }
+        } else {
+            for (int i = 0; i < peakCount; i++) {
+                mzValues[i] = values.getFloat(i << 2);
+            }
+        }
+        values = decodeValues(intensityInfo);
+        if (is64Bit(intensityInfo)) {
+            for (int i = 0; i < peakCount; i++) {
+                intensityValues[i] = (float) values.getDouble(i << 3);
+            }
+        } else {
+            for (int i = 0; i < peakCount; i++) {
+                intensityValues[i] = values.getFloat(i << 2);
+            }
+        }
+        return peakCount;
+    }
+
+    /**
+     * Returns the m/z buffer of the last decoded scan.
+     *
+     * @return the m/z buffer.
+     */
+    public double[] getMzValues() {
+        return mzValues;
+    }
+
+    /**
+     * Returns the intensity buffer of the last decoded scan.
+     *
+     * @return the intensity buffer.
+     */
+    public float[] getIntensityValues() {
+        return intensityValues;
+    }
+
+    private boolean isSupported(MzMLBinaryDataInfo info) {
+        if (info == null) {
+            return false;
+        }
+        MzMLCompressionType compressionType = info.getCompressionType();
+        if (compressionType != null && compressionType != MzMLCompressionType.NO_COMPRESSION && compressionType != MzMLCompressionType.ZLIB) {
+            return false;
+        }
+        return info.getBitLength() == MzMLBitLength.THIRTY_TWO_BIT_FLOAT || info.
+                getBitLength() == MzMLBitLength.SIXTY_FOUR_BIT_FLOAT;
+    }
+
+    private boolean is64Bit(MzMLBinaryDataInfo info) {
+        return info.getBitLength() == MzMLBitLength.SIXTY_FOUR_BIT_FLOAT;
+    }
+
+    private void ensureCapacity(int mzCount, int intensityCount) {
+        if (mzValues.length < mzCount) {
+            mzValues = new double[mzCount];
+        }
+        if (intensityValues.length < intensityCount) {
+            intensityValues = new float[intensityCount];
+        }
+    }
+
+    private int copy(double[] mzs, float[] intensities) {
+        ensureCapacity(mzs.length, intensities.length);
+        System.arraycopy(mzs, 0, mzValues, 0, mzs.length);
+        System.arraycopy(intensities, 0, intensityValues, 0,
+                intensities.length);
+        return mzs.length;
+    }
+
+    /**
+     * Returns a little endian buffer with at least as many values of the bit
+     * length of the array as the array length.
+     */
+    private ByteBuffer decodeValues(MzMLBinaryDataInfo info) throws IOException {
+        int valueBytes = info.getArrayLength() * (is64Bit(info) ? 8 : 4);
+        int decodedLength = decodeBase64(info.getPosition(), info.
+                getEncodedLength());
+        if (info.getCompressionType() != MzMLCompressionType.ZLIB) {
+            if (decodedLength < valueBytes) {
+                throw new IOException(
+                        "Binary data array at offset " + info.getPosition() + " is shorter than its array length " + info.
+                        getArrayLength());
+            }
+            return decodedValues;
+        }
+        if (inflated.length < valueBytes) {
+            inflated = new byte[valueBytes];
+            inflatedValues = ByteBuffer.wrap(inflated).
+                    order(ByteOrder.LITTLE_ENDIAN);
+        }
+        inflater.reset();
+        inflater.setInput(decoded, 0, decodedLength);
+        int inflatedLength = 0;
+        try {
+            while (inflatedLength < valueBytes && !inflater.finished() && !inflater.
+                    needsInput()) {
+                inflatedLength += inflater.inflate(inflated, inflatedLength,
+                        valueBytes - inflatedLength);
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException(
+                    "Could not inflate binary data array at offset " + info.
+                            getPosition(), ex);
+        }
+        if (inflatedLength < valueBytes) {
+            throw new IOException(
+                    "Binary data array at offset " + info.getPosition() + " is shorter than its array length " + info.
+                    getArrayLength());
+        }
+        return inflatedValues;
+    }
+
+    /**
+     * Copies the base64 text at the given file offset into the encoded buffer
+     * and decodes it into the decoded buffer. Whitespace is skipped, decoding
+     * stops at the first padding character.
+     *
+     * @return the number of decoded bytes.
+     */
+    private int decodeBase64(long position, int encodedLength) throws IOException {
+        if (encoded.length < encodedLength) {
+            encoded = new byte[encodedLength];
+        }
+        read(position, encoded, encodedLength);
+        int maxDecodedLength = (encodedLength / 4 + 1) * 3;
+        if (decoded.length < maxDecodedLength) {
+            decoded = new byte[maxDecodedLength];
+            decodedValues = ByteBuffer.wrap(decoded).
+                    order(ByteOrder.LITTLE_ENDIAN);
+        }
+        int bits = 0;
+        int nBits = 0;
+        int decodedLength = 0;
+        for (int i = 0; i < encodedLength; i++) {
+            int c = encoded[i] & 0xff;
+            int value = BASE64_VALUES[c];
+            if (value < 0) {
+                if (c == '=') {
+                    break;
+                }
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                throw new IOException(
+                        "Illegal base64 character " + c + " in binary data array at offset " + position);
+            }
+            bits = (bits << 6) | value;
+            nBits += 6;
+            if (nBits >= 8) {
+                nBits -= 8;
+                decoded[decodedLength++] = (byte) (bits >> nBits);
+            }
+        }
+        return decodedLength;
+    }
+
+    private void read(long position, byte[] target, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            long current = position + offset;
+            int region = (int) (current / MAX_REGION_SIZE);
+            if (region >= regions.length) {
+                throw new IOException(
+                        "Binary data array at offset " + position + " exceeds the mapped file");
+            }
+            MappedByteBuffer buffer = regions[region];
+            int regionPosition = (int) (current % MAX_REGION_SIZE);
+            int n = Math.min(length - offset, buffer.limit() - regionPosition);
+            buffer.position(regionPosition);
+            buffer.get(target, offset, n);
+            offset += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+}
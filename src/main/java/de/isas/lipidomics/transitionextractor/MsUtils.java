@@ -5,6 +5,8 @@ package de.isas.lipidomics.transitionextractor;
 
 import com.google.common.collect.Range;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import lombok.extern.slf4j.Slf4j;
 
@@ -21,7 +23,7 @@ public class MsUtils {
         return Range.closed(lowerBound, upperBound);
     }
     
-    public static Double massErrorPpm(double theorecticalMass, double measuredMass) {
+    public static double massErrorPpm(double theorecticalMass, double measuredMass) {
         return 1000000*(measuredMass-theorecticalMass)/theorecticalMass;
     }
 
@@ -39,7 +41,32 @@ public class MsUtils {
         return ionTargetMzRanges;
     }
     
-    public static Range<Double> getMaximumMzRange(TreeMap<Integer, Range<Double>> ionTargetMzRanges) {
+    /**
+     * Converts the ppm to mz range map into parallel primitive arrays, ordered
+     * by ascending ppm.
+     *
+     * @param ionTargetMzRanges the ppm to mz range map.
+     * @return the ion target mz windows.
+     */
+    public static IonTargetMzWindows createIonTargetMzWindows(
+            SortedMap<Integer, Range<Double>> ionTargetMzRanges) {
+        int[] ppms = new int[ionTargetMzRanges.size()];
+        double[] lowerBounds = new double[ionTargetMzRanges.size()];
+        double[] upperBounds = new double[ionTargetMzRanges.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Range<Double>> entry : ionTargetMzRanges.
+                entrySet()) {
+            ppms[i] = entry.getKey();
+            lowerBounds[i] = entry.getValue().
+                    lowerEndpoint();
+            upperBounds[i] = entry.getValue().
+                    upperEndpoint();
+            i++;
+        }
+        return new IonTargetMzWindows(ppms, lowerBounds, upperBounds);
+    }
+
+    public static Range<Double> getMaximumMzRange(SortedMap<Integer, Range<Double>> ionTargetMzRanges) {
         Range<Double> maximumMzRange = null;
         for(Range<Double> mzRange : ionTargetMzRanges.values()) {
             if(maximumMzRange == null) {
@@ -50,4 +77,97 @@ public class MsUtils {
         }
         return maximumMzRange;
     }
+
+    /**
+     * Returns true, if the given mz values are sorted in ascending order, as is
+     * usually the case for centroided mzML spectra. NaN values are treated as
+     * unsorted.
+     *
+     * @param mzValues the mz values
+     * @return true, if mzValues are in ascending order, false otherwise.
+     */
+    public static boolean isSortedAscending(double[] mzValues) {
+        return isSortedAscending(mzValues, mzValues.length);
+    }
+
+    /**
+     * Returns true, if the first length mz values are sorted in ascending
+     * order. NaN values are treated as unsorted.
+     *
+     * @param mzValues the mz values
+     * @param length the number of valid mz values
+     * @return true, if the first length mzValues are in ascending order, false
+     * otherwise.
+     */
+    public static boolean isSortedAscending(double[] mzValues, int length) {
+        for (int i = 1; i < length; i++) {
+            if (!(mzValues[i - 1] <= mzValues[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Binary search for the index of the first mz value that is greater than or
+     * equal to the given lower bound. The mz values must be sorted in ascending
+     * order.
+     *
+     * @param mzValues the ascending mz values
+     * @param lowerBound the lower bound
+     * @return the index of the first value &gt;= lowerBound, or
+     * mzValues.length, if all values are smaller.
+     */
+    public static int lowerBoundIndex(double[] mzValues, double lowerBound) {
+        return lowerBoundIndex(mzValues, mzValues.length, lowerBound);
+    }
+
+    /**
+     * Binary search for the index of the first of the first length mz values
+     * that is greater than or equal to the given lower bound.
+     *
+     * @param mzValues the ascending mz values
+     * @param length the number of valid mz values
+     * @param lowerBound the lower bound
+     * @return the index of the first value &gt;= lowerBound, or length, if all
+     * values are smaller.
+     */
+    public static int lowerBoundIndex(double[] mzValues, int length,
+            double lowerBound) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mzValues[mid] < lowerBound) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Writes the indices of the mz values from index from to index to
+     * (exclusive) that are within the closed window [lowerBound, upperBound]
+     * to hits, starting at position nHits.
+     *
+     * @param mzValues the mz values, in any order.
+     * @param from the first index.
+     * @param to the index after the last one.
+     * @param lowerBound the lower bound of the window.
+     * @param upperBound the upper bound of the window.
+     * @param hits the buffer for the indices.
+     * @param nHits the number of indices already in hits.
+     * @return the number of indices in hits.
+     */
+    public static int findInRange(double[] mzValues, int from, int to,
+            double lowerBound, double upperBound, int[] hits, int nHits) {
+        for (int i = from; i < to; i++) {
+            if (lowerBound <= mzValues[i] && mzValues[i] <= upperBound) {
+                hits[nHits++] = i;
+            }
+        }
+        return nHits;
+    }
 }
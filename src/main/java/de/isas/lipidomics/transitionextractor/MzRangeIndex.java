@@ -0,0 +1,154 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index over the maximum mz ranges of the transition specifications of a
+ * group, which returns the specifications whose range contains an mz value in
+ * O(log n + k) for n specifications and k matches.
+ *
+ * The distinct range endpoints split the mz axis into slots, one for each
+ * endpoint and one for each open interval below, between and above them. Each
+ * slot stores the indices of the ranges covering it in ascending order, so
+ * that a lookup is a binary search for the slot of the mz value.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class MzRangeIndex {
+
+    private final double[] endpoints;
+    // the ranges of slot i are rangeIndexes[slotStarts[i]] to rangeIndexes[slotStarts[i + 1] - 1]
+    private final int[] slotStarts;
+    private final int[] rangeIndexes;
+    private final double lowerBound;
+    private final double upperBound;
+
+    /**
+     * Creates the index over the closed ranges [lowerBounds[i],
+     * upperBounds[i]].
+     *
+     * @param lowerBounds the lower bounds of the ranges.
+     * @param upperBounds the upper bounds of the ranges.
+     */
+    public MzRangeIndex(double[] lowerBounds, double[] upperBounds) {
+        int n = lowerBounds.length;
+        double[] allEndpoints = new double[2 * n];
+        System.arraycopy(lowerBounds, 0, allEndpoints, 0, n);
+        System.arraycopy(upperBounds, 0, allEndpoints, n, n);
+        Arrays.sort(allEndpoints);
+        int m = 0;
+        for (int i = 0; i < allEndpoints.length; i++) {
+            if (m == 0 || allEndpoints[i] != allEndpoints[m - 1]) {
+                allEndpoints[m++] = allEndpoints[i];
+            }
+        }
+        this.endpoints = Arrays.copyOf(allEndpoints, m);
+        this.lowerBound = m == 0 ? Double.POSITIVE_INFINITY : endpoints[0];
+        this.upperBound = m == 0 ? Double.NEGATIVE_INFINITY : endpoints[m - 1];
+        int[] firstSlots = new int[n];
+        int[] lastSlots = new int[n];
+        int[] counts = new int[2 * m + 2];
+        for (int i = 0; i < n; i++) {
+            firstSlots[i] = getSlot(lowerBounds[i]);
+            lastSlots[i] = getSlot(upperBounds[i]);
+            for (int slot = firstSlots[i]; slot <= lastSlots[i]; slot++) {
+                counts[slot + 1]++;
+            }
+        }
+        for (int slot = 1; slot < counts.length; slot++) {
+            counts[slot] += counts[slot - 1];
+        }
+        this.slotStarts = counts;
+        this.rangeIndexes = new int[counts[counts.length - 1]];
+        int[] next = Arrays.copyOf(counts, counts.length - 1);
+        for (int i = 0; i < n; i++) {
+            for (int slot = firstSlots[i]; slot <= lastSlots[i]; slot++) {
+                rangeIndexes[next[slot]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Creates the index over the maximum mz ranges of the given
+     * specifications, in list order.
+     *
+     * @param specifications the transition specifications.
+     * @return the index.
+     */
+    public static MzRangeIndex create(
+            List<TransitionSpecification> specifications) {
+        double[] lowerBounds = new double[specifications.size()];
+        double[] upperBounds = new double[specifications.size()];
+        for (int i = 0; i < lowerBounds.length; i++) {
+            lowerBounds[i] = specifications.get(i).
+                    getMaximumMzRange().
+                    lowerEndpoint();
+            upperBounds[i] = specifications.get(i).
+                    getMaximumMzRange().
+                    upperEndpoint();
+        }
+        return new MzRangeIndex(lowerBounds, upperBounds);
+    }
+
+    /**
+     * Returns the slot of the given mz value. NaN values fall into the empty
+     * slot above all ranges.
+     *
+     * @param mzValue the mz value.
+     * @return the slot.
+     */
+    public int getSlot(double mzValue) {
+        int i = Arrays.binarySearch(endpoints, mzValue);
+        return i >= 0 ? 2 * i + 1 : 2 * (-i - 1);
+    }
+
+    /**
+     * @return the position of the first range index of the slot.
+     */
+    public int getSlotStart(int slot) {
+        return slotStarts[slot];
+    }
+
+    /**
+     * @return the position after the last range index of the slot.
+     */
+    public int getSlotEnd(int slot) {
+        return slotStarts[slot + 1];
+    }
+
+    /**
+     * Returns the range index at the given position.
+     *
+     * @param position the position, between the start and end of a slot.
+     * @return the index of the range in the arrays or list the index was
+     * created from.
+     */
+    public int getRangeIndex(int position) {
+        return rangeIndexes[position];
+    }
+
+    /**
+     * @return the smallest lower bound of all ranges.
+     */
+    public double getLowerBound() {
+        return lowerBound;
+    }
+
+    /**
+     * @return the largest upper bound of all ranges.
+     */
+    public double getUpperBound() {
+        return upperBound;
+    }
+
+    /**
+     * @return the number of slots.
+     */
+    public int getSlots() {
+        return slotStarts.length - 1;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import de.isas.lipidomics.transitionextractor.services.metrics.FileMetrics;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Hands batches of MS2 scans to a pool of matcher threads, which match the
+ * peaks of each scan against its scan processors without writing. The matched
+ * batches are kept in submission order, so the calling thread writes their
+ * rows in scan order and the output files are the same as with the sequential
+ * matcher. At most two batches per matcher thread are pending, the peaks of
+ * pending scans are copied if the decoder reuses its buffers.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+class ParallelScanMatcher extends ScanMatcher {
+
+    private static final int BATCH_SIZE = 32;
+
+    private final Path mzMlFile;
+    private final ExecutorService executor;
+    private final int maxPendingBatches;
+    private final ArrayDeque<Future<List<PendingScan>>> pendingBatches = new ArrayDeque<>();
+    private List<PendingScan> batch = new ArrayList<>(BATCH_SIZE);
+
+    /**
+     * Creates a matcher with a pool of matcher threads.
+     *
+     * @param fileMetrics the metrics of the mzML file.
+     * @param mzMlFile the mzML file the scans are read from.
+     * @param nThreads the number of matcher threads.
+     */
+    ParallelScanMatcher(FileMetrics fileMetrics, Path mzMlFile, int nThreads) {
+        super(fileMetrics);
+        this.mzMlFile = mzMlFile;
+        this.executor = Executors.newFixedThreadPool(nThreads);
+        this.maxPendingBatches = 2 * nThreads;
+    }
+
+    @Override
+    void match(ScanMetadata scanMetadata, double[] mzValues,
+            float[] intensityValues, boolean reusedBuffers,
+            List<ScanProcessor> scanProcessors, long start) throws IOException {
+        if (reusedBuffers) {
+            mzValues = Arrays.copyOf(mzValues, scanMetadata.getPeakCount());
+            intensityValues = Arrays.copyOf(intensityValues,
+                    scanMetadata.getPeakCount());
+        }
+        batch.add(new PendingScan(scanMetadata, mzValues, intensityValues,
+                scanProcessors));
+        fileMetrics.getDecodeNanos().
+                add(System.nanoTime() - start);
+        if (batch.size() == BATCH_SIZE) {
+            submit();
+        }
+    }
+
+    private void submit() throws IOException {
+        final List<PendingScan> scans = batch;
+        batch = new ArrayList<>(BATCH_SIZE);
+        pendingBatches.add(executor.submit(() -> {
+            for (PendingScan scan : scans) {
+                scan.match();
+            }
+            return scans;
+        }));
+        while (pendingBatches.size() > maxPendingBatches) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        List<PendingScan> scans;
+        try {
+            scans = pendingBatches.poll().
+                    get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().
+                    interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while matching scans of " + mzMlFile);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+        for (PendingScan scan : scans) {
+            scan.write();
+        }
+    }
+
+    @Override
+    void finish() throws IOException {
+        if (!batch.isEmpty()) {
+            submit();
+        }
+        while (!pendingBatches.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private class PendingScan {
+
+        private final ScanMetadata scanMetadata;
+        private final double[] mzValues;
+        private final float[] intensityValues;
+        private final List<ScanProcessor> scanProcessors;
+        private final ScanMatches[] scanMatches;
+        private long matchNanos;
+
+        PendingScan(ScanMetadata scanMetadata, double[] mzValues,
+                float[] intensityValues, List<ScanProcessor> scanProcessors) {
+            this.scanMetadata = scanMetadata;
+            this.mzValues = mzValues;
+            this.intensityValues = intensityValues;
+            this.scanProcessors = scanProcessors;
+            this.scanMatches = new ScanMatches[scanProcessors.size()];
+        }
+
+        void match() {
+            long start = System.nanoTime();
+            for (int i = 0; i < scanMatches.length; i++) {
+                scanMatches[i] = scanProcessors.get(i).
+                        match(scanMetadata, mzValues, intensityValues,
+                                new ScanMatches());
+            }
+            matchNanos = System.nanoTime() - start;
+        }
+
+        void write() throws IOException {
+            long start = System.nanoTime();
+            for (int i = 0; i < scanMatches.length; i++) {
+                scanProcessors.get(i).
+                        write(scanMetadata, scanMatches[i]);
+            }
+            fileMetrics.getMatchNanos().
+                    add(matchNanos + System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import com.google.common.collect.Range;
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.MsScan;
+import io.github.msdk.io.mzml.MzMLFileImportMethod;
+import io.github.msdk.io.mzml.data.MzMLMsScan;
+import io.github.msdk.io.mzml.util.ByteBufferInputStream;
+import io.github.msdk.io.mzml.util.FileMemoryMapper;
+import io.github.msdk.util.MsSpectrumUtil;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Persistent cache of the decoded MS2 peaks and scan metadata of mzML files,
+ * shared by all runs that use the same cache directory. Each mzML file is
+ * parsed and decoded once into an entry named after the SHA-256 digest of its
+ * content, later extractions read the memory-mapped entry instead of parsing
+ * the mzML file again. When the entries exceed the maximum size of the cache,
+ * the least recently used ones are deleted.
+ *
+ * An entry starts with a header of magic number, format version, number of
+ * scans of all MS levels and end offset of the scan records. Each MS2 scan
+ * record holds the metadata used by the scan filters, the scan template and
+ * the raw TIC, followed by the m/z values as doubles and the intensities as
+ * floats. Records never cross a boundary of the 1 GB regions the entry is
+ * mapped in, the remainder of a region is padding instead.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Slf4j
+public class PeakCache {
+
+    public static final String INDEX_FILE = "peak-cache.properties";
+    public static final String ENTRY_SUFFIX = ".fpk";
+    public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024 * 1024;
+
+    static final int MAGIC = 0x46504b43;
+    static final int FORMAT_VERSION = 2;
+    static final int HEADER_SIZE = 24;
+    static final int REGION_SIZE = 1 << 30;
+    static final byte RECORD = 1;
+    static final byte REGION_END = 0;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Properties digests = new Properties();
+
+    private PeakCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Opens the cache in the given directory, creating the directory if
+     * necessary.
+     *
+     * @param directory the cache directory.
+     * @param maxBytes the maximum size of all entries in bytes.
+     * @return the cache.
+     * @throws IOException if the directory can not be created or the index can
+     * not be read.
+     */
+    public static PeakCache open(Path directory, long maxBytes) throws IOException {
+        Files.createDirectories(directory);
+        PeakCache peakCache = new PeakCache(directory, maxBytes);
+        Path indexFile = directory.resolve(INDEX_FILE);
+        if (indexFile.toFile().
+                isFile()) {
+            try (InputStream is = Files.newInputStream(indexFile)) {
+                peakCache.digests.load(is);
+            }
+        }
+        return peakCache;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the SHA-256 digest of the content of the given file. The digest
+     * is recorded in the index of the cache for the file's size and
+     * modification time, so that unchanged files are only read once.
+     *
+     * @param file the file.
+     * @return the digest.
+     * @throws IOException if the file can not be read.
+     */
+    public String getDigest(Path file) throws IOException {
+        // other files may be hashed concurrently
+        FileDigests.Digest digest = FileDigests.getDigest(digests, "", file);
+        if (digest.isCalculated()) {
+            synchronized (this) {
+                saveIndex();
+            }
+        }
+        return digest.getContentDigest();
+    }
+
+    /**
+     * Returns the entry of the given mzML file, which may not exist yet.
+     *
+     * @param mzMlFile the mzML file.
+     * @return the entry file.
+     * @throws IOException if the mzML file can not be read.
+     */
+    public Path getEntry(Path mzMlFile) throws IOException {
+        return directory.resolve(getDigest(mzMlFile) + ENTRY_SUFFIX);
+    }
+
+    /**
+     * Returns the entry of the given mzML file, building it first, if it does
+     * not exist yet.
+     *
+     * @param mzMlFile the mzML file.
+     * @return the entry file.
+     * @throws IOException if the entry can not be written.
+     * @throws MSDKException if the mzML file can not be parsed.
+     */
+    public Path build(Path mzMlFile) throws IOException, MSDKException {
+        Path entryFile = getEntry(mzMlFile);
+        if (entryFile.toFile().
+                isFile()) {
+            // least recently used entries are evicted first
+            Files.setLastModifiedTime(entryFile, FileTime.fromMillis(System.
+                    currentTimeMillis()));
+            return entryFile;
+        }
+        log.info(String.format("Building peak cache entry %s for file '%s'",
+                entryFile.getFileName(), mzMlFile));
+        Path tmpFile = Files.createTempFile(directory, entryFile.getFileName().
+                toString(), ".tmp");
+        try {
+            write(mzMlFile, tmpFile);
+            Files.move(tmpFile, entryFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+        evict(entryFile);
+        return entryFile;
+    }
+
+    /**
+     * Opens a reader for the entry of the given mzML file, building the entry
+     * first, if it does not exist yet.
+     *
+     * @param mzMlFile the mzML file.
+     * @return the reader, which must be closed.
+     * @throws IOException if the entry can not be written or read.
+     * @throws MSDKException if the mzML file can not be parsed.
+     */
+    public PeakCacheReader read(Path mzMlFile) throws IOException, MSDKException {
+        return new PeakCacheReader(build(mzMlFile));
+    }
+
+    /**
+     * Returns the total size of all entries in bytes.
+     *
+     * @return the size of the cache.
+     * @throws IOException if the cache directory can not be listed.
+     */
+    public long getSize() throws IOException {
+        return listEntries().
+                stream().
+                mapToLong((entry) -> entry.toFile().
+                length()).
+                sum();
+    }
+
+    /**
+     * Deletes all entries and the index of the cache.
+     *
+     * @throws IOException if an entry can not be deleted.
+     */
+    public synchronized void clear() throws IOException {
+        for (Path entry : listEntries()) {
+            Files.deleteIfExists(entry);
+        }
+        digests.clear();
+        Files.deleteIfExists(directory.resolve(INDEX_FILE));
+        log.info(String.format("Cleared peak cache %s", directory));
+    }
+
+    /**
+     * Deletes the least recently used entries, except the given one, until
+     * the entries fit into the maximum size of the cache.
+     */
+    private synchronized void evict(Path keep) throws IOException {
+        List<Path> entries = listEntries();
+        long size = entries.stream().
+                mapToLong((entry) -> entry.toFile().
+                length()).
+                sum();
+        entries.sort(Comparator.comparingLong((entry) -> entry.toFile().
+                lastModified()));
+        for (Path entry : entries) {
+            if (size <= maxBytes) {
+                break;
+            }
+            if (!entry.equals(keep)) {
+                long length = entry.toFile().
+                        length();
+                Files.deleteIfExists(entry);
+                size -= length;
+                log.info(String.format(
+                        "Evicted peak cache entry %s of %d bytes", entry.
+                                getFileName(), length));
+            }
+        }
+    }
+
+    private List<Path> listEntries() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter((file) -> file.getFileName().
+                    toString().
+                    endsWith(ENTRY_SUFFIX)).
+                    collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        Path indexFile = directory.resolve(INDEX_FILE);
+        // other processes may share the cache directory
+        Path tmpFile = Files.createTempFile(directory, INDEX_FILE, ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmpFile)) {
+                digests.store(os, "flipr peak cache, mzML file digests");
+            }
+            Files.move(tmpFile, indexFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Parses the mzML file, streaming its scans like the streaming mode of the
+     * conversion supplier, and writes the records of all MS2 scans.
+     */
+    private void write(Path mzMlFile, Path entryFile) throws IOException, MSDKException {
+        try (EntryWriter entryWriter = new EntryWriter(mzMlFile, entryFile)) {
+            MzMLFileImportMethod parser = new MzMLFileImportMethod(
+                    FileMemoryMapper.mapToMemory(mzMlFile.toFile()), entryWriter,
+                    (chromatogram) -> false);
+            parser.execute();
+            entryWriter.flush();
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Scan predicate that writes the record of each MS2 scan.
+     */
+    private static class EntryWriter extends AbstractStreamingScanFilter implements AutoCloseable {
+
+        private final Path entryFile;
+        private final ByteBufferInputStream peakInputStream;
+        private final MappedPeakDecoder peakDecoder;
+        private final DataOutputStream output;
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        private final DataOutputStream record = new DataOutputStream(
+                recordBytes);
+        private final ByteArrayOutputStream templateBytes = new ByteArrayOutputStream();
+        private final DataOutputStream template = new DataOutputStream(
+                templateBytes);
+        private long position = HEADER_SIZE;
+        private int scanCount = 0;
+        private int ms2ScanCount = 0;
+
+        EntryWriter(Path mzMlFile, Path entryFile) throws IOException {
+            this.entryFile = entryFile;
+            this.peakInputStream = FileMemoryMapper.mapToMemory(mzMlFile.
+                    toFile());
+            this.peakDecoder = new MappedPeakDecoder(mzMlFile);
+            this.output = new DataOutputStream(new BufferedOutputStream(Files.
+                    newOutputStream(entryFile)));
+            // the header is written once all records are known
+            output.write(new byte[HEADER_SIZE]);
+        }
+
+        @Override
+        protected void scanRead(MsScan scan) {
+            scanCount++;
+        }
+
+        @Override
+        protected void processScan(MzMLMsScan msScan) throws IOException {
+            msScan.setInputStream(peakInputStream);
+            int peakCount = peakDecoder.decode(msScan);
+            double[] mzValues = peakDecoder.getMzValues();
+            float[] intensityValues = peakDecoder.getIntensityValues();
+            recordBytes.reset();
+            record.writeByte(RECORD);
+            writeNullable(record, msScan.getScanNumber());
+            writeNullable(record, ConversionSupplier.getCollisionEnergy(msScan));
+            writeNullable(record, msScan.getRetentionTime());
+            writeString(record, msScan.getPolarity() == null ? null : msScan.
+                    getPolarity().
+                    name());
+            writeString(record, msScan.getMsFunction());
+            List<Range<Double>> isolationWindows = ConversionSupplier.
+                    getIsolationWindows(msScan);
+            record.writeInt(isolationWindows.size());
+            for (Range<Double> isolationWindow : isolationWindows) {
+                record.writeDouble(isolationWindow.lowerEndpoint());
+                record.writeDouble(isolationWindow.upperEndpoint());
+            }
+            Map<String, String> scanTemplate = ConversionSupplier.
+                    prepareScanTemplate(msScan);
+            templateBytes.reset();
+            template.writeInt(scanTemplate.size());
+            for (Map.Entry<String, String> entry : scanTemplate.entrySet()) {
+                writeString(template, entry.getKey());
+                writeString(template, entry.getValue());
+            }
+            record.writeInt(templateBytes.size());
+            templateBytes.writeTo(record);
+            writeNullable(record, MsSpectrumUtil.getTIC(intensityValues,
+                    peakCount));
+            record.writeInt(peakCount);
+            for (int i = 0; i < peakCount; i++) {
+                record.writeDouble(mzValues[i]);
+            }
+            for (int i = 0; i < peakCount; i++) {
+                record.writeFloat(intensityValues[i]);
+            }
+            if (recordBytes.size() > REGION_SIZE) {
+                throw new IOException(
+                        "Scan " + msScan.getId() + " is too large for the peak cache");
+            }
+            long regionRemainder = REGION_SIZE - position % REGION_SIZE;
+            if (recordBytes.size() > regionRemainder) {
+                output.writeByte(REGION_END);
+                output.write(new byte[(int) regionRemainder - 1]);
+                position += regionRemainder;
+            }
+            recordBytes.writeTo(output);
+            position += recordBytes.size();
+            ms2ScanCount++;
+        }
+
+        private static void writeNullable(DataOutputStream out, Integer value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeInt(value);
+            }
+        }
+
+        private static void writeNullable(DataOutputStream out, Double value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeDouble(value);
+            }
+        }
+
+        private static void writeNullable(DataOutputStream out, Float value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeFloat(value);
+            }
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                output.close();
+                peakDecoder.close();
+            } finally {
+                if (entryFile.toFile().
+                        isFile()) {
+                    writeHeader();
+                }
+            }
+        }
+
+        private void writeHeader() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(FORMAT_VERSION);
+            header.putInt(scanCount);
+            header.putInt(ms2ScanCount);
+            header.putLong(position);
+            header.flip();
+            try (FileChannel channel = FileChannel.open(entryFile,
+                    StandardOpenOption.WRITE)) {
+                channel.write(header, 0);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PeakCache{" + "directory=" + directory + ", maxBytes=" + maxBytes + '}';
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import com.google.common.collect.Range;
+import io.github.msdk.datamodel.PolarityType;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Reads the MS2 scans of a peak cache entry written by {@link PeakCache}. The
+ * entry is memory-mapped, {@link #next()} only reads the metadata of the next
+ * scan, its peaks are copied into buffers that are reused for the following
+ * scans by {@link #readPeaks()}, and its scan template is only decoded on
+ * request.
+ *
+ * Instances are not thread safe, each thread needs its own reader.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class PeakCacheReader implements Closeable {
+
+    private final Path entryFile;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] regions;
+    private final int scanCount;
+    private final int ms2ScanCount;
+    private final long recordsEnd;
+    private int region = 0;
+    private MappedByteBuffer buffer;
+    private int nextRecord = PeakCache.HEADER_SIZE;
+    // metadata of the current scan
+    private Integer scanNumber;
+    private Double collisionEnergy;
+    private Float retentionTime;
+    private PolarityType polarity;
+    private String msFunction;
+    private List<Range<Double>> isolationWindows;
+    private int scanTemplatePosition;
+    private Float rawTic;
+    private int peakCount;
+    private int peaksPosition;
+    private double[] mzValues = new double[0];
+    private float[] intensityValues = new float[0];
+
+    /**
+     * Maps the given peak cache entry into memory and checks its header.
+     *
+     * @param entryFile the peak cache entry.
+     * @throws IOException if the entry can not be mapped or is not a peak
+     * cache entry of the current format.
+     */
+    public PeakCacheReader(Path entryFile) throws IOException {
+        this.entryFile = entryFile;
+        this.channel = FileChannel.open(entryFile, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            this.regions = new MappedByteBuffer[(int) ((size + PeakCache.REGION_SIZE - 1) / PeakCache.REGION_SIZE)];
+            for (int i = 0; i < regions.length; i++) {
+                long position = (long) i * PeakCache.REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position, Math.min(PeakCache.REGION_SIZE, size - position));
+            }
+            if (size < PeakCache.HEADER_SIZE || regions[0].getInt(0) != PeakCache.MAGIC || regions[0].
+                    getInt(4) != PeakCache.FORMAT_VERSION) {
+                throw new IOException(
+                        "Not a peak cache entry of version " + PeakCache.FORMAT_VERSION + ": " + entryFile);
+            }
+            this.scanCount = regions[0].getInt(8);
+            this.ms2ScanCount = regions[0].getInt(12);
+            this.recordsEnd = regions[0].getLong(16);
+            if (recordsEnd > size) {
+                throw new IOException("Incomplete peak cache entry: " + entryFile);
+            }
+            this.buffer = regions[0];
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the number of scans of all MS levels in the mzML file.
+     *
+     * @return the number of scans.
+     */
+    public int getScanCount() {
+        return scanCount;
+    }
+
+    /**
+     * Returns the number of MS2 scans in the entry.
+     *
+     * @return the number of MS2 scans.
+     */
+    public int getMs2ScanCount() {
+        return ms2ScanCount;
+    }
+
+    /**
+     * Moves to the next MS2 scan and reads its metadata.
+     *
+     * @return false, if there are no more scans.
+     */
+    public boolean next() {
+        while (true) {
+            if ((long) region * PeakCache.REGION_SIZE + nextRecord >= recordsEnd) {
+                return false;
+            }
+            if (nextRecord < buffer.limit()) {
+                buffer.position(nextRecord);
+                if (buffer.get() == PeakCache.RECORD) {
+                    break;
+                }
+            }
+            // the remainder of the region is padding
+            region++;
+            buffer = regions[region];
+            nextRecord = 0;
+        }
+        scanNumber = buffer.get() == 0 ? null : buffer.getInt();
+        collisionEnergy = buffer.get() == 0 ? null : buffer.getDouble();
+        retentionTime = buffer.get() == 0 ? null : buffer.getFloat();
+        String polarityName = readString(buffer);
+        polarity = polarityName == null ? null : PolarityType.valueOf(
+                polarityName);
+        msFunction = readString(buffer);
+        int nIsolationWindows = buffer.getInt();
+        if (nIsolationWindows == 0) {
+            isolationWindows = Collections.emptyList();
+        } else {
+            isolationWindows = new ArrayList<>(nIsolationWindows);
+            for (int i = 0; i < nIsolationWindows; i++) {
+                isolationWindows.add(Range.closed(buffer.getDouble(), buffer.
+                        getDouble()));
+            }
+        }
+        int scanTemplateLength = buffer.getInt();
+        scanTemplatePosition = buffer.position();
+        buffer.position(scanTemplatePosition + scanTemplateLength);
+        rawTic = buffer.get() == 0 ? null : buffer.getFloat();
+        peakCount = buffer.getInt();
+        peaksPosition = buffer.position();
+        nextRecord = peaksPosition + peakCount * (Double.BYTES + Float.BYTES);
+        return true;
+    }
+
+    public Integer getScanNumber() {
+        return scanNumber;
+    }
+
+    public Double getCollisionEnergy() {
+        return collisionEnergy;
+    }
+
+    public Float getRetentionTime() {
+        return retentionTime;
+    }
+
+    public PolarityType getPolarity() {
+        return polarity;
+    }
+
+    public String getMsFunction() {
+        return msFunction;
+    }
+
+    /**
+     * Returns the isolation windows of the current scan, or an empty list, if
+     * any of them is unknown.
+     *
+     * @return the isolation windows.
+     */
+    public List<Range<Double>> getIsolationWindows() {
+        return isolationWindows;
+    }
+
+    public Float getRawTic() {
+        return rawTic;
+    }
+
+    /**
+     * Returns a supplier that decodes the scan template of the current scan,
+     * it stays valid after the reader has moved on to later scans.
+     *
+     * @return the scan template supplier.
+     */
+    public Supplier<Map<String, String>> getScanTemplateSupplier() {
+        final MappedByteBuffer templateBuffer = buffer;
+        final int position = scanTemplatePosition;
+        return () -> {
+            // the reader moves the position of the shared buffer
+            ByteBuffer source = templateBuffer.duplicate();
+            source.position(position);
+            int nEntries = source.getInt();
+            Map<String, String> scanTemplate = new LinkedHashMap<>();
+            for (int i = 0; i < nEntries; i++) {
+                scanTemplate.put(readString(source), readString(source));
+            }
+            return scanTemplate;
+        };
+    }
+
+    /**
+     * Copies the peaks of the current scan into the m/z and intensity buffers.
+     *
+     * @return the number of peaks.
+     */
+    public int readPeaks() {
+        if (mzValues.length < peakCount) {
+            mzValues = new double[peakCount];
+            intensityValues = new float[peakCount];
+        }
+        buffer.position(peaksPosition);
+        buffer.asDoubleBuffer().
+                get(mzValues, 0, peakCount);
+        buffer.position(peaksPosition + peakCount * Double.BYTES);
+        buffer.asFloatBuffer().
+                get(intensityValues, 0, peakCount);
+        return peakCount;
+    }
+
+    /**
+     * Returns the m/z buffer of the last read scan.
+     *
+     * @return the m/z buffer.
+     */
+    public double[] getMzValues() {
+        return mzValues;
+    }
+
+    /**
+     * Returns the intensity buffer of the last read scan.
+     *
+     * @return the intensity buffer.
+     */
+    public float[] getIntensityValues() {
+        return intensityValues;
+    }
+
+    private static String readString(ByteBuffer source) {
+        int length = source.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "PeakCacheReader{" + entryFile + "}";
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the peaks of a spectrum within an mz window. The vectorized
+ * implementation is compiled by the {@code vector} build profile with JDK 17 or
+ * later and requires the {@code jdk.incubator.vector} module at runtime.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public interface PeakWindowClassifier {
+
+    /**
+     * Writes the indices of the mz values from index from to index to
+     * (exclusive) that are within the closed window [lowerBound, upperBound]
+     * to hits, in ascending order. NaN values are never within the window.
+     *
+     * @param mzValues the mz values, in any order.
+     * @param from the first index.
+     * @param to the index after the last one.
+     * @param lowerBound the lower bound of the window.
+     * @param upperBound the upper bound of the window.
+     * @param hits the buffer for the indices, at least to - from long.
+     * @return the number of indices written to hits.
+     */
+    int findInRange(double[] mzValues, int from, int to, double lowerBound,
+            double upperBound, int[] hits);
+
+    /**
+     * @return the number of mz values compared at once.
+     */
+    int getLanes();
+
+    /**
+     * Returns the vectorized classifier, if requested and available, or the
+     * scalar one.
+     *
+     * @param vectorized whether to use the Vector API.
+     * @return the classifier.
+     */
+    static PeakWindowClassifier create(boolean vectorized) {
+        if (vectorized) {
+            try {
+                return (PeakWindowClassifier) Class.forName(
+                        "de.isas.lipidomics.transitionextractor.VectorPeakWindowClassifier").
+                        getDeclaredConstructor().
+                        newInstance();
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                LoggerFactory.getLogger(PeakWindowClassifier.class).
+                        warn("Vector API is not available, using scalar peak window matching. Build with -Pvector and run on JDK 17 or later with --add-modules jdk.incubator.vector to enable it: {}",
+                                ex.toString());
+            }
+        }
+        return new ScalarPeakWindowClassifier();
+    }
+}
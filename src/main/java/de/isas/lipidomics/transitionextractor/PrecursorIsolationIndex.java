@@ -0,0 +1,95 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import com.google.common.collect.Range;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Index over the precursor m/z values of targets, used to look up the targets
+ * whose precursor lies within the isolation window(s) of an MS2 scan. Targets
+ * without a precursor m/z are candidates for every scan.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ * @param <T> the target type.
+ */
+@Slf4j
+public class PrecursorIsolationIndex<T> {
+
+    private final List<T> targets;
+    private final double[] precursorMzs;
+    private final int[] targetIndices;
+    private final int[] unindexedTargetIndices;
+
+    public PrecursorIsolationIndex(List<T> targets,
+            Function<T, Double> precursorMz) {
+        this.targets = targets;
+        List<Integer> indexed = new ArrayList<>();
+        List<Integer> unindexed = new ArrayList<>();
+        for (int i = 0; i < targets.size(); i++) {
+            if (precursorMz.apply(targets.get(i)) == null) {
+                unindexed.add(i);
+            } else {
+                indexed.add(i);
+            }
+        }
+        Collections.sort(indexed, Comparator.comparing((i) -> precursorMz.
+                apply(targets.get(i))));
+        this.precursorMzs = new double[indexed.size()];
+        this.targetIndices = new int[indexed.size()];
+        for (int i = 0; i < indexed.size(); i++) {
+            this.targetIndices[i] = indexed.get(i);
+            this.precursorMzs[i] = precursorMz.apply(targets.get(indexed.get(i)));
+        }
+        this.unindexedTargetIndices = unindexed.stream().
+                mapToInt(Integer::intValue).
+                toArray();
+        if (unindexedTargetIndices.length > 0) {
+            log.warn(
+                    "{} of {} targets have no precursor m/z and will be matched against all MS2 scans.",
+                    unindexedTargetIndices.length, targets.size());
+        }
+    }
+
+    /**
+     * Returns the targets whose precursor m/z lies within any of the given
+     * isolation windows, plus all targets without a precursor m/z. If no
+     * isolation window is given, all targets are returned. Candidates are
+     * returned in the order of the targets passed to the constructor.
+     *
+     * @param isolationWindows the isolation windows of a scan.
+     * @return the candidate targets.
+     */
+    public List<T> getCandidates(List<Range<Double>> isolationWindows) {
+        if (isolationWindows.isEmpty()) {
+            return targets;
+        }
+        boolean[] candidates = new boolean[targets.size()];
+        for (int i : unindexedTargetIndices) {
+            candidates[i] = true;
+        }
+        for (Range<Double> isolationWindow : isolationWindows) {
+            int start = MsUtils.lowerBoundIndex(precursorMzs, isolationWindow.
+                    lowerEndpoint());
+            double upperEndpoint = isolationWindow.upperEndpoint();
+            for (int i = start; i < precursorMzs.length && precursorMzs[i] <= upperEndpoint; i++) {
+                if (isolationWindow.contains(precursorMzs[i])) {
+                    candidates[targetIndices[i]] = true;
+                }
+            }
+        }
+        List<T> candidateTargets = new ArrayList<>();
+        for (int i = 0; i < candidates.length; i++) {
+            if (candidates[i]) {
+                candidateTargets.add(targets.get(i));
+            }
+        }
+        return candidateTargets;
+    }
+}
@@ -16,7 +16,9 @@ import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import lombok.Data;
@@ -29,6 +31,27 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class RJobRunner {
 
+    private final RWorkerPool workerPool;
+
+    /**
+     * Creates a job runner starting one Rscript process per job.
+     */
+    public RJobRunner() {
+        this(null);
+    }
+
+    /**
+     * Creates a job runner submitting its jobs to the given pool of R workers.
+     * The -run.sh script is still written for each job, to allow re-running it
+     * manually.
+     *
+     * @param workerPool the worker pool, or null to start one Rscript process
+     * per job.
+     */
+    public RJobRunner(RWorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
     @Data
     public static class Arguments {
 
@@ -41,6 +64,7 @@ public class RJobRunner {
         private Path fliprConfigFile;
         private Path fliprPath;
         private Integer maxCombinations;
+        private Integer minDataPoints;
     }
 
     /**
@@ -110,6 +134,9 @@ public class RJobRunner {
                             toUpperCase(), "--minPrecursorCollisionEnergy=" + arguments.
                             getMinCollisionEnergy(), "--trainModel=TRUE", "--maxCombinations=" + arguments.getMaxCombinations()
             ));
+            if (arguments.getMinDataPoints() != null) {
+                args.add("--minDataPoints=" + arguments.getMinDataPoints());
+            }
             if (arguments.getFliprConfigFile() != null) {
                 log.info("Using flipr config file {}", arguments.
                         getFliprConfigFile());
@@ -125,11 +152,17 @@ public class RJobRunner {
             Files.write(shellScript.toPath(), ("#!/bin/bash\n" + args.stream().
                     collect(Collectors.joining(" "))).
                     getBytes(Charset.forName("UTF8")));
+            File outputFile = new File(arguments.getOutputDir().
+                    toFile(), arguments.getBaseName() + "-run.out");
+            if (workerPool != null) {
+                log.debug("Submitting job to R worker pool");
+                return CompletableFuture.completedFuture(workerPool.run(
+                        createWorkerJob(arguments, outputFile)));
+            }
             log.debug("Creating process");
             ProcessBuilder pb = new ProcessBuilder(args).redirectErrorStream(
                     true).
-                    redirectOutput(Redirect.to(new File(arguments.getOutputDir().
-                            toFile(), arguments.getBaseName() + "-run.out"))).
+                    redirectOutput(Redirect.to(outputFile)).
                     directory(arguments.getOutputDir().
                             toFile());
             Process p = pb.start();
@@ -139,4 +172,35 @@ public class RJobRunner {
         }
         return CompletableFuture.completedFuture(-1);
     }
+
+    private Map<String, String> createWorkerJob(Arguments arguments,
+            File outputFile) {
+        Map<String, String> job = new LinkedHashMap<>();
+        job.put("projectDir", arguments.getOutputDir().
+                toAbsolutePath().
+                toString());
+        job.put("logFile", outputFile.getAbsolutePath());
+        job.put("filePattern", "*_fip.tsv");
+        job.put("plotFormat", arguments.getFileFormat());
+        job.put("dataPlots", Boolean.valueOf(arguments.isDataPlots()).
+                toString().
+                toUpperCase());
+        job.put("minPrecursorCollisionEnergy", Double.toString(arguments.
+                getMinCollisionEnergy()));
+        job.put("trainModel", "TRUE");
+        if (arguments.getMaxCombinations() != null) {
+            job.put("maxCombinations", arguments.getMaxCombinations().
+                    toString());
+        }
+        if (arguments.getMinDataPoints() != null) {
+            job.put("minDataPoints", arguments.getMinDataPoints().
+                    toString());
+        }
+        if (arguments.getFliprConfigFile() != null) {
+            job.put("config", arguments.getFliprConfigFile().
+                    getFileName().
+                    toString());
+        }
+        return job;
+    }
 }
@@ -0,0 +1,227 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A pool of long-lived R worker processes running the embedded
+ * flipr-worker.R script. Each worker loads flipr once and then processes
+ * jobs, one per line on its stdin, replying with the job's exit status on
+ * stdout. Workers are started on demand, up to the pool size. A worker that
+ * terminates unexpectedly is discarded and replaced by the next job.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Slf4j
+public class RWorkerPool implements Closeable {
+
+    public static final String JOB_DONE = "FLIPR-JOB-DONE ";
+
+    private final int size;
+    private final List<String> command;
+    private final Path workDir;
+    private final AtomicInteger workerIds = new AtomicInteger();
+    private final BlockingQueue<RWorker> idleWorkers = new LinkedBlockingQueue<>();
+    private final List<RWorker> workers = new ArrayList<>();
+    private boolean closed = false;
+
+    /**
+     * Creates a pool running the embedded flipr-worker.R script with Rscript.
+     *
+     * @param size the maximum number of worker processes.
+     * @param workDir the directory to extract the script and write the worker
+     * logs to.
+     * @throws IOException if the script can not be extracted.
+     */
+    public RWorkerPool(int size, Path workDir) throws IOException {
+        this(size, Arrays.asList("Rscript", extractWorkerScript(workDir).
+                toString()), workDir);
+    }
+
+    /**
+     * Creates a pool running the given worker command.
+     *
+     * @param size the maximum number of worker processes.
+     * @param command the worker command.
+     * @param workDir the directory to write the worker logs to.
+     */
+    public RWorkerPool(int size, List<String> command, Path workDir) {
+        if (size < 1) {
+            throw new IllegalArgumentException(
+                    "Size of R worker pool must be at least 1!");
+        }
+        this.size = size;
+        this.command = command;
+        this.workDir = workDir;
+    }
+
+    private static Path extractWorkerScript(Path workDir) throws IOException {
+        workDir.toFile().
+                mkdirs();
+        try {
+            return RJobRunner.extractResource("/flipr-worker.R", workDir).
+                    toAbsolutePath();
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Runs the job on the next idle worker, blocking until one becomes
+     * available.
+     *
+     * @param job the job parameters, passed to the worker as key=value pairs.
+     * @return the exit status of the job.
+     * @throws IOException if the worker terminated while running the job.
+     * @throws InterruptedException
+     */
+    public int run(Map<String, String> job) throws IOException, InterruptedException {
+        String line = encodeJob(job);
+        RWorker worker = acquire();
+        boolean healthy = false;
+        try {
+            int status = worker.run(line);
+            healthy = true;
+            return status;
+        } finally {
+            if (healthy) {
+                idleWorkers.put(worker);
+            } else {
+                discard(worker);
+            }
+        }
+    }
+
+    private RWorker acquire() throws IOException, InterruptedException {
+        RWorker worker = idleWorkers.poll();
+        while (worker == null) {
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("R worker pool has been closed!");
+                }
+                if (workers.size() < size) {
+                    worker = new RWorker(workerIds.incrementAndGet());
+                    workers.add(worker);
+                    return worker;
+                }
+            }
+            // re-check the capacity regularly, discarded workers free a slot
+            worker = idleWorkers.poll(1, TimeUnit.SECONDS);
+        }
+        return worker;
+    }
+
+    private void discard(RWorker worker) {
+        synchronized (this) {
+            workers.remove(worker);
+        }
+        worker.close();
+    }
+
+    @Override
+    public void close() {
+        List<RWorker> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayList<>(workers);
+            workers.clear();
+        }
+        idleWorkers.clear();
+        toClose.forEach(RWorker::close);
+    }
+
+    static String encodeJob(Map<String, String> job) {
+        return job.entrySet().
+                stream().
+                map((entry) -> {
+                    if (entry.getKey().
+                            matches(".*[=\t\r\n].*") || entry.getValue().
+                                    matches("(?s).*[\t\r\n].*")) {
+                        throw new IllegalArgumentException(
+                                "Job parameter " + entry + " must not contain tabs or line breaks!");
+                    }
+                    return entry.getKey() + "=" + entry.getValue();
+                }).
+                collect(Collectors.joining("\t"));
+    }
+
+    private class RWorker {
+
+        private final int id;
+        private final Process process;
+        private final BufferedWriter input;
+        private final BufferedReader output;
+
+        RWorker(int id) throws IOException {
+            this.id = id;
+            log.info("Starting R worker {}: {}", id, command);
+            this.process = new ProcessBuilder(command).
+                    directory(workDir.toFile()).
+                    redirectError(Redirect.appendTo(new File(workDir.toFile(),
+                            "flipr-worker-" + id + ".log"))).
+                    start();
+            this.input = new BufferedWriter(new OutputStreamWriter(process.
+                    getOutputStream(), StandardCharsets.UTF_8));
+            this.output = new BufferedReader(new InputStreamReader(process.
+                    getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        int run(String job) throws IOException {
+            input.write(job);
+            input.newLine();
+            input.flush();
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.startsWith(JOB_DONE)) {
+                    return Integer.parseInt(line.substring(JOB_DONE.length()).
+                            trim());
+                }
+                log.debug("R worker {}: {}", id, line);
+            }
+            throw new IOException(
+                    "R worker " + id + " terminated while running job: " + job);
+        }
+
+        void close() {
+            try {
+                input.write("quit");
+                input.newLine();
+                input.close();
+            } catch (IOException ex) {
+                log.debug("R worker {} already terminated.", id);
+            }
+            try {
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException ex) {
+                process.destroyForcibly();
+                Thread.currentThread().
+                        interrupt();
+            }
+        }
+    }
+}
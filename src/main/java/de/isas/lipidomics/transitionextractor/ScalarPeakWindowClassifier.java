@@ -0,0 +1,24 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+/**
+ * Compares one mz value at a time with the window.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class ScalarPeakWindowClassifier implements PeakWindowClassifier {
+
+    @Override
+    public int findInRange(double[] mzValues, int from, int to,
+            double lowerBound, double upperBound, int[] hits) {
+        return MsUtils.findInRange(mzValues, from, to, lowerBound, upperBound,
+                hits, 0);
+    }
+
+    @Override
+    public int getLanes() {
+        return 1;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import io.github.msdk.datamodel.PolarityType;
+import lombok.Data;
+
+/**
+ * Selects the MS2 scans that are matched against a transition specification
+ * group, before their peaks are decoded. Unset criteria accept every scan, set
+ * criteria reject scans that do not report the corresponding value.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Data
+public class ScanFilter {
+
+    /**
+     * Minimum inclusive precursor collision energy (MS:1000045).
+     */
+    private Double minCollisionEnergy;
+
+    /**
+     * Maximum inclusive precursor collision energy (MS:1000045).
+     */
+    private Double maxCollisionEnergy;
+
+    /**
+     * Minimum inclusive retention time in seconds.
+     */
+    private Double minRetentionTime;
+
+    /**
+     * Maximum inclusive retention time in seconds.
+     */
+    private Double maxRetentionTime;
+
+    /**
+     * Scan polarity, one of 'positive' or 'negative', case insensitive.
+     */
+    private String polarity;
+
+    /**
+     * MS function of the scan, as reported in the output.
+     */
+    private String msFunction;
+
+    /**
+     * Returns true, if no criterion is set.
+     *
+     * @return true, if this filter accepts all scans.
+     */
+    public boolean isEmpty() {
+        return minCollisionEnergy == null && maxCollisionEnergy == null
+                && minRetentionTime == null && maxRetentionTime == null
+                && polarity == null && msFunction == null;
+    }
+
+    /**
+     * Returns a new filter with the criteria of this filter, overridden by the
+     * criteria that are set in the other filter.
+     *
+     * @param other the other filter, may be null.
+     * @return the merged filter.
+     */
+    public ScanFilter merge(ScanFilter other) {
+        ScanFilter override = other == null ? new ScanFilter() : other;
+        ScanFilter merged = new ScanFilter();
+        merged.setMinCollisionEnergy(pick(minCollisionEnergy,
+                override.minCollisionEnergy));
+        merged.setMaxCollisionEnergy(pick(maxCollisionEnergy,
+                override.maxCollisionEnergy));
+        merged.setMinRetentionTime(pick(minRetentionTime,
+                override.minRetentionTime));
+        merged.setMaxRetentionTime(pick(maxRetentionTime,
+                override.maxRetentionTime));
+        merged.setPolarity(pick(polarity, override.polarity));
+        merged.setMsFunction(pick(msFunction, override.msFunction));
+        return merged;
+    }
+
+    private static <T> T pick(T value, T override) {
+        return override == null ? value : override;
+    }
+
+    /**
+     * Returns true, if a scan with the given values passes all criteria.
+     *
+     * @param collisionEnergy the precursor collision energy, may be null.
+     * @param retentionTime the retention time in seconds, may be null.
+     * @param polarity the polarity, may be null.
+     * @param msFunction the MS function, may be null.
+     * @return true, if the scan is accepted.
+     */
+    public boolean accepts(Double collisionEnergy, Float retentionTime,
+            PolarityType polarity, String msFunction) {
+        if (!inRange(collisionEnergy, minCollisionEnergy, maxCollisionEnergy)) {
+            return false;
+        }
+        if (!inRange(retentionTime == null ? null : retentionTime.
+                doubleValue(), minRetentionTime, maxRetentionTime)) {
+            return false;
+        }
+        if (this.polarity != null && (polarity == null || !this.polarity.
+                equalsIgnoreCase(polarity.name()))) {
+            return false;
+        }
+        return this.msFunction == null || this.msFunction.equals(msFunction);
+    }
+
+    private static boolean inRange(Double value, Double min, Double max) {
+        if (min == null && max == null) {
+            return true;
+        }
+        if (value == null) {
+            return false;
+        }
+        return (min == null || value >= min) && (max == null || value <= max);
+    }
+}
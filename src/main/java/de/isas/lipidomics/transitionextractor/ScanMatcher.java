@@ -0,0 +1,91 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import de.isas.lipidomics.transitionextractor.services.metrics.FileMetrics;
+import io.github.msdk.io.mzml.data.MzMLMsScan;
+import io.github.msdk.util.MsSpectrumUtil;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Matches the decoded peaks of each MS2 scan against the selected scan
+ * processors and writes their rows, in the calling thread.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+class ScanMatcher implements Closeable {
+
+    protected final FileMetrics fileMetrics;
+
+    ScanMatcher(FileMetrics fileMetrics) {
+        this.fileMetrics = fileMetrics;
+    }
+
+    /**
+     * Decodes the peaks of an MS2 scan and matches them against the selected
+     * scan processors. With a peak decoder, the peaks are decoded into its
+     * reused buffers instead of the arrays MSDK allocates for each scan.
+     *
+     * @param peakDecoder the peak decoder, or null.
+     */
+    void decodeAndMatch(MzMLMsScan msScan, ScanMetadata scanMetadata,
+            List<ScanProcessor> scanProcessors, MappedPeakDecoder peakDecoder) throws IOException {
+        fileMetrics.getMs2ScansKept().
+                increment();
+        long start = System.nanoTime();
+        double[] mzValues;
+        float[] intensityValues;
+        int peakCount;
+        Float rawTic;
+        if (peakDecoder != null) {
+            peakCount = peakDecoder.decode(msScan);
+            mzValues = peakDecoder.getMzValues();
+            intensityValues = peakDecoder.getIntensityValues();
+            // same as MsScan.getTIC(), which would decode the intensities again
+            rawTic = MsSpectrumUtil.getTIC(intensityValues, peakCount);
+        } else {
+            //potentially slow, so do not perform in loop below
+            rawTic = msScan.getTIC();
+            mzValues = msScan.getMzValues();
+            intensityValues = msScan.
+                    getIntensityValues();
+            peakCount = mzValues.length;
+        }
+        scanMetadata.setPeaks(mzValues, peakCount, rawTic);
+        match(scanMetadata, mzValues, intensityValues, peakDecoder != null,
+                scanProcessors, start);
+    }
+
+    /**
+     * Matches the peaks of a scan and records the decode time since start and
+     * the match time.
+     *
+     * @param reusedBuffers whether the peak arrays are overwritten by the next
+     * scan.
+     */
+    void match(ScanMetadata scanMetadata, double[] mzValues,
+            float[] intensityValues, boolean reusedBuffers,
+            List<ScanProcessor> scanProcessors, long start) throws IOException {
+        long decoded = System.nanoTime();
+        for (ScanProcessor scanProcessor : scanProcessors) {
+            scanProcessor.process(scanMetadata, mzValues, intensityValues);
+        }
+        fileMetrics.getDecodeNanos().
+                add(decoded - start);
+        fileMetrics.getMatchNanos().
+                add(System.nanoTime() - decoded);
+    }
+
+    /**
+     * Writes the rows of all scans that have not been written yet.
+     */
+    void finish() throws IOException {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * The matches of one scan processor for one scan, with the time it took to
+ * match them.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+class ScanMatches extends SpectrumMatches {
+
+    @Getter(AccessLevel.PACKAGE)
+    @Setter(AccessLevel.PACKAGE)
+    private long matchNanos;
+}
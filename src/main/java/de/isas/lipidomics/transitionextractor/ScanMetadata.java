@@ -0,0 +1,103 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import com.google.common.collect.Range;
+import io.github.msdk.datamodel.PolarityType;
+import io.github.msdk.io.mzml.data.MzMLMsScan;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Metadata of one MS2 scan, shared by all scan processors the scan is matched
+ * against, either from the parsed scan or from the peak cache. The scan
+ * defaults are only prepared by the conversion supplier once a processor
+ * writes the first row for the scan, and then reused for all further rows and
+ * processors of the same instrument.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Slf4j
+class ScanMetadata {
+
+    private final ConversionSupplier supplier;
+    private final Integer scanNumber;
+    @Getter(AccessLevel.PACKAGE)
+    private final Double collisionEnergy;
+    @Getter(AccessLevel.PACKAGE)
+    private final Float retentionTime;
+    @Getter(AccessLevel.PACKAGE)
+    private final PolarityType polarity;
+    @Getter(AccessLevel.PACKAGE)
+    private final String msFunction;
+    @Getter(AccessLevel.PACKAGE)
+    private final List<Range<Double>> isolationWindows;
+    private final Supplier<Map<String, String>> scanTemplateSupplier;
+    // number of valid values in the possibly longer peak arrays
+    @Getter(AccessLevel.PACKAGE)
+    private int peakCount;
+    @Getter(AccessLevel.PACKAGE)
+    private Float rawTic;
+    @Getter(AccessLevel.PACKAGE)
+    private boolean sortedMzValues;
+    private Map<String, String> scanTemplate = null;
+    private String instrument = null;
+    private Map<String, String> scanDefaults = null;
+
+    ScanMetadata(ConversionSupplier supplier, MzMLMsScan msScan) {
+        this(supplier, msScan.getScanNumber(), ConversionSupplier.
+                getCollisionEnergy(msScan), msScan.getRetentionTime(), msScan.
+                getPolarity(), msScan.getMsFunction(), ConversionSupplier.
+                getIsolationWindows(msScan),
+                () -> ConversionSupplier.prepareScanTemplate(msScan));
+    }
+
+    ScanMetadata(ConversionSupplier supplier, PeakCacheReader reader) {
+        this(supplier, reader.getScanNumber(), reader.getCollisionEnergy(),
+                reader.getRetentionTime(), reader.getPolarity(), reader.
+                getMsFunction(), reader.getIsolationWindows(), reader.
+                getScanTemplateSupplier());
+    }
+
+    private ScanMetadata(ConversionSupplier supplier, Integer scanNumber,
+            Double collisionEnergy, Float retentionTime, PolarityType polarity,
+            String msFunction, List<Range<Double>> isolationWindows,
+            Supplier<Map<String, String>> scanTemplateSupplier) {
+        this.supplier = supplier;
+        this.scanNumber = scanNumber;
+        this.collisionEnergy = collisionEnergy;
+        this.retentionTime = retentionTime;
+        this.polarity = polarity;
+        this.msFunction = msFunction;
+        this.isolationWindows = isolationWindows;
+        this.scanTemplateSupplier = scanTemplateSupplier;
+    }
+
+    void setPeaks(double[] mzValues, int peakCount, Float rawTic) {
+        this.peakCount = peakCount;
+        this.rawTic = rawTic;
+        this.sortedMzValues = MsUtils.isSortedAscending(mzValues, peakCount);
+        if (!sortedMzValues) {
+            log.debug(
+                    "m/z values of scan {} are not sorted, using linear search.",
+                    scanNumber);
+        }
+    }
+
+    Map<String, String> getScanDefaults(String instrument) {
+        if (scanDefaults == null || !instrument.equals(this.instrument)) {
+            if (scanTemplate == null) {
+                scanTemplate = scanTemplateSupplier.get();
+            }
+            this.scanDefaults = supplier.prepareScanDefaults(instrument,
+                    scanTemplate, rawTic);
+            this.instrument = instrument;
+        }
+        return scanDefaults;
+    }
+}
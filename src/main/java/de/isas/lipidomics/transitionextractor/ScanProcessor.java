@@ -0,0 +1,308 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import de.isas.lipidomics.transitionextractor.services.LipidTargetFinder;
+import de.isas.lipidomics.transitionextractor.services.metrics.GroupMetrics;
+import de.isas.lipidomics.transitionextractor.services.output.ColumnType;
+import de.isas.lipidomics.transitionextractor.services.output.RowWriter;
+import io.github.msdk.io.mzml.data.MzMLMsScan;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Matches the peaks of MS2 scans against the transition specifications of one
+ * group and writes the resulting rows to the group's output file. The scan
+ * columns of the output schema are fixed by the first scan that produces a
+ * row, unless given, later scans are written in that column order, with empty
+ * values for missing columns.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Slf4j
+class ScanProcessor implements Closeable {
+
+    private static final String GROUP_COLUMN = "group";
+
+    private final ConversionSupplier supplier;
+    @Getter(AccessLevel.PACKAGE)
+    private final TransitionSpecificationGroup transitionSpecGroup;
+    private final RowWriter rowWriter;
+    private final GroupMetrics groupMetrics;
+    @Getter(AccessLevel.PACKAGE)
+    private final ScanFilter scanFilter;
+    // matched rows per transition specification of the group
+    private final long[] fragmentDataPoints;
+    private final MzRangeIndex mzRangeIndex;
+    // reused by the sequential matcher
+    private final ScanMatches scanMatches = new ScanMatches();
+    private List<String> scanColumns;
+    private Set<String> scanColumnSet = null;
+    private ColumnType[] scanColumnTypes = null;
+    private final Set<String> ignoredScanColumns = new HashSet<>();
+
+    /**
+     * Creates a scan processor for the group of the supplier.
+     *
+     * @param supplier the conversion supplier.
+     * @param transitionSpecGroup the transition specification group.
+     * @param rowWriter the row writer, or null, if the processor only matches.
+     * @param scanColumns the scan columns of the output schema, or null, if
+     * they are fixed by the first scan that produces a row.
+     */
+    ScanProcessor(ConversionSupplier supplier,
+            TransitionSpecificationGroup transitionSpecGroup,
+            RowWriter rowWriter, List<String> scanColumns) {
+        this.supplier = supplier;
+        this.transitionSpecGroup = transitionSpecGroup;
+        this.rowWriter = rowWriter;
+        this.scanColumns = scanColumns;
+        this.groupMetrics = supplier.getRunMetrics().
+                getGroupMetrics(transitionSpecGroup);
+        ScanFilter globalScanFilter = supplier.getExtractionSettings().
+                getScanFilter() == null ? new ScanFilter() : supplier.
+                getExtractionSettings().
+                getScanFilter();
+        this.scanFilter = globalScanFilter.merge(transitionSpecGroup.
+                getScanFilter());
+        this.fragmentDataPoints = new long[transitionSpecGroup.
+                getSpecifications().
+                size()];
+        this.mzRangeIndex = MzRangeIndex.create(transitionSpecGroup.
+                getSpecifications());
+    }
+
+    /**
+     * Returns the type of a scan column in the output schema. The scan id is
+     * unique per scan and therefore not dictionary encoded.
+     *
+     * @param column the scan column.
+     * @return the column type.
+     */
+    static ColumnType getScanColumnType(String column) {
+        int index = column.indexOf('[');
+        switch (index < 0 ? column : column.substring(0, index)) {
+            case "scanNumber":
+            case "msLevel":
+            case "precursorCharge":
+                return ColumnType.INT;
+            case "basePeakMz":
+            case "basePeakIntensity":
+            case "totalIonCurrent":
+            case "isolationWindowTargetMz":
+            case "isolationWindowLowerOffset":
+            case "isolationWindowUpperOffset":
+            case "precursorCollisionEnergy":
+            case "sifActivationEnergy":
+            case "ionInjectionTime":
+            case "isolationMzMin":
+            case "isolationMzMax":
+            case "precursorMz":
+            case "activationEnergy":
+            case "retentionTime":
+            case "rawTic":
+                return ColumnType.DOUBLE;
+            case "id":
+                return ColumnType.TEXT;
+            default:
+                return ColumnType.STRING;
+        }
+    }
+
+    private static double parseScanNumber(ColumnType type, String value) {
+        if ((type != ColumnType.INT && type != ColumnType.DOUBLE) || value.
+                isEmpty()) {
+            return Double.NaN;
+        }
+        try {
+            return type == ColumnType.INT ? Integer.parseInt(value) : Double.
+                    parseDouble(value);
+        } catch (NumberFormatException ex) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Returns the scan columns of the output schema for the given scan
+     * defaults, followed by the group column.
+     *
+     * @param scanDefaults the scan defaults.
+     * @return the scan columns.
+     */
+    static List<String> createScanColumns(Map<String, String> scanDefaults) {
+        List<String> scanColumns = new ArrayList<>(scanDefaults.keySet());
+        scanColumns.add(GROUP_COLUMN);
+        return scanColumns;
+    }
+
+    void process(MzMLMsScan msScan, double[] mzValues,
+            float[] intensityValues, Float rawTic) throws IOException {
+        ScanMetadata scanMetadata = new ScanMetadata(supplier, msScan);
+        scanMetadata.setPeaks(mzValues, mzValues.length, rawTic);
+        process(scanMetadata, mzValues, intensityValues);
+    }
+
+    void process(ScanMetadata scanMetadata, double[] mzValues,
+            float[] intensityValues) throws IOException {
+        write(scanMetadata, match(scanMetadata, mzValues, intensityValues,
+                scanMatches));
+    }
+
+    /**
+     * Matches the peaks of a scan against the transition specifications of the
+     * group, without changing the state of this processor, so that different
+     * scans can be matched concurrently with separate buffers.
+     *
+     * @param scanMatches the buffer for the rows of the scan, cleared first.
+     * @return scanMatches.
+     */
+    ScanMatches match(ScanMetadata scanMetadata, double[] mzValues,
+            float[] intensityValues, ScanMatches scanMatches) {
+        long start = System.nanoTime();
+        supplier.getLtf().
+                match(transitionSpecGroup.getSpecifications(), mzRangeIndex,
+                        mzValues, intensityValues, scanMetadata.getPeakCount(),
+                        scanMetadata.isSortedMzValues(), supplier.
+                        isStopAtSmallestPpm(), scanMatches);
+        scanMatches.setMatchNanos(System.nanoTime() - start);
+        return scanMatches;
+    }
+
+    /**
+     * Writes the rows of a matched scan. Scans must be written in scan order,
+     * since the first scan with rows fixes the output schema.
+     */
+    void write(ScanMetadata scanMetadata, ScanMatches scanMatches) throws IOException {
+        long start = System.nanoTime();
+        long writeNanos = 0;
+        if (scanMatches.size() > 0) {
+            String[] scanValues = getScanValues(scanMetadata.getScanDefaults(
+                    transitionSpecGroup.getInstrument()));
+            double[] scanNumbers = getScanNumbers(scanValues);
+            List<TransitionSpecification> specs = transitionSpecGroup.
+                    getSpecifications();
+            for (int i = 0; i < scanMatches.size(); i++) {
+                long rowStart = System.nanoTime();
+                int specIndex = scanMatches.getSpecIndex(i);
+                int window = scanMatches.getWindow(i);
+                writeRow(specs.get(specIndex), scanValues, scanNumbers, window,
+                        scanMatches.getMzValue(i),
+                        scanMatches.getIntensityValue(i),
+                        scanMetadata.getRawTic());
+                if (window >= 0) {
+                    fragmentDataPoints[specIndex]++;
+                }
+                writeNanos += System.nanoTime() - rowStart;
+            }
+        }
+        groupMetrics.getMs2ScansKept().
+                increment();
+        groupMetrics.getPeaksExamined().
+                add(scanMatches.getPeaksExamined());
+        groupMetrics.getInRangeHits().
+                add(scanMatches.getInRangeHits());
+        groupMetrics.getRowsWritten().
+                add(scanMatches.size());
+        groupMetrics.getWriteNanos().
+                add(writeNanos);
+        groupMetrics.getMatchNanos().
+                add(scanMatches.getMatchNanos() + System.nanoTime() - start);
+    }
+
+    /**
+     * Returns the values of the scan columns of the output schema, followed by
+     * the group column. The header is written with the first row, the schema
+     * is created from its scan, if it was not given.
+     */
+    private String[] getScanValues(Map<String, String> scanDefaults) throws IOException {
+        if (scanColumnSet == null) {
+            if (scanColumns == null) {
+                scanColumns = createScanColumns(scanDefaults);
+            }
+            scanColumnSet = new HashSet<>(scanColumns);
+            scanColumnTypes = new ColumnType[scanColumns.size()];
+            for (int i = 0; i < scanColumnTypes.length; i++) {
+                scanColumnTypes[i] = getScanColumnType(scanColumns.get(i));
+            }
+            List<String> header = new ArrayList<>(scanColumns);
+            header.addAll(LipidTargetFinder.TARGET_COLUMNS);
+            List<ColumnType> types = new ArrayList<>(Arrays.asList(
+                    scanColumnTypes));
+            types.addAll(Collections.nCopies(
+                    LipidTargetFinder.TARGET_COLUMNS.size(),
+                    ColumnType.STRING));
+            rowWriter.writeHeader(header, types);
+        }
+        String[] scanValues = new String[scanColumns.size()];
+        for (int i = 0; i < scanValues.length; i++) {
+            String column = scanColumns.get(i);
+            if (GROUP_COLUMN.equals(column)) {
+                scanValues[i] = transitionSpecGroup.getGroup();
+            } else {
+                scanValues[i] = scanDefaults.containsKey(column) ? String.
+                        valueOf(scanDefaults.get(column)) : "";
+            }
+        }
+        for (String column : scanDefaults.keySet()) {
+            if (!scanColumnSet.contains(column) && ignoredScanColumns.add(
+                    column)) {
+                log.warn(
+                        "Column {} of scan {} is not part of the output schema of {} and will be ignored.",
+                        column, scanDefaults.get("id"),
+                        transitionSpecGroup.getConfigKey());
+            }
+        }
+        return scanValues;
+    }
+
+    /**
+     * Parses the values of the numeric scan columns once per scan. Values that
+     * are not numeric are NaN and written as text.
+     */
+    private double[] getScanNumbers(String[] scanValues) {
+        double[] scanNumbers = new double[scanValues.length];
+        for (int i = 0; i < scanValues.length; i++) {
+            scanNumbers[i] = parseScanNumber(scanColumnTypes[i],
+                    scanValues[i]);
+        }
+        return scanNumbers;
+    }
+
+    private void writeRow(TransitionSpecification spec, String[] scanValues,
+            double[] scanNumbers, int window, double mzValue,
+            float intensityValue, float rawTic) throws IOException {
+        rowWriter.startRow();
+        for (int i = 0; i < scanValues.length; i++) {
+            if (scanValues[i].isEmpty()) {
+                rowWriter.appendEmpty();
+            } else if (Double.isNaN(scanNumbers[i])) {
+                rowWriter.append(scanValues[i]);
+            } else if (scanColumnTypes[i] == ColumnType.INT) {
+                rowWriter.append(scanValues[i], (int) scanNumbers[i]);
+            } else {
+                rowWriter.append(scanValues[i], scanNumbers[i]);
+            }
+        }
+        supplier.getLtf().
+                writeTargetColumns(rowWriter, spec, window, mzValue,
+                        intensityValue, rawTic);
+        rowWriter.endRow();
+    }
+
+    @Override
+    public void close() throws IOException {
+        groupMetrics.addFragmentDataPoints(fragmentDataPoints);
+        rowWriter.close();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import java.util.Arrays;
+
+/**
+ * The rows of the matches of a spectrum against a list of transition
+ * specifications, as the index of the transition specification, the matched
+ * ion target mz window, or -1 if no window matched, and the peak of each row,
+ * together with the counters of the spectrum. Grows when needed, but is never
+ * shrunk.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class SpectrumMatches {
+
+    private int size = 0;
+    private int[] specIndexes = new int[16];
+    private int[] windows = new int[16];
+    private double[] mzValues = new double[16];
+    private float[] intensityValues = new float[16];
+    // buffers of sortBySpecIndex
+    private int[] starts = new int[0];
+    private int[] sortedSpecIndexes = new int[0];
+    private int[] sortedWindows = new int[0];
+    private double[] sortedMzValues = new double[0];
+    private float[] sortedIntensityValues = new float[0];
+    private int[] hits = new int[0];
+    private long peaksExamined;
+    private long inRangeHits;
+
+    public void clear() {
+        size = 0;
+        peaksExamined = 0;
+        inRangeHits = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getSpecIndex(int index) {
+        return specIndexes[index];
+    }
+
+    /**
+     * @return the index of the matched ion target mz window, or -1 for the
+     * row reporting that no ion was found.
+     */
+    public int getWindow(int index) {
+        return windows[index];
+    }
+
+    public double getMzValue(int index) {
+        return mzValues[index];
+    }
+
+    public float getIntensityValue(int index) {
+        return intensityValues[index];
+    }
+
+    /**
+     * @return the number of peak and specification range comparisons.
+     */
+    public long getPeaksExamined() {
+        return peaksExamined;
+    }
+
+    /**
+     * @return the number of peaks within the maximum mz range of a
+     * specification.
+     */
+    public long getInRangeHits() {
+        return inRangeHits;
+    }
+
+    /**
+     * Returns a reusable buffer for the indices of the peaks within a window.
+     *
+     * @param capacity the minimum length of the buffer.
+     * @return the buffer.
+     */
+    public int[] getHitBuffer(int capacity) {
+        if (hits.length < capacity) {
+            hits = new int[capacity];
+        }
+        return hits;
+    }
+
+    public void addCounts(long peaksExamined, long inRangeHits) {
+        this.peaksExamined += peaksExamined;
+        this.inRangeHits += inRangeHits;
+    }
+
+    public void add(int specIndex, int window, double mzValue,
+            float intensityValue) {
+        if (size == windows.length) {
+            int capacity = size * 2;
+            specIndexes = Arrays.copyOf(specIndexes, capacity);
+            windows = Arrays.copyOf(windows, capacity);
+            mzValues = Arrays.copyOf(mzValues, capacity);
+            intensityValues = Arrays.copyOf(intensityValues, capacity);
+        }
+        specIndexes[size] = specIndex;
+        windows[size] = window;
+        mzValues[size] = mzValue;
+        intensityValues[size] = intensityValue;
+        size++;
+    }
+
+    /**
+     * Sorts the matches by specification index, keeping the order of the
+     * matches of each specification. The sorted arrays are swapped with
+     * reused buffers of the same capacity.
+     */
+    public void sortBySpecIndex(int nSpecs) {
+        if (starts.length < nSpecs + 1) {
+            starts = new int[nSpecs + 1];
+        }
+        Arrays.fill(starts, 0, nSpecs + 1, 0);
+        for (int i = 0; i < size; i++) {
+            starts[specIndexes[i] + 1]++;
+        }
+        for (int i = 1; i <= nSpecs; i++) {
+            starts[i] += starts[i - 1];
+        }
+        int capacity = windows.length;
+        if (sortedWindows.length != capacity) {
+            sortedSpecIndexes = new int[capacity];
+            sortedWindows = new int[capacity];
+            sortedMzValues = new double[capacity];
+            sortedIntensityValues = new float[capacity];
+        }
+        for (int i = 0; i < size; i++) {
+            int position = starts[specIndexes[i]]++;
+            sortedSpecIndexes[position] = specIndexes[i];
+            sortedWindows[position] = windows[i];
+            sortedMzValues[position] = mzValues[i];
+            sortedIntensityValues[position] = intensityValues[i];
+        }
+        int[] unsortedSpecIndexes = specIndexes;
+        int[] unsortedWindows = windows;
+        double[] unsortedMzValues = mzValues;
+        float[] unsortedIntensityValues = intensityValues;
+        specIndexes = sortedSpecIndexes;
+        windows = sortedWindows;
+        mzValues = sortedMzValues;
+        intensityValues = sortedIntensityValues;
+        sortedSpecIndexes = unsortedSpecIndexes;
+        sortedWindows = unsortedWindows;
+        sortedMzValues = unsortedMzValues;
+        sortedIntensityValues = unsortedIntensityValues;
+    }
+}
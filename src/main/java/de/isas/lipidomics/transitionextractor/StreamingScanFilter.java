@@ -0,0 +1,67 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import de.isas.lipidomics.transitionextractor.services.metrics.FileMetrics;
+import io.github.msdk.datamodel.MsScan;
+import io.github.msdk.io.mzml.data.MzMLMsScan;
+import io.github.msdk.io.mzml.util.ByteBufferInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Scan predicate for streaming mode that matches each MS2 scan against the
+ * groups whose precursor it isolates.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Slf4j
+class StreamingScanFilter extends AbstractStreamingScanFilter {
+
+    private final ConversionSupplier supplier;
+    private final ByteBufferInputStream peakInputStream;
+    private final Function<ScanMetadata, List<ScanProcessor>> scanProcessorSelector;
+    private final MappedPeakDecoder peakDecoder;
+    private final ScanMatcher scanMatcher;
+    private final FileMetrics fileMetrics;
+
+    StreamingScanFilter(ConversionSupplier supplier,
+            ByteBufferInputStream peakInputStream,
+            Function<ScanMetadata, List<ScanProcessor>> scanProcessorSelector,
+            MappedPeakDecoder peakDecoder, ScanMatcher scanMatcher,
+            FileMetrics fileMetrics) {
+        this.supplier = supplier;
+        this.peakInputStream = peakInputStream;
+        this.scanProcessorSelector = scanProcessorSelector;
+        this.peakDecoder = peakDecoder;
+        this.scanMatcher = scanMatcher;
+        this.fileMetrics = fileMetrics;
+    }
+
+    @Override
+    protected void scanRead(MsScan scan) {
+        fileMetrics.getScansRead().
+                increment();
+    }
+
+    @Override
+    protected void processScan(MzMLMsScan msScan) throws IOException {
+        fileMetrics.getMs2Scans().
+                increment();
+        ScanMetadata scanMetadata = new ScanMetadata(supplier, msScan);
+        List<ScanProcessor> scanProcessors = scanProcessorSelector.apply(
+                scanMetadata);
+        if (scanProcessors.isEmpty()) {
+            log.debug(
+                    "Skipping MS 2 scan " + msScan.getId() + " without target precursor in isolation window");
+            return;
+        }
+        // the parser's own input stream must not be repositioned here
+        msScan.setInputStream(peakInputStream);
+        scanMatcher.decodeAndMatch(msScan, scanMetadata, scanProcessors,
+                peakDecoder);
+    }
+}
@@ -3,14 +3,16 @@
  */
 package de.isas.lipidomics.transitionextractor;
 
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Range;
 import de.isas.lipidomics.transitionextractor.services.MappingSpecification;
 import java.nio.file.Path;
-import java.util.TreeMap;
 import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.ToString;
 
 /**
  *
@@ -28,13 +30,37 @@ public class TransitionSpecification {
     private Path file;
     private String moleculeGroup;
     private String precursorName;
+    private Double precursorMz;
     private String fragmentName;
     private String fragmentAdduct;
     private Double calculatedMass;
-    private TreeMap<Integer, Range<Double>> ionTargetMzRanges;
+    private ImmutableSortedMap<Integer, Range<Double>> ionTargetMzRanges;
     private Range<Double> maximumMzRange;
     @Getter(AccessLevel.PROTECTED)
     private MappingSpecification mappingSpecification;
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private IonTargetMzWindows ionTargetMzWindows;
+
+    /**
+     * Returns the ppm search windows of this object as primitive arrays. They
+     * are created from the ion target mz ranges on first access.
+     *
+     * @return the ion target mz windows.
+     */
+    public IonTargetMzWindows getIonTargetMzWindows() {
+        if (ionTargetMzWindows == null) {
+            ionTargetMzWindows = MsUtils.createIonTargetMzWindows(
+                    ionTargetMzRanges);
+        }
+        return ionTargetMzWindows;
+    }
+
+    public void setIonTargetMzRanges(
+            ImmutableSortedMap<Integer, Range<Double>> ionTargetMzRanges) {
+        this.ionTargetMzRanges = ionTargetMzRanges;
+        this.ionTargetMzWindows = null;
+    }
 
     /**
      * Returns true when the given mzValue is within the combined maximum range
@@ -59,4 +85,12 @@ public class TransitionSpecification {
         return mappingSpecification.getGroup();
     }
 
+    public ScanFilter getScanFilter() {
+        return mappingSpecification.getScanFilter();
+    }
+
+    public Integer getMinDataPoints() {
+        return mappingSpecification.getMinDataPoints();
+    }
+
 }
@@ -7,6 +7,7 @@ import de.isas.lipidomics.transitionextractor.services.GroupedConfigKey;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import lombok.Data;
 
 /**
@@ -25,6 +26,9 @@ public class TransitionSpecificationGroup {
     private final String group;
 
     private final GroupedConfigKey configKey;
+    private Double precursorMz;
+    private ScanFilter scanFilter;
+    private Integer minDataPoints;
 
     public TransitionSpecificationGroup(String instrument, String moleculeGroup,
         String precursorName, String precursorAdduct, Path targetFile,
@@ -66,6 +70,26 @@ public class TransitionSpecificationGroup {
                 "Group of transition specification " + ts.
                     getGroup() + " does not match expected one: " + group + " for target file " + targetFile);
         }
+        if (specifications.isEmpty()) {
+            precursorMz = ts.getPrecursorMz();
+            scanFilter = ts.getScanFilter();
+            minDataPoints = ts.getMinDataPoints();
+        }
+        if (!Objects.equals(precursorMz, ts.getPrecursorMz())) {
+            throw new IllegalArgumentException(
+                "Precursor m/z of transition specification " + ts.
+                    getPrecursorMz() + " does not match expected one: " + precursorMz + " for target file " + targetFile);
+        }
+        if (!Objects.equals(scanFilter, ts.getScanFilter())) {
+            throw new IllegalArgumentException(
+                "Scan filter of transition specification " + ts.
+                    getScanFilter() + " does not match expected one: " + scanFilter + " for target file " + targetFile);
+        }
+        if (!Objects.equals(minDataPoints, ts.getMinDataPoints())) {
+            throw new IllegalArgumentException(
+                "Minimum data points of transition specification " + ts.
+                    getMinDataPoints() + " do not match expected ones: " + minDataPoints + " for target file " + targetFile);
+        }
         this.specifications.add(ts);
     }
 
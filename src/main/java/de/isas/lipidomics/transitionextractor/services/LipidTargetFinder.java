@@ -5,9 +5,17 @@ package de.isas.lipidomics.transitionextractor.services;
 
 import com.google.common.collect.Range;
 import de.isas.lipidomics.transitionextractor.IonAnnotation;
+import de.isas.lipidomics.transitionextractor.IonTargetMzWindows;
 import de.isas.lipidomics.transitionextractor.TransitionSpecification;
 import de.isas.lipidomics.transitionextractor.MsUtils;
+import de.isas.lipidomics.transitionextractor.MzRangeIndex;
+import de.isas.lipidomics.transitionextractor.PeakWindowClassifier;
+import de.isas.lipidomics.transitionextractor.ScalarPeakWindowClassifier;
+import de.isas.lipidomics.transitionextractor.SpectrumMatches;
+import de.isas.lipidomics.transitionextractor.services.output.RowWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +28,31 @@ import lombok.extern.slf4j.Slf4j;
  */
 @Slf4j
 public class LipidTargetFinder {
+
+    /**
+     * The columns following the scan columns of each line.
+     */
+    public static final List<String> TARGET_COLUMNS = Collections.
+            unmodifiableList(Arrays.asList("foundMass", "foundMassRange[ppm]",
+                    "foundMassLowerBound", "foundMassUpperBound",
+                    "foundMassError[ppm]", "foundIntensity",
+                    "scanRelativeIntensity", "calculatedMass", "species",
+                    "precursorAdduct", "fragment", "adduct"));
+
+    private final PeakWindowClassifier peakWindowClassifier;
+
+    public LipidTargetFinder() {
+        this(new ScalarPeakWindowClassifier());
+    }
+
+    /**
+     * @param peakWindowClassifier finds the unsorted peaks of a spectrum
+     * within the maximum mz range of a specification.
+     */
+    public LipidTargetFinder(PeakWindowClassifier peakWindowClassifier) {
+        this.peakWindowClassifier = peakWindowClassifier;
+    }
+
     /**
      * Applies the mz search window to the given mzValue. If the mzValue is within one of the search ranges, starting from the narrowest one,
      * the intensity is checked to be greater than zero. Information will be added to the provided line, if a match has been identified.
@@ -37,16 +70,20 @@ public class LipidTargetFinder {
         scanDefaults.put("instrument", lts.getInstrument());
         scanDefaults.put("group", lts.getGroup());
         for (Integer ppm : lts.getIonTargetMzRanges().navigableKeySet()) {
-            log.debug(String.format(
-                            "Checking at ppm=%d",
-                            ppm));
+            if (log.isDebugEnabled()) {
+                log.debug(String.format(
+                        "Checking at ppm=%d",
+                        ppm));
+            }
             Range<Double> r = lts.getIonTargetMzRanges().get(ppm);
             if (r.contains(mzValue)) {
                 if (intensityValue > 0) {
-                    log.debug(String.format(
-                                    "Found ion at %.8f within +/- %d ppm in m/z window [%.8f, %.8f] with intensity %.8f",
-                                    mzValue, ppm, r.lowerEndpoint(), r.
-                                    upperEndpoint(), intensityValue));
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format(
+                                "Found ion at %.8f within +/- %d ppm in m/z window [%.8f, %.8f] with intensity %.8f",
+                                mzValue, ppm, r.lowerEndpoint(), r.
+                                upperEndpoint(), intensityValue));
+                    }
                     targets.add(
                             IonAnnotation.builder().
                                     detectedMz(
@@ -61,10 +98,10 @@ public class LipidTargetFinder {
                         // stop processing, we have a winner
                         break;
                     }
-                } else {
+                } else if (log.isDebugEnabled()) {
                     log.debug(String.format(
-                                    "Skipping mass with 0 intensity at m/z %.8f",
-                                    mzValue));
+                            "Skipping mass with 0 intensity at m/z %.8f",
+                            mzValue));
                 }
             }
         }
@@ -109,4 +146,207 @@ public class LipidTargetFinder {
         }
         return results;
     }
+
+    /**
+     * Primitive variant of {@link #apply} for a whole spectrum. Adds a row to
+     * matches for every window of a specification containing a peak, starting
+     * from the narrowest one, and a row with window -1 for every peak in the
+     * maximum mz range of a specification that no window matched. Peaks with
+     * zero intensity never match a window. The rows are ordered by
+     * specification, then by peak.
+     *
+     * Sorted peaks are found by a binary search for each specification,
+     * unless the spectrum has far fewer peaks than there are specifications.
+     * Then each peak is looked up in the mz range index in a single pass over
+     * the spectrum, and the rows are sorted by specification afterwards.
+     * Unsorted peaks are looked up in the index as well, unless the group has
+     * so few specifications that the peak window classifier can compare all
+     * peaks with each of them in fewer steps.
+     *
+     * @param specs the transition specifications.
+     * @param mzRangeIndex the index over the maximum mz ranges of specs.
+     * @param mzValues the mz values of the spectrum.
+     * @param intensityValues the intensity values of the spectrum.
+     * @param peakCount the number of valid peaks.
+     * @param sortedMzValues true, if the mz values are sorted ascending.
+     * @param stopAtSmallestPpm
+     * @param matches the reusable buffer for the rows, cleared before matching.
+     * @return matches.
+     */
+    public SpectrumMatches match(List<TransitionSpecification> specs,
+            MzRangeIndex mzRangeIndex, double[] mzValues,
+            float[] intensityValues, int peakCount, boolean sortedMzValues,
+            boolean stopAtSmallestPpm, SpectrumMatches matches) {
+        matches.clear();
+        if (isMzRangeIndexCheaper(specs.size(), mzRangeIndex, peakCount,
+                sortedMzValues)) {
+            matchMzRangeIndex(specs, mzRangeIndex, mzValues, intensityValues,
+                    peakCount, sortedMzValues, stopAtSmallestPpm, matches);
+        } else {
+            for (int i = 0; i < specs.size(); i++) {
+                matchSpecification(specs.get(i), i, mzValues, intensityValues,
+                        peakCount, sortedMzValues, stopAtSmallestPpm, matches);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns true, if looking up each peak in the mz range index is expected
+     * to take fewer steps than searching the peaks of each specification.
+     * Unsorted peaks are compared linearly with each specification.
+     */
+    private boolean isMzRangeIndexCheaper(int nSpecs, MzRangeIndex mzRangeIndex,
+            int peakCount, boolean sortedMzValues) {
+        double lookupSteps = log2(mzRangeIndex.getSlots());
+        if (sortedMzValues) {
+            return (double) peakCount * lookupSteps < nSpecs * log2(peakCount);
+        }
+        return lookupSteps < (double) nSpecs / peakWindowClassifier.getLanes();
+    }
+
+    private double log2(int value) {
+        return Math.log(value + 1) / Math.log(2);
+    }
+
+    private void matchMzRangeIndex(List<TransitionSpecification> specs,
+            MzRangeIndex mzRangeIndex, double[] mzValues,
+            float[] intensityValues, int peakCount, boolean sortedMzValues,
+            boolean stopAtSmallestPpm, SpectrumMatches matches) {
+        int from = 0;
+        int to = peakCount;
+        if (sortedMzValues) {
+            // only peaks within the span of all ranges
+            from = MsUtils.lowerBoundIndex(mzValues, peakCount, mzRangeIndex.
+                    getLowerBound());
+            to = MsUtils.lowerBoundIndex(mzValues, peakCount, Math.nextUp(
+                    mzRangeIndex.getUpperBound()));
+        }
+        long peaksExamined = 0;
+        long inRangeHits = 0;
+        for (int j = from; j < to; j++) {
+            int slot = mzRangeIndex.getSlot(mzValues[j]);
+            int slotStart = mzRangeIndex.getSlotStart(slot);
+            int slotEnd = mzRangeIndex.getSlotEnd(slot);
+            // the peak is compared with every specification of its slot
+            peaksExamined += Math.max(1, slotEnd - slotStart);
+            inRangeHits += slotEnd - slotStart;
+            for (int k = slotStart; k < slotEnd; k++) {
+                int specIndex = mzRangeIndex.getRangeIndex(k);
+                matchPeak(specs.get(specIndex), specIndex, mzValues[j],
+                        intensityValues[j], stopAtSmallestPpm, matches);
+            }
+        }
+        matches.sortBySpecIndex(specs.size());
+        matches.addCounts(peaksExamined, inRangeHits);
+    }
+
+    private void matchSpecification(TransitionSpecification spec,
+            int specIndex, double[] mzValues, float[] intensityValues,
+            int peakCount, boolean sortedMzValues, boolean stopAtSmallestPpm,
+            SpectrumMatches matches) {
+        if (log.isDebugEnabled()) {
+            log.debug(String.format(
+                    "Applying lipid target specification '%s'",
+                    spec));
+        }
+        double lowerEndpoint = spec.getMaximumMzRange().
+                lowerEndpoint();
+        double upperEndpoint = spec.getMaximumMzRange().
+                upperEndpoint();
+        if (!sortedMzValues) {
+            int[] hits = matches.getHitBuffer(peakCount);
+            int nHits = peakWindowClassifier.findInRange(mzValues, 0,
+                    peakCount, lowerEndpoint, upperEndpoint, hits);
+            for (int k = 0; k < nHits; k++) {
+                matchPeak(spec, specIndex, mzValues[hits[k]],
+                        intensityValues[hits[k]], stopAtSmallestPpm, matches);
+            }
+            matches.addCounts(peakCount, nHits);
+            return;
+        }
+        // skip all peaks below the maximum m/z range of this spec
+        int start = MsUtils.lowerBoundIndex(mzValues, peakCount,
+                lowerEndpoint);
+        long inRangeHits = 0;
+        int j = start;
+        // all peaks after the first one above the maximum m/z range are above it
+        for (; j < peakCount && mzValues[j] <= upperEndpoint; j++) {
+            inRangeHits++;
+            matchPeak(spec, specIndex, mzValues[j], intensityValues[j],
+                    stopAtSmallestPpm, matches);
+        }
+        matches.addCounts(j - start, inRangeHits);
+    }
+
+    /**
+     * Adds the rows of a peak within the maximum mz range of the
+     * specification.
+     */
+    private void matchPeak(TransitionSpecification spec, int specIndex,
+            double mzValue, float intensityValue, boolean stopAtSmallestPpm,
+            SpectrumMatches matches) {
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Checking m/z %.8f", mzValue));
+        }
+        IonTargetMzWindows windows = spec.getIonTargetMzWindows();
+        boolean found = false;
+        if (intensityValue > 0) {
+            for (int i = 0; i < windows.size(); i++) {
+                if (windows.contains(i, mzValue)) {
+                    matches.add(specIndex, i, mzValue, intensityValue);
+                    found = true;
+                    if (stopAtSmallestPpm) {
+                        // stop processing, we have a winner
+                        break;
+                    }
+                }
+            }
+        } else if (log.isDebugEnabled()) {
+            log.debug(String.format(
+                    "Skipping mass with 0 intensity at m/z %.8f",
+                    mzValue));
+        }
+        if (!found) {
+            matches.add(specIndex, -1, mzValue, intensityValue);
+        }
+    }
+
+    /**
+     * Appends the values of the {@link #TARGET_COLUMNS} of one row to the given
+     * row writer. The values are formatted exactly like the ones returned by
+     * {@link #apply}.
+     *
+     * @param row
+     * @param lts
+     * @param window the index of the matched ion target mz window, or -1 for
+     * the row reporting that no ion was found.
+     * @param mzValue
+     * @param intensityValue
+     * @param scanTotalIntensityValue
+     */
+    public void writeTargetColumns(RowWriter row,
+            TransitionSpecification lts, int window, double mzValue,
+            float intensityValue, float scanTotalIntensityValue) {
+        if (window >= 0) {
+            IonTargetMzWindows windows = lts.getIonTargetMzWindows();
+            row.append(mzValue);
+            row.append(windows.getPpm(window));
+            row.append(windows.getLowerBound(window));
+            row.append(windows.getUpperBound(window));
+            row.append(MsUtils.massErrorPpm(lts.getCalculatedMass(), mzValue));
+            row.append(intensityValue);
+            row.append(intensityValue / scanTotalIntensityValue);
+        } else {
+            for (int i = 0; i < 7; i++) {
+                row.appendEmpty();
+            }
+        }
+        row.append(lts.getCalculatedMass().
+                doubleValue());
+        row.append(lts.getPrecursorName());
+        row.append(lts.getPrecursorAdduct());
+        row.append(lts.getFragmentName());
+        row.append(lts.getFragmentAdduct());
+    }
 }
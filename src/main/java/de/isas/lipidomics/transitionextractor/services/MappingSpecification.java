@@ -3,6 +3,7 @@
  */
 package de.isas.lipidomics.transitionextractor.services;
 
+import de.isas.lipidomics.transitionextractor.ScanFilter;
 import java.nio.file.Path;
 import java.util.List;
 import lombok.Builder;
@@ -24,5 +25,6 @@ public class MappingSpecification {
     private List<Integer> ppms;
     private String group;
     private Integer minDataPoints;
+    private ScanFilter scanFilter;
 
 }
@@ -12,6 +12,8 @@ import java.util.Arrays;
 public enum TransitionMappingColumnKeys {
     /*
 MoleculeGroup   PrecursorAdduct File    PPMS    Group   Variant MinDataPoints
+optional scan filter columns:
+MinCollisionEnergy  MaxCollisionEnergy  MinRetentionTime    MaxRetentionTime    Polarity    MsFunction
     */
     INSTRUMENT("Instrument"),
     MOLECULE_GROUP("MoleculeGroup"),
@@ -20,7 +22,13 @@ MoleculeGroup   PrecursorAdduct File    PPMS    Group   Variant MinDataPoints
     FILE("File"),
     PPMS("PPMS"),
     GROUP("Group"),
-    MIN_DATA_POINTS("MinDataPoints");
+    MIN_DATA_POINTS("MinDataPoints"),
+    MIN_COLLISION_ENERGY("MinCollisionEnergy"),
+    MAX_COLLISION_ENERGY("MaxCollisionEnergy"),
+    MIN_RETENTION_TIME("MinRetentionTime"),
+    MAX_RETENTION_TIME("MaxRetentionTime"),
+    POLARITY("Polarity"),
+    MS_FUNCTION("MsFunction");
 
     private final String name;
 
@@ -4,6 +4,7 @@
 package de.isas.lipidomics.transitionextractor.services.mapping;
 
 import de.isas.lipidomics.transitionextractor.ConfigKey;
+import de.isas.lipidomics.transitionextractor.ScanFilter;
 import de.isas.lipidomics.transitionextractor.services.MappingSpecification;
 import de.isas.lipidomics.transitionextractor.services.MappingUtils;
 import java.io.IOException;
@@ -64,7 +65,9 @@ public class TransitionMappingParser {
                     ).
                     ppms(pickPpms(lineElements)).
                     group(pick(TransitionMappingColumnKeys.GROUP, lineElements)).
-                    minDataPoints(Integer.parseInt(pickOrDefault(TransitionMappingColumnKeys.MIN_DATA_POINTS, lineElements, "50"))).
+                    minDataPoints(pickInteger(
+                        TransitionMappingColumnKeys.MIN_DATA_POINTS, lineElements)).
+                    scanFilter(pickScanFilter(lineElements)).
                     build();
                 ConfigKey key = new ConfigKey(lts.getMoleculeGroup(), lts.
                     getPrecursorName(), lts.getPrecursorAdduct());
@@ -84,6 +87,42 @@ public class TransitionMappingParser {
         return files;
     }
 
+    private ScanFilter pickScanFilter(
+        Map<TransitionMappingColumnKeys, String> lineElements) {
+        ScanFilter scanFilter = new ScanFilter();
+        scanFilter.setMinCollisionEnergy(pickDouble(
+            TransitionMappingColumnKeys.MIN_COLLISION_ENERGY, lineElements));
+        scanFilter.setMaxCollisionEnergy(pickDouble(
+            TransitionMappingColumnKeys.MAX_COLLISION_ENERGY, lineElements));
+        scanFilter.setMinRetentionTime(pickDouble(
+            TransitionMappingColumnKeys.MIN_RETENTION_TIME, lineElements));
+        scanFilter.setMaxRetentionTime(pickDouble(
+            TransitionMappingColumnKeys.MAX_RETENTION_TIME, lineElements));
+        scanFilter.setPolarity(pickOptional(TransitionMappingColumnKeys.POLARITY,
+            lineElements));
+        scanFilter.setMsFunction(pickOptional(
+            TransitionMappingColumnKeys.MS_FUNCTION, lineElements));
+        return scanFilter.isEmpty() ? null : scanFilter;
+    }
+
+    private Integer pickInteger(TransitionMappingColumnKeys key,
+        Map<TransitionMappingColumnKeys, String> lineElements) {
+        String value = pickOptional(key, lineElements);
+        return value == null ? null : Integer.valueOf(value);
+    }
+
+    private Double pickDouble(TransitionMappingColumnKeys key,
+        Map<TransitionMappingColumnKeys, String> lineElements) {
+        String value = pickOptional(key, lineElements);
+        return value == null ? null : Double.valueOf(value);
+    }
+
+    private String pickOptional(TransitionMappingColumnKeys key,
+        Map<TransitionMappingColumnKeys, String> lineElements) {
+        String value = lineElements.get(key);
+        return value == null || value.isEmpty() ? null : value;
+    }
+
     private String pickOrDefault(TransitionMappingColumnKeys key,
             Map<TransitionMappingColumnKeys, String> lineElements, String defaultValue) {
         return lineElements.containsKey(key)?lineElements.get(key):defaultValue;
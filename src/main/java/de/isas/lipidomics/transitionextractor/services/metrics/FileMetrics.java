@@ -0,0 +1,52 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor.services.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+
+/**
+ * Counters and timers of reading one mzML file. The read time covers parsing,
+ * peak decoding and the matching of all groups, the parse time is what
+ * remains after subtracting the decoding and matching times.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Getter
+public class FileMetrics {
+
+    private final String file;
+    private final LongAdder scansRead = new LongAdder();
+    private final LongAdder ms2Scans = new LongAdder();
+    private final LongAdder ms2ScansKept = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder matchNanos = new LongAdder();
+
+    FileMetrics(String file) {
+        this.file = file;
+    }
+
+    public long getParseNanos() {
+        return Math.max(0, readNanos.sum() - decodeNanos.sum() - matchNanos.
+                sum());
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("file", file);
+        map.put("scansRead", scansRead.sum());
+        map.put("ms2Scans", ms2Scans.sum());
+        map.put("ms2ScansKept", ms2ScansKept.sum());
+        map.put("readMillis", TimeUnit.NANOSECONDS.toMillis(readNanos.sum()));
+        map.put("parseMillis", TimeUnit.NANOSECONDS.toMillis(getParseNanos()));
+        map.put("decodeMillis", TimeUnit.NANOSECONDS.toMillis(decodeNanos.
+                sum()));
+        map.put("matchMillis", TimeUnit.NANOSECONDS.toMillis(matchNanos.sum()));
+        return map;
+    }
+}
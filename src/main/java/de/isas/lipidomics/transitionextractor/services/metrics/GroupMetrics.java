@@ -0,0 +1,97 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor.services.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Counters and timers of one transition specification group. The match time
+ * includes the time spent writing rows, which is also reported separately.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Getter
+public class GroupMetrics {
+
+    public static final String EXTRACTED = "extracted";
+    public static final String REUSED = "reused";
+    public static final String FAILED = "failed";
+    public static final String TRAINED = "trained";
+    public static final String SKIPPED = "skipped";
+    public static final String INSUFFICIENT_DATA = "insufficientData";
+
+    private final String file;
+    private final String group;
+    private final String precursor;
+    private final LongAdder ms2ScansKept = new LongAdder();
+    private final LongAdder peaksExamined = new LongAdder();
+    private final LongAdder inRangeHits = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder matchNanos = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder rWallNanos = new LongAdder();
+    @Setter
+    private volatile String extraction = null;
+    @Setter
+    private volatile String model = null;
+    @Setter
+    private volatile Integer rExitCode = null;
+    /**
+     * The largest number of matched rows of a single fragment, an upper bound
+     * of the data points flipr can use for any fragment model of the group.
+     * Null, if the group was not extracted in this run.
+     */
+    private volatile Long maxFragmentDataPoints = null;
+    private long[] fragmentDataPoints = null;
+
+    GroupMetrics(String file, String group, String precursor) {
+        this.file = file;
+        this.group = group;
+        this.precursor = precursor;
+    }
+
+    /**
+     * Adds the matched rows per fragment of one extraction of the group, or of
+     * one scan chunk of it, and updates the maximum.
+     *
+     * @param dataPoints the matched rows per transition specification.
+     */
+    public synchronized void addFragmentDataPoints(long[] dataPoints) {
+        if (fragmentDataPoints == null) {
+            fragmentDataPoints = new long[dataPoints.length];
+        }
+        long max = 0;
+        for (int i = 0; i < dataPoints.length; i++) {
+            fragmentDataPoints[i] += dataPoints[i];
+            max = Math.max(max, fragmentDataPoints[i]);
+        }
+        maxFragmentDataPoints = max;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("file", file);
+        map.put("group", group);
+        map.put("precursor", precursor);
+        map.put("extraction", extraction);
+        map.put("ms2ScansKept", ms2ScansKept.sum());
+        map.put("peaksExamined", peaksExamined.sum());
+        map.put("inRangeHits", inRangeHits.sum());
+        map.put("rowsWritten", rowsWritten.sum());
+        map.put("bytesWritten", bytesWritten.sum());
+        map.put("matchMillis", TimeUnit.NANOSECONDS.toMillis(matchNanos.sum()));
+        map.put("writeMillis", TimeUnit.NANOSECONDS.toMillis(writeNanos.sum()));
+        map.put("maxFragmentDataPoints", maxFragmentDataPoints);
+        map.put("model", model);
+        map.put("rWallMillis", TimeUnit.NANOSECONDS.toMillis(rWallNanos.sum()));
+        map.put("rExitCode", rExitCode);
+        return map;
+    }
+}
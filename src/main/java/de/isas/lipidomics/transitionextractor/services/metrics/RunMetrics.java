@@ -0,0 +1,311 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor.services.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import de.isas.lipidomics.transitionextractor.TransitionSpecificationGroup;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Counters and timers of a conversion run, per mzML file, per transition
+ * specification group and in aggregate. The metrics are thread safe and may be
+ * read while the run is in progress.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class RunMetrics implements RunMetricsMXBean {
+
+    public static final String JSON_REPORT_FILE = "run-metrics.json";
+    public static final String CSV_REPORT_FILE = "run-metrics.csv";
+
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos = -1;
+    private final ConcurrentMap<String, FileMetrics> files = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, GroupMetrics> groups = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the metrics of the given mzML file.
+     *
+     * @param mzMlFile the mzML file.
+     * @return the file metrics.
+     */
+    public FileMetrics getFileMetrics(Path mzMlFile) {
+        String file = mzMlFile.toString();
+        return files.computeIfAbsent(file, (t) -> new FileMetrics(t));
+    }
+
+    /**
+     * Returns the metrics of the given group.
+     *
+     * @param group the transition specification group.
+     * @return the group metrics.
+     */
+    public GroupMetrics getGroupMetrics(TransitionSpecificationGroup group) {
+        String file = String.valueOf(group.getTargetFile());
+        String configKey = group.getConfigKey().
+                toString();
+        return groups.computeIfAbsent(file + "|" + configKey,
+                (t) -> new GroupMetrics(file, configKey, group.
+                        getPrecursorName() + group.getPrecursorAdduct()));
+    }
+
+    /**
+     * Stops the run's elapsed time.
+     */
+    public void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        long end = endNanos < 0 ? System.nanoTime() : endNanos;
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+
+    @Override
+    public int getFilesRead() {
+        return files.size();
+    }
+
+    @Override
+    public long getScansRead() {
+        return sumFiles(FileMetrics::getScansRead);
+    }
+
+    @Override
+    public long getMs2Scans() {
+        return sumFiles(FileMetrics::getMs2Scans);
+    }
+
+    @Override
+    public long getMs2ScansKept() {
+        return sumFiles(FileMetrics::getMs2ScansKept);
+    }
+
+    @Override
+    public long getPeaksExamined() {
+        return sumGroups(GroupMetrics::getPeaksExamined);
+    }
+
+    @Override
+    public long getInRangeHits() {
+        return sumGroups(GroupMetrics::getInRangeHits);
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return sumGroups(GroupMetrics::getRowsWritten);
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return sumGroups(GroupMetrics::getBytesWritten);
+    }
+
+    @Override
+    public long getParseMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(files.values().
+                stream().
+                mapToLong(FileMetrics::getParseNanos).
+                sum());
+    }
+
+    @Override
+    public long getDecodeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(sumFiles(
+                FileMetrics::getDecodeNanos));
+    }
+
+    @Override
+    public long getMatchMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(sumGroups(
+                GroupMetrics::getMatchNanos));
+    }
+
+    @Override
+    public long getWriteMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(sumGroups(
+                GroupMetrics::getWriteNanos));
+    }
+
+    @Override
+    public long getRWallMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(sumGroups(
+                GroupMetrics::getRWallNanos));
+    }
+
+    @Override
+    public int getGroups() {
+        return groups.size();
+    }
+
+    @Override
+    public int getGroupsExtracted() {
+        return countGroups(GroupMetrics::getExtraction, GroupMetrics.EXTRACTED);
+    }
+
+    @Override
+    public int getGroupsModelled() {
+        return countGroups(GroupMetrics::getModel, GroupMetrics.TRAINED);
+    }
+
+    @Override
+    public int getGroupsWithInsufficientData() {
+        return countGroups(GroupMetrics::getModel,
+                GroupMetrics.INSUFFICIENT_DATA);
+    }
+
+    @Override
+    public Map<String, Integer> getRExitCodes() {
+        Map<String, Integer> exitCodes = new TreeMap<>();
+        for (GroupMetrics group : groups.values()) {
+            if (group.getRExitCode() != null) {
+                exitCodes.merge(group.getRExitCode().
+                        toString(), 1, Integer::sum);
+            }
+        }
+        return exitCodes;
+    }
+
+    private long sumFiles(Function<FileMetrics, LongAdder> counter) {
+        return files.values().
+                stream().
+                mapToLong((t) -> counter.apply(t).
+                        sum()).
+                sum();
+    }
+
+    private long sumGroups(Function<GroupMetrics, LongAdder> counter) {
+        return groups.values().
+                stream().
+                mapToLong((t) -> counter.apply(t).
+                        sum()).
+                sum();
+    }
+
+    private int countGroups(Function<GroupMetrics, String> status,
+            String value) {
+        return (int) groups.values().
+                stream().
+                filter((t) -> value.equals(status.apply(t))).
+                count();
+    }
+
+    /**
+     * Returns a snapshot of the aggregated metrics.
+     *
+     * @return the aggregated metrics.
+     */
+    public Map<String, Object> getTotals() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("elapsedMillis", getElapsedMillis());
+        map.put("filesRead", getFilesRead());
+        map.put("scansRead", getScansRead());
+        map.put("ms2Scans", getMs2Scans());
+        map.put("ms2ScansKept", getMs2ScansKept());
+        map.put("peaksExamined", getPeaksExamined());
+        map.put("inRangeHits", getInRangeHits());
+        map.put("rowsWritten", getRowsWritten());
+        map.put("bytesWritten", getBytesWritten());
+        map.put("parseMillis", getParseMillis());
+        map.put("decodeMillis", getDecodeMillis());
+        map.put("matchMillis", getMatchMillis());
+        map.put("writeMillis", getWriteMillis());
+        map.put("rWallMillis", getRWallMillis());
+        map.put("groups", getGroups());
+        map.put("groupsExtracted", getGroupsExtracted());
+        map.put("groupsModelled", getGroupsModelled());
+        map.put("groupsWithInsufficientData", getGroupsWithInsufficientData());
+        map.put("rExitCodes", getRExitCodes());
+        return map;
+    }
+
+    private static <T> List<Map<String, Object>> toMaps(Collection<T> values,
+            Function<T, Map<String, Object>> toMap) {
+        List<Map<String, Object>> maps = new ArrayList<>();
+        for (T value : values) {
+            maps.add(toMap.apply(value));
+        }
+        maps.sort((o1, o2) -> (o1.get("file") + "|" + Objects.toString(o1.
+                get("group"), "")).compareTo(o2.get("file") + "|" + Objects.
+                toString(o2.get("group"), "")));
+        return maps;
+    }
+
+    /**
+     * Writes the report as JSON and CSV into the given directory. The CSV file
+     * has one row per file, one row per group and a final row with the
+     * aggregated metrics, distinguished by the level column.
+     *
+     * @param outputDirPath the output directory.
+     * @throws IOException if the reports can not be written.
+     */
+    public void writeReport(Path outputDirPath) throws IOException {
+        Map<String, Object> total = getTotals();
+        List<Map<String, Object>> fileMaps = toMaps(files.values(),
+                FileMetrics::toMap);
+        List<Map<String, Object>> groupMaps = toMaps(groups.values(),
+                GroupMetrics::toMap);
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("total", total);
+        report.put("files", fileMaps);
+        report.put("groups", groupMaps);
+        new ObjectMapper().
+                enable(SerializationFeature.INDENT_OUTPUT).
+                writeValue(outputDirPath.resolve(JSON_REPORT_FILE).
+                        toFile(), report);
+        List<Map<String, Object>> rows = new ArrayList<>();
+        addRows(rows, "file", fileMaps);
+        addRows(rows, "group", groupMaps);
+        // exit codes are reported per group
+        total.remove("rExitCodes");
+        addRows(rows, "total", Collections.singletonList(total));
+        Set<String> columns = new LinkedHashSet<>();
+        rows.forEach((row) -> columns.addAll(row.keySet()));
+        CsvSchema.Builder schema = CsvSchema.builder().
+                setUseHeader(true);
+        columns.forEach(schema::addColumn);
+        CsvMapper csvMapper = new CsvMapper();
+        try (Writer writer = Files.newBufferedWriter(outputDirPath.resolve(
+                CSV_REPORT_FILE), StandardCharsets.UTF_8);
+                SequenceWriter sequenceWriter = csvMapper.writerFor(Map.class).
+                        with(schema.build()).
+                        writeValues(writer)) {
+            sequenceWriter.writeAll(rows);
+        }
+    }
+
+    private static void addRows(List<Map<String, Object>> rows, String level,
+            List<Map<String, Object>> values) {
+        for (Map<String, Object> value : values) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("level", level);
+            row.putAll(value);
+            rows.add(row);
+        }
+    }
+}
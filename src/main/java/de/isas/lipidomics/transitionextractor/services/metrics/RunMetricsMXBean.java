@@ -0,0 +1,52 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor.services.metrics;
+
+import java.util.Map;
+
+/**
+ * Aggregated run metrics, as exposed through JMX.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public interface RunMetricsMXBean {
+
+    long getElapsedMillis();
+
+    int getFilesRead();
+
+    long getScansRead();
+
+    long getMs2Scans();
+
+    long getMs2ScansKept();
+
+    long getPeaksExamined();
+
+    long getInRangeHits();
+
+    long getRowsWritten();
+
+    long getBytesWritten();
+
+    long getParseMillis();
+
+    long getDecodeMillis();
+
+    long getMatchMillis();
+
+    long getWriteMillis();
+
+    long getRWallMillis();
+
+    int getGroups();
+
+    int getGroupsExtracted();
+
+    int getGroupsModelled();
+
+    int getGroupsWithInsufficientData();
+
+    Map<String, Integer> getRExitCodes();
+}
@@ -0,0 +1,25 @@
+/*
+ * 
+ */
+package de.isas.lipidomics.transitionextractor.services.output;
+
+/**
+ * The value type of a column of the output schema.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public enum ColumnType {
+    /**
+     * Strings with few distinct values, dictionary encoded in the columnar
+     * output.
+     */
+    STRING,
+    /**
+     * Strings that are mostly unique, such as scan ids, stored without a
+     * dictionary in the columnar output.
+     */
+    TEXT,
+    DOUBLE,
+    FLOAT,
+    INT;
+}
@@ -0,0 +1,250 @@
+/*
+ * 
+ */
+package de.isas.lipidomics.transitionextractor.services.output;
+
+import static de.isas.lipidomics.transitionextractor.services.output.ColumnarRowWriter.MAGIC;
+import static de.isas.lipidomics.transitionextractor.services.output.ColumnarRowWriter.TYPE_DOUBLE;
+import static de.isas.lipidomics.transitionextractor.services.output.ColumnarRowWriter.TYPE_FLOAT;
+import static de.isas.lipidomics.transitionextractor.services.output.ColumnarRowWriter.TYPE_INT;
+import static de.isas.lipidomics.transitionextractor.services.output.ColumnarRowWriter.TYPE_NULL;
+import static de.isas.lipidomics.transitionextractor.services.output.ColumnarRowWriter.TYPE_STRING;
+import static de.isas.lipidomics.transitionextractor.services.output.ColumnarRowWriter.TYPE_TEXT;
+import static de.isas.lipidomics.transitionextractor.services.output.ColumnarRowWriter.VERSION;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads files written by {@link ColumnarRowWriter} row by row.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class ColumnarRowReader implements Closeable {
+
+    private final DataInputStream in;
+    private final List<String> columnNames;
+    private final List<List<String>> dictionaries;
+    private final byte[] types;
+    private final BitSet[] nulls;
+    private final Object[] values;
+    private int rows = 0;
+    private int row = -1;
+    private boolean finished = false;
+
+    public ColumnarRowReader(InputStream inputStream) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(inputStream));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException("Not a fipc file, unexpected magic bytes: " + Arrays.
+                    toString(magic));
+        }
+        int version = in.readInt();
+        // version 2 only adds the text column type
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported fipc version: " + version);
+        }
+        int columnCount = in.readInt();
+        List<String> names = new ArrayList<>(columnCount);
+        this.dictionaries = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            names.add(readString(in));
+            dictionaries.add(new ArrayList<>());
+        }
+        this.columnNames = Collections.unmodifiableList(names);
+        this.types = new byte[columnCount];
+        this.nulls = new BitSet[columnCount];
+        this.values = new Object[columnCount];
+    }
+
+    public List<String> getColumns() {
+        return columnNames;
+    }
+
+    /**
+     * Advances to the next row.
+     *
+     * @return true, if there is another row, false at the end of the file.
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        if (finished) {
+            return false;
+        }
+        row++;
+        if (row >= rows) {
+            rows = in.readInt();
+            if (rows == 0) {
+                finished = true;
+                return false;
+            }
+            for (int i = 0; i < types.length; i++) {
+                readChunk(i);
+            }
+            row = 0;
+        }
+        return true;
+    }
+
+    private void readChunk(int column) throws IOException {
+        byte type = in.readByte();
+        byte[] compressed = new byte[in.readInt()];
+        in.readFully(compressed);
+        DataInputStream chunk = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(compressed)),
+                65536));
+        byte[] nullBits = new byte[chunk.readInt()];
+        chunk.readFully(nullBits);
+        nulls[column] = BitSet.valueOf(nullBits);
+        types[column] = type;
+        switch (type) {
+            case TYPE_STRING:
+                List<String> dictionary = dictionaries.get(column);
+                int newEntries = chunk.readInt();
+                for (int i = 0; i < newEntries; i++) {
+                    dictionary.add(readString(chunk));
+                }
+                int[] codes = new int[rows];
+                for (int i = 0; i < rows; i++) {
+                    codes[i] = chunk.readInt();
+                }
+                values[column] = codes;
+                break;
+            case TYPE_TEXT:
+                String[] texts = new String[rows];
+                for (int i = 0; i < rows; i++) {
+                    if (!nulls[column].get(i)) {
+                        texts[i] = readString(chunk);
+                    }
+                }
+                values[column] = texts;
+                break;
+            case TYPE_DOUBLE:
+                double[] doubles = new double[rows];
+                for (int i = 0; i < rows; i++) {
+                    doubles[i] = chunk.readDouble();
+                }
+                values[column] = doubles;
+                break;
+            case TYPE_FLOAT:
+                float[] floats = new float[rows];
+                for (int i = 0; i < rows; i++) {
+                    floats[i] = chunk.readFloat();
+                }
+                values[column] = floats;
+                break;
+            case TYPE_INT:
+                int[] ints = new int[rows];
+                for (int i = 0; i < rows; i++) {
+                    ints[i] = chunk.readInt();
+                }
+                values[column] = ints;
+                break;
+            case TYPE_NULL:
+                values[column] = null;
+                break;
+            default:
+                throw new IOException("Unknown column type " + type + " for column " + columnNames.
+                        get(column));
+        }
+    }
+
+    public boolean isNull(int column) {
+        return types[column] == TYPE_NULL || nulls[column].get(row);
+    }
+
+    /**
+     * Returns the type the column is stored with in the current row group, or
+     * null, if all its values are empty.
+     *
+     * @param column the column index.
+     * @return the column type or null.
+     */
+    public ColumnType getType(int column) {
+        switch (types[column]) {
+            case TYPE_STRING:
+                return ColumnType.STRING;
+            case TYPE_TEXT:
+                return ColumnType.TEXT;
+            case TYPE_DOUBLE:
+                return ColumnType.DOUBLE;
+            case TYPE_FLOAT:
+                return ColumnType.FLOAT;
+            case TYPE_INT:
+                return ColumnType.INT;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the value of the column in the current row as a string, formatted
+     * like in the tab separated output, or null for an empty value.
+     *
+     * @param column the column index.
+     * @return the value or null.
+     */
+    public String getString(int column) {
+        if (isNull(column)) {
+            return null;
+        }
+        switch (types[column]) {
+            case TYPE_STRING:
+                return dictionaries.get(column).
+                        get(((int[]) values[column])[row]);
+            case TYPE_TEXT:
+                return ((String[]) values[column])[row];
+            case TYPE_DOUBLE:
+                return Double.toString(((double[]) values[column])[row]);
+            case TYPE_FLOAT:
+                return Float.toString(((float[]) values[column])[row]);
+            default:
+                return Integer.toString(((int[]) values[column])[row]);
+        }
+    }
+
+    /**
+     * Returns the numeric value of the column in the current row, or NaN for
+     * an empty value.
+     *
+     * @param column the column index.
+     * @return the value or NaN.
+     */
+    public double getDouble(int column) {
+        if (isNull(column)) {
+            return Double.NaN;
+        }
+        switch (types[column]) {
+            case TYPE_DOUBLE:
+                return ((double[]) values[column])[row];
+            case TYPE_FLOAT:
+                return ((float[]) values[column])[row];
+            case TYPE_INT:
+                return ((int[]) values[column])[row];
+            default:
+                return Double.parseDouble(getString(column));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
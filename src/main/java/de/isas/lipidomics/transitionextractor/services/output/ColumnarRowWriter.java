@@ -0,0 +1,387 @@
+/*
+ * 
+ */
+package de.isas.lipidomics.transitionextractor.services.output;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Row writer for the binary, columnar fipc format. Rows are buffered in row
+ * groups and written column by column. Each column chunk is deflate
+ * compressed. String columns are dictionary encoded, with one dictionary per
+ * column and file, text columns of mostly unique strings are stored without a
+ * dictionary, numeric columns are stored as native doubles, floats or ints. A
+ * column that receives both strings and numbers within one row group is stored
+ * as a string or text column for that row group. Empty values are recorded
+ * in a null bitmap. Use {@link ColumnarRowReader} to read the file.
+ *
+ * <pre>
+ * file      := "FIPC" version:int columnCount:int name:string* rowGroup* 0:int
+ * rowGroup  := rowCount:int chunk*
+ * chunk     := type:byte length:int deflate(nulls values)
+ * nulls     := length:int bitmap:byte*
+ * values    := STRING: newEntries:int entry:string* code:int*
+ *            | TEXT: string* (non-null rows only)
+ *            | DOUBLE: double* | FLOAT: float* | INT: int* | NULL: (none)
+ * string    := length:int utf8:byte*
+ * </pre>
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class ColumnarRowWriter implements RowWriter {
+
+    static final byte[] MAGIC = new byte[]{'F', 'I', 'P', 'C'};
+    static final int VERSION = 2;
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_STRING = 1;
+    static final byte TYPE_DOUBLE = 2;
+    static final byte TYPE_FLOAT = 3;
+    static final byte TYPE_INT = 4;
+    static final byte TYPE_TEXT = 5;
+
+    public static final int DEFAULT_ROW_GROUP_SIZE = 65536;
+
+    private final DataOutputStream out;
+    private final int rowGroupSize;
+    private final ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream();
+    private final Deflater deflater = new Deflater();
+    private Column[] columns = null;
+    private int rows = 0;
+    private int column = 0;
+
+    public ColumnarRowWriter(OutputStream outputStream) {
+        this(outputStream, DEFAULT_ROW_GROUP_SIZE);
+    }
+
+    public ColumnarRowWriter(OutputStream outputStream, int rowGroupSize) {
+        if (rowGroupSize < 1) {
+            throw new IllegalArgumentException(
+                    "Row group size must be at least 1, was: " + rowGroupSize);
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        this.rowGroupSize = rowGroupSize;
+    }
+
+    @Override
+    public void writeHeader(List<String> columnNames, List<ColumnType> types) throws IOException {
+        if (columns != null) {
+            throw new IllegalStateException("Header has already been written!");
+        }
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(columnNames.size());
+        for (String columnName : columnNames) {
+            writeString(out, columnName);
+        }
+        columns = new Column[columnNames.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new Column(rowGroupSize,
+                    types.get(i) == ColumnType.TEXT ? TYPE_TEXT : TYPE_STRING);
+        }
+    }
+
+    @Override
+    public void startRow() {
+        if (columns == null) {
+            throw new IllegalStateException(
+                    "Header must be written before the first row!");
+        }
+        column = 0;
+    }
+
+    private Column nextColumn() {
+        if (column >= columns.length) {
+            throw new IllegalStateException(
+                    "Row has more values than the " + columns.length + " columns of the header!");
+        }
+        return columns[column++];
+    }
+
+    @Override
+    public void append(String value) {
+        nextColumn().addString(rows, value);
+    }
+
+    @Override
+    public void append(double value) {
+        nextColumn().addDouble(rows, value);
+    }
+
+    @Override
+    public void append(float value) {
+        nextColumn().addFloat(rows, value);
+    }
+
+    @Override
+    public void append(int value) {
+        nextColumn().addInt(rows, value);
+    }
+
+    @Override
+    public void append(String text, double value) {
+        nextColumn().addDouble(rows, value);
+    }
+
+    @Override
+    public void append(String text, int value) {
+        nextColumn().addInt(rows, value);
+    }
+
+    @Override
+    public void appendEmpty() {
+        nextColumn().addNull(rows);
+    }
+
+    @Override
+    public void endRow() throws IOException {
+        if (column != columns.length) {
+            throw new IllegalStateException(
+                    "Row has " + column + " values, expected " + columns.length + "!");
+        }
+        rows++;
+        if (rows == rowGroupSize) {
+            writeRowGroup();
+        }
+    }
+
+    private void writeRowGroup() throws IOException {
+        out.writeInt(rows);
+        for (Column c : columns) {
+            chunkBytes.reset();
+            deflater.reset();
+            DeflaterOutputStream deflaterStream = new DeflaterOutputStream(
+                    chunkBytes, deflater);
+            DataOutputStream chunk = new DataOutputStream(
+                    new BufferedOutputStream(deflaterStream, 65536));
+            byte type = c.write(chunk, rows);
+            chunk.flush();
+            deflaterStream.finish();
+            out.writeByte(type);
+            out.writeInt(chunkBytes.size());
+            chunkBytes.writeTo(out);
+        }
+        rows = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (columns == null) {
+                writeHeader(Collections.emptyList());
+            }
+            if (rows > 0) {
+                writeRowGroup();
+            }
+            out.writeInt(0);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Buffers the values of one column for the current row group.
+     */
+    private static final class Column {
+
+        private final int capacity;
+        // TYPE_STRING or TYPE_TEXT
+        private final byte stringType;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final List<String> dictionaryValues = new ArrayList<>();
+        private int writtenDictionaryValues = 0;
+        private final BitSet nulls = new BitSet();
+        private byte type = TYPE_NULL;
+        private int[] codes;
+        private String[] texts;
+        private double[] doubles;
+        private float[] floats;
+        private int[] ints;
+
+        Column(int capacity, byte stringType) {
+            this.capacity = capacity;
+            this.stringType = stringType;
+        }
+
+        void addNull(int row) {
+            nulls.set(row);
+        }
+
+        void addString(int row, String value) {
+            if (value == null) {
+                addNull(row);
+                return;
+            }
+            if (type != stringType) {
+                convertToString(row);
+            }
+            setString(row, value);
+        }
+
+        void addDouble(int row, double value) {
+            if (useType(TYPE_DOUBLE, row)) {
+                doubles[row] = value;
+            } else {
+                setString(row, Double.toString(value));
+            }
+        }
+
+        void addFloat(int row, float value) {
+            if (useType(TYPE_FLOAT, row)) {
+                floats[row] = value;
+            } else {
+                setString(row, Float.toString(value));
+            }
+        }
+
+        void addInt(int row, int value) {
+            if (useType(TYPE_INT, row)) {
+                ints[row] = value;
+            } else {
+                setString(row, Integer.toString(value));
+            }
+        }
+
+        /**
+         * Switches an empty column to the given numeric type. Returns false, if
+         * the column has been converted to a string column instead.
+         */
+        private boolean useType(byte numericType, int row) {
+            if (type == numericType) {
+                return true;
+            }
+            if (type == TYPE_NULL) {
+                type = numericType;
+                switch (numericType) {
+                    case TYPE_DOUBLE:
+                        doubles = doubles == null ? new double[capacity] : doubles;
+                        break;
+                    case TYPE_FLOAT:
+                        floats = floats == null ? new float[capacity] : floats;
+                        break;
+                    default:
+                        ints = ints == null ? new int[capacity] : ints;
+                }
+                return true;
+            }
+            if (type != stringType) {
+                convertToString(row);
+            }
+            return false;
+        }
+
+        private void setString(int row, String value) {
+            if (stringType == TYPE_TEXT) {
+                texts[row] = value;
+            } else {
+                codes[row] = encode(value);
+            }
+        }
+
+        private int encode(String value) {
+            Integer code = dictionary.get(value);
+            if (code == null) {
+                code = dictionaryValues.size();
+                dictionary.put(value, code);
+                dictionaryValues.add(value);
+            }
+            return code;
+        }
+
+        /**
+         * Converts the values of the first rows of the row group to strings.
+         */
+        private void convertToString(int rows) {
+            if (stringType == TYPE_TEXT) {
+                texts = texts == null ? new String[capacity] : texts;
+            } else {
+                codes = codes == null ? new int[capacity] : codes;
+            }
+            for (int i = 0; i < rows; i++) {
+                if (nulls.get(i)) {
+                    continue;
+                }
+                switch (type) {
+                    case TYPE_DOUBLE:
+                        setString(i, Double.toString(doubles[i]));
+                        break;
+                    case TYPE_FLOAT:
+                        setString(i, Float.toString(floats[i]));
+                        break;
+                    case TYPE_INT:
+                        setString(i, Integer.toString(ints[i]));
+                        break;
+                    default:
+                    // no values
+                }
+            }
+            type = stringType;
+        }
+
+        byte write(DataOutputStream chunk, int rows) throws IOException {
+            byte[] nullBits = nulls.toByteArray();
+            chunk.writeInt(nullBits.length);
+            chunk.write(nullBits);
+            switch (type) {
+                case TYPE_STRING:
+                    chunk.writeInt(dictionaryValues.size() - writtenDictionaryValues);
+                    for (int i = writtenDictionaryValues; i < dictionaryValues.
+                            size(); i++) {
+                        writeString(chunk, dictionaryValues.get(i));
+                    }
+                    writtenDictionaryValues = dictionaryValues.size();
+                    for (int i = 0; i < rows; i++) {
+                        chunk.writeInt(codes[i]);
+                    }
+                    break;
+                case TYPE_TEXT:
+                    for (int i = 0; i < rows; i++) {
+                        if (!nulls.get(i)) {
+                            writeString(chunk, texts[i]);
+                        }
+                    }
+                    break;
+                case TYPE_DOUBLE:
+                    for (int i = 0; i < rows; i++) {
+                        chunk.writeDouble(doubles[i]);
+                    }
+                    break;
+                case TYPE_FLOAT:
+                    for (int i = 0; i < rows; i++) {
+                        chunk.writeFloat(floats[i]);
+                    }
+                    break;
+                case TYPE_INT:
+                    for (int i = 0; i < rows; i++) {
+                        chunk.writeInt(ints[i]);
+                    }
+                    break;
+                default:
+                // all values are null
+            }
+            byte writtenType = type;
+            nulls.clear();
+            type = TYPE_NULL;
+            return writtenType;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * 
+ */
+package de.isas.lipidomics.transitionextractor.services.output;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes the same rows to several row writers.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class CompositeRowWriter implements RowWriter {
+
+    private final RowWriter[] rowWriters;
+
+    public CompositeRowWriter(List<RowWriter> rowWriters) {
+        this.rowWriters = rowWriters.toArray(new RowWriter[rowWriters.size()]);
+    }
+
+    @Override
+    public void writeHeader(List<String> columns, List<ColumnType> types) throws IOException {
+        for (RowWriter rowWriter : rowWriters) {
+            rowWriter.writeHeader(columns, types);
+        }
+    }
+
+    @Override
+    public void startRow() {
+        for (RowWriter rowWriter : rowWriters) {
+            rowWriter.startRow();
+        }
+    }
+
+    @Override
+    public void append(String value) {
+        for (RowWriter rowWriter : rowWriters) {
+            rowWriter.append(value);
+        }
+    }
+
+    @Override
+    public void append(double value) {
+        for (RowWriter rowWriter : rowWriters) {
+            rowWriter.append(value);
+        }
+    }
+
+    @Override
+    public void append(float value) {
+        for (RowWriter rowWriter : rowWriters) {
+            rowWriter.append(value);
+        }
+    }
+
+    @Override
+    public void append(int value) {
+        for (RowWriter rowWriter : rowWriters) {
+            rowWriter.append(value);
+        }
+    }
+
+    @Override
+    public void append(String text, double value) {
+        for (RowWriter rowWriter : rowWriters) {
+            rowWriter.append(text, value);
+        }
+    }
+
+    @Override
+    public void append(String text, int value) {
+        for (RowWriter rowWriter : rowWriters) {
+            rowWriter.append(text, value);
+        }
+    }
+
+    @Override
+    public void appendEmpty() {
+        for (RowWriter rowWriter : rowWriters) {
+            rowWriter.appendEmpty();
+        }
+    }
+
+    @Override
+    public void endRow() throws IOException {
+        for (RowWriter rowWriter : rowWriters) {
+            rowWriter.endRow();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (RowWriter rowWriter : rowWriters) {
+            try {
+                rowWriter.close();
+            } catch (IOException ex) {
+                if (exception == null) {
+                    exception = ex;
+                } else {
+                    exception.addSuppressed(ex);
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * 
+ */
+package de.isas.lipidomics.transitionextractor.services.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes rows of a fixed output schema value by value, without building
+ * intermediate row objects. A row is started with {@link #startRow()}, filled
+ * with one append call per column in schema order and finished with
+ * {@link #endRow()}.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public interface RowWriter extends Closeable {
+
+    /**
+     * Writes the header with the given column names and types.
+     *
+     * @param columns the column names of the schema.
+     * @param types the column types of the schema.
+     * @throws IOException
+     */
+    void writeHeader(List<String> columns, List<ColumnType> types) throws IOException;
+
+    /**
+     * Writes the header with the given column names, all of type
+     * {@link ColumnType#STRING}.
+     *
+     * @param columns the column names of the schema.
+     * @throws IOException
+     */
+    default void writeHeader(List<String> columns) throws IOException {
+        writeHeader(columns, Collections.nCopies(columns.size(),
+                ColumnType.STRING));
+    }
+
+    void startRow();
+
+    void append(String value);
+
+    void append(double value);
+
+    void append(float value);
+
+    void append(int value);
+
+    /**
+     * Appends a number parsed from the given text. Text formats write the text
+     * unchanged, binary formats write the number.
+     *
+     * @param text the text the value was parsed from.
+     * @param value the value.
+     */
+    void append(String text, double value);
+
+    /**
+     * Appends a number parsed from the given text. Text formats write the text
+     * unchanged, binary formats write the number.
+     *
+     * @param text the text the value was parsed from.
+     * @param value the value.
+     */
+    void append(String text, int value);
+
+    /**
+     * Appends an empty value.
+     */
+    void appendEmpty();
+
+    void endRow() throws IOException;
+}
@@ -0,0 +1,104 @@
+/*
+ * 
+ */
+package de.isas.lipidomics.transitionextractor.services.output;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Tab separated row writer. Numbers are appended to a reusable buffer without
+ * creating intermediate strings, using the same representation as
+ * {@link Double#toString(double)}, {@link Float#toString(float)} and
+ * {@link Integer#toString(int)}. Rows are terminated by the system line
+ * separator.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class TsvRowWriter implements RowWriter {
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final Writer writer;
+    private final StringBuilder row = new StringBuilder();
+    private char[] rowChars = new char[1024];
+    private int columns = 0;
+
+    public TsvRowWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void writeHeader(List<String> columns, List<ColumnType> types) throws IOException {
+        startRow();
+        for (String column : columns) {
+            append(column);
+        }
+        endRow();
+    }
+
+    @Override
+    public void startRow() {
+        row.setLength(0);
+        columns = 0;
+    }
+
+    private StringBuilder nextColumn() {
+        if (columns++ > 0) {
+            row.append('\t');
+        }
+        return row;
+    }
+
+    @Override
+    public void append(String value) {
+        nextColumn().append(value);
+    }
+
+    @Override
+    public void append(double value) {
+        nextColumn().append(value);
+    }
+
+    @Override
+    public void append(float value) {
+        nextColumn().append(value);
+    }
+
+    @Override
+    public void append(int value) {
+        nextColumn().append(value);
+    }
+
+    @Override
+    public void append(String text, double value) {
+        append(text);
+    }
+
+    @Override
+    public void append(String text, int value) {
+        append(text);
+    }
+
+    @Override
+    public void appendEmpty() {
+        nextColumn();
+    }
+
+    @Override
+    public void endRow() throws IOException {
+        row.append(LINE_SEPARATOR);
+        int length = row.length();
+        if (rowChars.length < length) {
+            rowChars = new char[length * 2];
+        }
+        row.getChars(0, length, rowChars, 0);
+        writer.write(rowChars, 0, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
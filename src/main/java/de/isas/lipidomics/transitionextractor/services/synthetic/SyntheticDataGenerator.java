@@ -0,0 +1,508 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor.services.synthetic;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Generates a deterministic, synthetic collision energy series: an mzML file
+ * with one MS1 scan and one MS2 scan per precursor for each collision energy,
+ * the matching transition list and the mapping file. Fragment intensities
+ * follow the log-normal curves of the generated {@link SyntheticFragment}s,
+ * the MS2 scans additionally contain random noise peaks. The fragment peaks
+ * written to the mzML files are returned as ground truth, every one of them
+ * must be found by the extraction.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Slf4j
+public class SyntheticDataGenerator {
+
+    public static final String PRECURSOR_ADDUCT = "[M+H]1+";
+    public static final String TRANSITION_LIST_FILE = "transitions.tsv";
+    public static final String MAPPING_FILE = "mapping.tsv";
+    public static final String GROUND_TRUTH_FILE = "ground-truth.tsv";
+
+    private final SyntheticDataSettings settings;
+    private final List<SyntheticPrecursor> precursors;
+
+    public SyntheticDataGenerator(SyntheticDataSettings settings) {
+        this.settings = settings;
+        this.precursors = Collections.unmodifiableList(createPrecursors());
+    }
+
+    public SyntheticDataSettings getSettings() {
+        return settings;
+    }
+
+    public List<SyntheticPrecursor> getPrecursors() {
+        return precursors;
+    }
+
+    /**
+     * Returns the collision energies of the series, in acquisition order.
+     *
+     * @return the collision energies.
+     */
+    public double[] getCollisionEnergies() {
+        double[] collisionEnergies = new double[settings.getCollisionEnergies()];
+        for (int i = 0; i < collisionEnergies.length; i++) {
+            collisionEnergies[i] = settings.getMinCollisionEnergy() + i * settings.
+                    getCollisionEnergyStep();
+        }
+        return collisionEnergies;
+    }
+
+    /**
+     * Returns the name of the mzML file with the given index.
+     *
+     * @param fileIndex the zero-based file index.
+     * @return the file name.
+     */
+    public static String getMzMlFileName(int fileIndex) {
+        return "synthetic-" + (fileIndex + 1) + ".mzML";
+    }
+
+    /**
+     * Returns the group of the mzML file with the given index. Output files
+     * are written per group, so each file gets its own group, if there is
+     * more than one file.
+     *
+     * @param fileIndex the zero-based file index.
+     * @return the group.
+     */
+    public String getGroup(int fileIndex) {
+        return settings.getFiles() > 1 ? settings.getGroup() + "_" + (fileIndex + 1) : settings.
+                getGroup();
+    }
+
+    /**
+     * Writes the mzML files, the transition list, the mapping file and the
+     * ground truth to the given directory.
+     *
+     * @param directory the output directory.
+     * @return the ground truth fragment hits of all files.
+     * @throws IOException
+     */
+    public List<SyntheticFragmentHit> writeDataset(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        List<String> mzMlFileNames = new ArrayList<>();
+        List<SyntheticFragmentHit> hits = new ArrayList<>();
+        for (int i = 0; i < settings.getFiles(); i++) {
+            mzMlFileNames.add(getMzMlFileName(i));
+            hits.addAll(writeMzMl(directory.resolve(getMzMlFileName(i)), i));
+        }
+        writeTransitionList(directory.resolve(TRANSITION_LIST_FILE));
+        writeMappingFile(directory.resolve(MAPPING_FILE), mzMlFileNames);
+        writeGroundTruth(directory.resolve(GROUND_TRUTH_FILE), hits);
+        log.info(String.format(
+                "Wrote %d mzML files with %d precursors, %d transitions and %d fragment hits to %s",
+                settings.getFiles(), precursors.size(), precursors.size() * settings.
+                getFragmentsPerPrecursor(), hits.size(), directory));
+        return hits;
+    }
+
+    private List<SyntheticPrecursor> createPrecursors() {
+        Random random = new Random(settings.getSeed());
+        List<SyntheticPrecursor> list = new ArrayList<>(settings.getPrecursors());
+        for (int i = 0; i < settings.getPrecursors(); i++) {
+            double precursorMz = 400.0d + 500.0d * random.nextDouble();
+            List<SyntheticFragment> fragments = new ArrayList<>(settings.
+                    getFragmentsPerPrecursor());
+            for (int j = 0; j < settings.getFragmentsPerPrecursor(); j++) {
+                fragments.add(SyntheticFragment.builder().
+                        name("F" + (j + 1)).
+                        adduct(PRECURSOR_ADDUCT).
+                        mz(100.0d + (precursorMz - 118.0d) * random.nextDouble()).
+                        meanlog(Math.log(15.0d + 35.0d * random.nextDouble())).
+                        sdlog(0.2d + 0.4d * random.nextDouble()).
+                        scale(1.0e6d * (0.5d + 1.5d * random.nextDouble())).
+                        build());
+            }
+            list.add(SyntheticPrecursor.builder().
+                    name(settings.getMoleculeGroup() + " " + (i + 1)).
+                    adduct(PRECURSOR_ADDUCT).
+                    mz(precursorMz).
+                    fragments(fragments).
+                    build());
+        }
+        return list;
+    }
+
+    /**
+     * Writes the transition list with one row per fragment.
+     *
+     * @param transitionListFile the output file.
+     * @throws IOException
+     */
+    public void writeTransitionList(Path transitionListFile) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(
+                transitionListFile, StandardCharsets.UTF_8)) {
+            writer.write(
+                    "MoleculeGroup\tPrecursorName\tPrecursorAdduct\tPrecursorMz\tProductName\tProductAdduct\tProductMz");
+            writer.newLine();
+            for (SyntheticPrecursor precursor : precursors) {
+                for (SyntheticFragment fragment : precursor.getFragments()) {
+                    writer.write(String.join("\t", settings.getMoleculeGroup(),
+                            precursor.getName(), precursor.getAdduct(), Double.
+                            toString(precursor.getMz()), fragment.getName(),
+                            fragment.getAdduct(), Double.toString(fragment.
+                                    getMz())));
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the mapping file with one row per precursor, mapping it to the
+     * given mzML file.
+     *
+     * @param mappingFile the output file.
+     * @param mzMlFileName the mzML file name, relative to the transition list.
+     * @throws IOException
+     */
+    public void writeMappingFile(Path mappingFile, String mzMlFileName) throws IOException {
+        writeMappingFile(mappingFile, Arrays.asList(mzMlFileName));
+    }
+
+    /**
+     * Writes the mapping file with one row per precursor and mzML file, the
+     * rows of each file use the group returned by {@link #getGroup(int)}.
+     *
+     * @param mappingFile the output file.
+     * @param mzMlFileNames the mzML file names, relative to the transition
+     * list.
+     * @throws IOException
+     */
+    public void writeMappingFile(Path mappingFile, List<String> mzMlFileNames) throws IOException {
+        String ppms = settings.getPpms().
+                stream().
+                map(String::valueOf).
+                collect(Collectors.joining("|"));
+        try (BufferedWriter writer = Files.newBufferedWriter(mappingFile,
+                StandardCharsets.UTF_8)) {
+            writer.write(
+                    "Instrument\tMoleculeGroup\tPrecursorName\tPrecursorAdduct\tFile\tPPMS\tGroup");
+            writer.newLine();
+            for (int i = 0; i < mzMlFileNames.size(); i++) {
+                for (SyntheticPrecursor precursor : precursors) {
+                    writer.write(String.join("\t", settings.getInstrument(),
+                            settings.getMoleculeGroup(), precursor.getName(),
+                            precursor.getAdduct(), mzMlFileNames.get(i), ppms,
+                            getGroup(i)));
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the ground truth fragment hits.
+     *
+     * @param groundTruthFile the output file.
+     * @param hits the fragment hits.
+     * @throws IOException
+     */
+    public void writeGroundTruth(Path groundTruthFile,
+            List<SyntheticFragmentHit> hits) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(groundTruthFile,
+                StandardCharsets.UTF_8)) {
+            writer.write(
+                    "file\tscanNumber\tcollisionEnergy\tspecies\tfragment\tcalculatedMass\tfoundMass\tfoundIntensity");
+            writer.newLine();
+            for (SyntheticFragmentHit hit : hits) {
+                writer.write(String.join("\t", hit.getFile(), Integer.toString(
+                        hit.getScanNumber()), Double.toString(hit.
+                        getCollisionEnergy()), hit.getPrecursorName(), hit.
+                        getFragmentName(), Double.toString(hit.
+                                getCalculatedMass()), Double.toString(hit.
+                        getMz()), Float.toString(hit.getIntensity())));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Writes the first mzML file. Repeated calls write identical files.
+     *
+     * @param mzMlFile the output file.
+     * @return the ground truth fragment hits.
+     * @throws IOException
+     */
+    public List<SyntheticFragmentHit> writeMzMl(Path mzMlFile) throws IOException {
+        return writeMzMl(mzMlFile, 0);
+    }
+
+    /**
+     * Writes the mzML file with the given index, which selects the noise of
+     * the file. Repeated calls write identical files.
+     *
+     * @param mzMlFile the output file.
+     * @param fileIndex the zero-based file index.
+     * @return the ground truth fragment hits.
+     * @throws IOException
+     */
+    public List<SyntheticFragmentHit> writeMzMl(Path mzMlFile, int fileIndex) throws IOException {
+        Random noise = new Random(settings.getSeed() + 1 + fileIndex);
+        List<SyntheticFragmentHit> hits = new ArrayList<>();
+        String fileName = mzMlFile.getFileName().
+                toString();
+        double[] collisionEnergies = getCollisionEnergies();
+        String id = mzMlFile.getFileName().
+                toString().
+                replaceAll("\\.mzML$", "");
+        try (BufferedWriter writer = Files.newBufferedWriter(mzMlFile,
+                StandardCharsets.UTF_8)) {
+            writeHeader(writer, id, (precursors.size() + 1) * collisionEnergies.length);
+            int index = 0;
+            for (double collisionEnergy : collisionEnergies) {
+                double[] mzValues = new double[precursors.size()];
+                float[] intensityValues = new float[precursors.size()];
+                for (int i = 0; i < precursors.size(); i++) {
+                    mzValues[i] = precursors.get(i).
+                            getMz();
+                    intensityValues[i] = 1.0e6f;
+                }
+                writeSpectrum(writer, index++, null, collisionEnergy, mzValues,
+                        intensityValues);
+                for (SyntheticPrecursor precursor : precursors) {
+                    List<SyntheticFragment> fragments = precursor.getFragments();
+                    int nPeaks = fragments.size() + settings.
+                            getNoisePeaksPerScan();
+                    mzValues = new double[nPeaks];
+                    intensityValues = new float[nPeaks];
+                    for (int i = 0; i < fragments.size(); i++) {
+                        SyntheticFragment fragment = fragments.get(i);
+                        double errorPpm = settings.getMaxMassErrorPpm() * (2.0d * noise.
+                                nextDouble() - 1.0d);
+                        mzValues[i] = fragment.getMz() * (1.0d + errorPpm * 1.0e-6d);
+                        intensityValues[i] = (float) fragment.getIntensity(
+                                collisionEnergy);
+                        hits.add(SyntheticFragmentHit.builder().
+                                file(fileName).
+                                scanNumber(index + 1).
+                                collisionEnergy(collisionEnergy).
+                                precursorName(precursor.getName()).
+                                fragmentName(fragment.getName()).
+                                calculatedMass(fragment.getMz()).
+                                mz(mzValues[i]).
+                                intensity(intensityValues[i]).
+                                build());
+                    }
+                    for (int i = fragments.size(); i < nPeaks; i++) {
+                        mzValues[i] = 50.0d + (precursor.getMz() - 40.0d) * noise.
+                                nextDouble();
+                        intensityValues[i] = (float) (10.0d + 990.0d * noise.
+                                nextDouble());
+                    }
+                    writeSpectrum(writer, index++, precursor, collisionEnergy,
+                            mzValues, intensityValues);
+                }
+            }
+            writer.write("    </spectrumList>\n  </run>\n</mzML>\n");
+        }
+        log.debug("Wrote {} scans to {}", (precursors.size() + 1) * collisionEnergies.length, mzMlFile);
+        return hits;
+    }
+
+    private void writeHeader(Writer writer, String id, int nSpectra) throws IOException {
+        writer.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                + "<mzML xmlns=\"http://psi.hupo.org/ms/mzml\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://psi.hupo.org/ms/mzml http://psidev.info/files/ms/mzML/xsd/mzML1.1.0.xsd\" id=\"" + id + "\" version=\"1.1.0\">\n"
+                + "  <cvList count=\"2\">\n"
+                + "    <cv id=\"MS\" fullName=\"Proteomics Standards Initiative Mass Spectrometry Ontology\" version=\"4.1.0\" URI=\"https://raw.githubusercontent.com/HUPO-PSI/psi-ms-CV/master/psi-ms.obo\"/>\n"
+                + "    <cv id=\"UO\" fullName=\"Unit Ontology\" version=\"09:04:2014\" URI=\"https://raw.githubusercontent.com/bio-ontology-research-group/unit-ontology/master/unit.obo\"/>\n"
+                + "  </cvList>\n"
+                + "  <fileDescription>\n"
+                + "    <fileContent>\n"
+                + "      <cvParam cvRef=\"MS\" accession=\"MS:1000579\" name=\"MS1 spectrum\" value=\"\"/>\n"
+                + "      <cvParam cvRef=\"MS\" accession=\"MS:1000580\" name=\"MSn spectrum\" value=\"\"/>\n"
+                + "    </fileContent>\n"
+                + "  </fileDescription>\n"
+                + "  <softwareList count=\"1\">\n"
+                + "    <software id=\"flipr-synthetic\" version=\"1.0\">\n"
+                + "      <cvParam cvRef=\"MS\" accession=\"MS:1000799\" name=\"custom unreleased software tool\" value=\"flipr synthetic data generator\"/>\n"
+                + "    </software>\n"
+                + "  </softwareList>\n"
+                + "  <instrumentConfigurationList count=\"1\">\n"
+                + "    <instrumentConfiguration id=\"IC1\">\n"
+                + "      <cvParam cvRef=\"MS\" accession=\"" + settings.getInstrument() + "\" name=\"instrument model\" value=\"\"/>\n"
+                + "    </instrumentConfiguration>\n"
+                + "  </instrumentConfigurationList>\n"
+                + "  <dataProcessingList count=\"1\">\n"
+                + "    <dataProcessing id=\"synthetic\">\n"
+                + "      <processingMethod order=\"0\" softwareRef=\"flipr-synthetic\">\n"
+                + "        <cvParam cvRef=\"MS\" accession=\"MS:1000544\" name=\"Conversion to mzML\" value=\"\"/>\n"
+                + "      </processingMethod>\n"
+                + "    </dataProcessing>\n"
+                + "  </dataProcessingList>\n"
+                + "  <run id=\"" + id + "\" defaultInstrumentConfigurationRef=\"IC1\">\n"
+                + "    <spectrumList count=\"" + nSpectra + "\" defaultDataProcessingRef=\"synthetic\">\n");
+    }
+
+    /**
+     * Writes an MS1 scan, if precursor is null, otherwise an MS2 scan of the
+     * precursor. The peaks are sorted by ascending m/z before writing.
+     */
+    private void writeSpectrum(Writer writer, int index,
+            SyntheticPrecursor precursor, double collisionEnergy,
+            double[] mzValues, float[] intensityValues) throws IOException {
+        Integer[] order = new Integer[mzValues.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(mzValues[a], mzValues[b]));
+        double[] sortedMzValues = new double[mzValues.length];
+        float[] sortedIntensityValues = new float[mzValues.length];
+        int basePeak = 0;
+        double tic = 0.0d;
+        for (int i = 0; i < order.length; i++) {
+            sortedMzValues[i] = mzValues[order[i]];
+            sortedIntensityValues[i] = intensityValues[order[i]];
+            tic += sortedIntensityValues[i];
+            if (sortedIntensityValues[i] > sortedIntensityValues[basePeak]) {
+                basePeak = i;
+            }
+        }
+        int msLevel = precursor == null ? 1 : 2;
+        int scanNumber = index + 1;
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("      <spectrum index=\"").append(index).
+                append("\" id=\"controllerType=0 controllerNumber=1 scan=").
+                append(scanNumber).append("\" defaultArrayLength=\"").
+                append(mzValues.length).append("\">\n");
+        cvParam(sb, "MS:1000511", "ms level", Integer.toString(msLevel), "");
+        cvParam(sb, msLevel == 1 ? "MS:1000579" : "MS:1000580", msLevel == 1 ? "MS1 spectrum" : "MSn spectrum", "", "");
+        cvParam(sb, "MS:1000130", "positive scan", "", "");
+        cvParam(sb, "MS:1000127", "centroid spectrum", "", "");
+        if (mzValues.length > 0) {
+            cvParam(sb, "MS:1000504", "base peak m/z", Double.toString(
+                    sortedMzValues[basePeak]), " unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"");
+            cvParam(sb, "MS:1000505", "base peak intensity", Float.toString(
+                    sortedIntensityValues[basePeak]), " unitCvRef=\"MS\" unitAccession=\"MS:1000131\" unitName=\"number of detector counts\"");
+        }
+        cvParam(sb, "MS:1000285", "total ion current", Float.toString(
+                (float) tic), "");
+        sb.append("        <scanList count=\"1\">\n");
+        sb.append("          <cvParam cvRef=\"MS\" accession=\"MS:1000795\" name=\"no combination\" value=\"\"/>\n");
+        sb.append("          <scan>\n");
+        sb.append("  ");
+        cvParam(sb, "MS:1000016", "scan start time", Double.toString(
+                scanNumber * 0.01d), " unitCvRef=\"UO\" unitAccession=\"UO:0000031\" unitName=\"minute\"");
+        sb.append("  ");
+        cvParam(sb, "MS:1000512", "filter string", precursor == null ? "FTMS + p ESI Full ms [100.00-1000.00]" : String.
+                format(Locale.US,
+                        "FTMS + p ESI d Full ms2 %.2f@hcd%.2f [50.00-%.2f]",
+                        precursor.getMz(), collisionEnergy, precursor.getMz() + 20.0d), "");
+        sb.append("          </scan>\n");
+        sb.append("        </scanList>\n");
+        if (precursor != null) {
+            String precursorMz = Double.toString(precursor.getMz());
+            sb.append("        <precursorList count=\"1\">\n");
+            sb.append("          <precursor>\n");
+            sb.append("            <isolationWindow>\n");
+            sb.append("      ");
+            cvParam(sb, "MS:1000827", "isolation window target m/z", precursorMz, " unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"");
+            sb.append("      ");
+            cvParam(sb, "MS:1000828", "isolation window lower offset", "0.7", " unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"");
+            sb.append("      ");
+            cvParam(sb, "MS:1000829", "isolation window upper offset", "0.7", " unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"");
+            sb.append("            </isolationWindow>\n");
+            sb.append("            <selectedIonList count=\"1\">\n");
+            sb.append("              <selectedIon>\n");
+            sb.append("        ");
+            cvParam(sb, "MS:1000744", "selected ion m/z", precursorMz, " unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"");
+            sb.append("        ");
+            cvParam(sb, "MS:1000041", "charge state", "1", "");
+            sb.append("              </selectedIon>\n");
+            sb.append("            </selectedIonList>\n");
+            sb.append("            <activation>\n");
+            sb.append("      ");
+            cvParam(sb, "MS:1000422", "beam-type collision-induced dissociation", "", "");
+            sb.append("      ");
+            cvParam(sb, "MS:1000045", "collision energy", Double.toString(
+                    collisionEnergy), " unitCvRef=\"UO\" unitAccession=\"UO:0000266\" unitName=\"electronvolt\"");
+            sb.append("            </activation>\n");
+            sb.append("          </precursor>\n");
+            sb.append("        </precursorList>\n");
+        }
+        ByteBuffer mzBuffer = ByteBuffer.allocate(8 * mzValues.length).
+                order(ByteOrder.LITTLE_ENDIAN);
+        for (double mz : sortedMzValues) {
+            mzBuffer.putDouble(mz);
+        }
+        ByteBuffer intensityBuffer = ByteBuffer.allocate(4 * mzValues.length).
+                order(ByteOrder.LITTLE_ENDIAN);
+        for (float intensity : sortedIntensityValues) {
+            intensityBuffer.putFloat(intensity);
+        }
+        sb.append("        <binaryDataArrayList count=\"2\">\n");
+        binaryDataArray(sb, mzBuffer.array(), "MS:1000523", "64-bit float",
+                "MS:1000514", "m/z array", " unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"");
+        binaryDataArray(sb, intensityBuffer.array(), "MS:1000521",
+                "32-bit float", "MS:1000515", "intensity array", " unitCvRef=\"MS\" unitAccession=\"MS:1000131\" unitName=\"number of detector counts\"");
+        sb.append("        </binaryDataArrayList>\n");
+        sb.append("      </spectrum>\n");
+        writer.write(sb.toString());
+    }
+
+    private static void cvParam(StringBuilder sb, String accession,
+            String name, String value, String unit) {
+        sb.append("        <cvParam cvRef=\"MS\" accession=\"").append(accession).
+                append("\" name=\"").append(name).append("\" value=\"").
+                append(value).append("\"").append(unit).append("/>\n");
+    }
+
+    private static void binaryDataArray(StringBuilder sb, byte[] data,
+            String typeAccession, String typeName, String arrayAccession,
+            String arrayName, String unit) {
+        String encoded = Base64.getEncoder().
+                encodeToString(compress(data));
+        sb.append("          <binaryDataArray encodedLength=\"").append(encoded.
+                length()).append("\">\n");
+        sb.append("    ");
+        cvParam(sb, typeAccession, typeName, "", "");
+        sb.append("    ");
+        cvParam(sb, "MS:1000574", "zlib compression", "", "");
+        sb.append("    ");
+        cvParam(sb, arrayAccession, arrayName, "", unit);
+        sb.append("            <binary>").append(encoded).append("</binary>\n");
+        sb.append("          </binaryDataArray>\n");
+    }
+
+    private static byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                bos.write(buffer, 0, n);
+            }
+            return bos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor.services.synthetic;
+
+import java.util.Arrays;
+import java.util.List;
+import lombok.Data;
+
+/**
+ * Size and shape of a synthetic collision energy series, used to generate
+ * deterministic mzML, transition list and mapping files for benchmarks and
+ * tests.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Data
+public class SyntheticDataSettings {
+
+    /**
+     * Seed of the random number generator, the same settings always generate
+     * the same files.
+     */
+    private long seed = 1L;
+
+    /**
+     * Number of mzML files, each containing the same precursors with different
+     * noise.
+     */
+    private int files = 1;
+
+    /**
+     * Number of precursors, each with its own transition specification group.
+     */
+    private int precursors = 10;
+
+    /**
+     * Number of fragments (transitions) per precursor.
+     */
+    private int fragmentsPerPrecursor = 4;
+
+    /**
+     * Number of collision energies, each precursor has one MS2 scan per
+     * collision energy.
+     */
+    private int collisionEnergies = 10;
+
+    private double minCollisionEnergy = 10.0d;
+
+    private double collisionEnergyStep = 5.0d;
+
+    /**
+     * Number of random noise peaks added to each MS2 scan, in addition to the
+     * fragment peaks.
+     */
+    private int noisePeaksPerScan = 50;
+
+    /**
+     * Maximum absolute mass error of the fragment peaks in ppm.
+     */
+    private double maxMassErrorPpm = 2.0d;
+
+    private String instrument = "MS:1002523";
+
+    private String moleculeGroup = "SYN";
+
+    private String group = "SYN";
+
+    private List<Integer> ppms = Arrays.asList(5, 10);
+
+}
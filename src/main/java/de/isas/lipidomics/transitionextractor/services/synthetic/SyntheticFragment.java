@@ -0,0 +1,37 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor.services.synthetic;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * A synthetic fragment, whose intensity follows a scaled log-normal curve over
+ * the collision energy.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Data
+@Builder
+public class SyntheticFragment {
+
+    private String name;
+    private String adduct;
+    private double mz;
+    private double meanlog;
+    private double sdlog;
+    private double scale;
+
+    /**
+     * Returns the intensity of this fragment at the given collision energy.
+     *
+     * @param collisionEnergy the collision energy, must be positive.
+     * @return scale times the log-normal density at collisionEnergy.
+     */
+    public double getIntensity(double collisionEnergy) {
+        double z = (Math.log(collisionEnergy) - meanlog) / sdlog;
+        return scale * Math.exp(-0.5d * z * z) / (collisionEnergy * sdlog * Math.
+                sqrt(2.0d * Math.PI));
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor.services.synthetic;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * A fragment peak written to a synthetic mzML file, which the extraction is
+ * expected to find.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Data
+@Builder
+public class SyntheticFragmentHit {
+
+    private String file;
+    private int scanNumber;
+    private double collisionEnergy;
+    private String precursorName;
+    private String fragmentName;
+    private double calculatedMass;
+    private double mz;
+    private float intensity;
+
+}
@@ -0,0 +1,24 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor.services.synthetic;
+
+import java.util.List;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * A synthetic precursor and its fragments.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Data
+@Builder
+public class SyntheticPrecursor {
+
+    private String name;
+    private String adduct;
+    private double mz;
+    private List<SyntheticFragment> fragments;
+
+}
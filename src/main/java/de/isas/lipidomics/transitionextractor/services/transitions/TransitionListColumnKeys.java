@@ -3,7 +3,8 @@
  */
 package de.isas.lipidomics.transitionextractor.services.transitions;
 
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  *
@@ -31,6 +32,14 @@ z       ProductCharge   Note
 //    FILE("File"),
 //    PPMS("PPMS");
 
+    private static final Map<String, TransitionListColumnKeys> BY_NAME = new HashMap<>();
+
+    static {
+        for (TransitionListColumnKeys key : values()) {
+            BY_NAME.put(key.name, key);
+        }
+    }
+
     private final String name;
 
     private TransitionListColumnKeys(String name) {
@@ -43,12 +52,10 @@ z       ProductCharge   Note
     }
 
     public static TransitionListColumnKeys fromName(String name) {
-        return Arrays.stream(TransitionListColumnKeys.values()).
-                filter((v) ->
-                        v.toString().
-                                equals(name)).
-                findFirst().
-                orElseThrow(() ->
-                        new IllegalArgumentException("Unknown column name: '" + name+"'"));
+        TransitionListColumnKeys key = BY_NAME.get(name);
+        if (key == null) {
+            throw new IllegalArgumentException("Unknown column name: '" + name+"'");
+        }
+        return key;
     }
 }
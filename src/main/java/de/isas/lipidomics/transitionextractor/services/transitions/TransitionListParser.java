@@ -3,146 +3,367 @@
  */
 package de.isas.lipidomics.transitionextractor.services.transitions;
 
-import com.google.common.collect.Range;
 import de.isas.lipidomics.transitionextractor.ConfigKey;
 import de.isas.lipidomics.transitionextractor.TransitionSpecification;
-import de.isas.lipidomics.transitionextractor.MsUtils;
 import de.isas.lipidomics.transitionextractor.TransitionSpecificationGroup;
 import de.isas.lipidomics.transitionextractor.services.MappingSpecification;
 import de.isas.lipidomics.transitionextractor.services.MappingUtils;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.MultiValuedMap;
-import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
 
 /**
+ * Parses a tab separated transition list line by line. The columns are
+ * resolved once from the header, and the transition specification groups are
+ * built while the file is read, so only the specifications themselves are
+ * kept in memory. Specifications share equal names and ppm search windows,
+ * see {@link TransitionSpecificationInterner}. Groups and their specifications
+ * are returned in the order in which they first appear in the transition list,
+ * duplicate specifications are ignored.
  *
  * @author Nils Hoffmann <nils.hoffmann@isas.de>
  */
 @Slf4j
 public class TransitionListParser {
 
-    public Map<Path, TransitionSpecificationGroup> parse(
+    private static final int CHUNK_LINES = 1024;
+
+    public Map<Path, List<TransitionSpecificationGroup>> parse(
         Path cfgFilePath,
         Path mzMlDirectoryPath,
         MultiValuedMap<ConfigKey, MappingSpecification> mappingSpecs) throws IOException {
-        MultiValuedMap<Path, TransitionSpecification> targetSpecs = new HashSetValuedHashMap<>();
-        List<String> lines = Files.readAllLines(cfgFilePath, Charset.forName(
-            "UTF-8"));
-        String[] keys = null;
-        for (int i = 0; i < lines.size(); i++) {
-            if (i == 0) {
-                keys = lines.get(i).
-                    split("\t");
+        return parse(cfgFilePath, mzMlDirectoryPath, mappingSpecs, 1);
+    }
+
+    /**
+     * Parses the transition list into the transition specification groups of
+     * each mzML file. With more than one thread, the reading thread hands
+     * chunks of lines to a pool of parser threads and adds their
+     * specifications to the groups in the order of the chunks, so the result
+     * is the same as with a single thread. At most two chunks per parser
+     * thread are pending.
+     *
+     * @param cfgFilePath the transition list.
+     * @param mzMlDirectoryPath the mzML directory.
+     * @param mappingSpecs the mapping specifications by config key.
+     * @param nThreads the number of parser threads.
+     * @return the groups, by target mzML file.
+     * @throws IOException if the transition list can not be read.
+     */
+    public Map<Path, List<TransitionSpecificationGroup>> parse(
+        Path cfgFilePath,
+        Path mzMlDirectoryPath,
+        MultiValuedMap<ConfigKey, MappingSpecification> mappingSpecs,
+        int nThreads) throws IOException {
+        GroupBuilder groupBuilder = new GroupBuilder();
+        TransitionSpecificationInterner interner = new TransitionSpecificationInterner();
+        try (BufferedReader reader = Files.newBufferedReader(cfgFilePath,
+            Charset.forName("UTF-8"))) {
+            String header = reader.readLine();
+            if (header == null) {
+                return groupBuilder.build();
+            }
+            int[] columnIndexes = getColumnIndexes(header.split("\t"));
+            if (nThreads > 1) {
+                parseChunks(reader, columnIndexes, mappingSpecs, interner,
+                    groupBuilder, nThreads);
             } else {
-                Map<TransitionListColumnKeys, String> lineElements = new HashMap<>();
-                String[] lineContents = lines.get(i).
-                    split("\t");
-                for (int j = 0; j < lineContents.length; j++) {
-                    lineElements.put(TransitionListColumnKeys.fromName(keys[j]),
-                        cleanString(lineContents[j]));
+                LineParser lineParser = new LineParser(columnIndexes,
+                    mappingSpecs, interner);
+                List<TransitionSpecification> specs = new ArrayList<>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    specs.clear();
+                    lineParser.parse(line, specs);
+                    groupBuilder.addAll(specs);
+                }
+            }
+        }
+        return groupBuilder.build();
+    }
+
+    private void parseChunks(BufferedReader reader, int[] columnIndexes,
+        MultiValuedMap<ConfigKey, MappingSpecification> mappingSpecs,
+        TransitionSpecificationInterner interner, GroupBuilder groupBuilder,
+        int nThreads) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            ArrayDeque<Future<List<TransitionSpecification>>> pendingChunks = new ArrayDeque<>();
+            List<String> chunk = new ArrayList<>(CHUNK_LINES);
+            String line;
+            while (true) {
+                line = reader.readLine();
+                if (line != null) {
+                    chunk.add(line);
+                }
+                if (chunk.size() == CHUNK_LINES || (line == null && !chunk.
+                    isEmpty())) {
+                    final List<String> lines = chunk;
+                    chunk = new ArrayList<>(CHUNK_LINES);
+                    pendingChunks.add(executor.submit(() ->
+                    {
+                        LineParser lineParser = new LineParser(columnIndexes,
+                            mappingSpecs, interner);
+                        List<TransitionSpecification> specs = new ArrayList<>();
+                        for (String chunkLine : lines) {
+                            lineParser.parse(chunkLine, specs);
+                        }
+                        return specs;
+                    }));
                 }
-                log.debug(String.format("Processing line: '%s'", lines.get(i)));
-                ConfigKey transitionSpecKey = MappingUtils.getSafeKey(
-                    pick(
-                        TransitionListColumnKeys.MOLECULE_GROUP,
-                        lineElements), pick(
-                        TransitionListColumnKeys.PRECURSOR_NAME,
-                        lineElements), pick(
-                        TransitionListColumnKeys.PRECURSOR_ADDUCT,
-                        lineElements));
-                Collection<MappingSpecification> mappingSpecsForKey = mappingSpecs.
-                    get(
-                        transitionSpecKey);
-                log.debug("Handling {} mapping specifications for key {}",
-                    mappingSpecsForKey.size(), transitionSpecKey);
-                for (MappingSpecification mapping : mappingSpecsForKey) {
-                    TreeMap<Integer, Range<Double>> ppmToRangeMap = MsUtils.
-                        createIonTargetMzRanges(
-                            Double.parseDouble(pick(
-                                TransitionListColumnKeys.PRODUCT_MZ,
-                                lineElements)), mapping.getPpms());
-                    TransitionSpecification lts = TransitionSpecification.
-                        builder().
-                        moleculeGroup(pick(
-                            TransitionListColumnKeys.MOLECULE_GROUP,
-                            lineElements)).
-                        file(mapping.getFile()).
-                        precursorName(pick(
-                            TransitionListColumnKeys.PRECURSOR_NAME,
-                            lineElements)).
-                        fragmentName(pick(
-                            TransitionListColumnKeys.PRODUCT_NAME,
-                            lineElements)).
-                        fragmentAdduct(pick(
-                            TransitionListColumnKeys.PRODUCT_ADDUCT,
-                            lineElements)).
-                        calculatedMass(Double.parseDouble(pick(
-                            TransitionListColumnKeys.PRODUCT_MZ,
-                            lineElements))).
-                        ionTargetMzRanges(ppmToRangeMap).
-                        maximumMzRange(MsUtils.getMaximumMzRange(
-                            ppmToRangeMap)).
-                        mappingSpecification(mapping).
-                        build();
-
-                    log.
-                        info(String.format(
-                            "Adding target spec for moleculeGroup '%s', precursor '%s %s', fragment '%s %s' with group '%s'",
-                            lts.getMoleculeGroup(), lts.getPrecursorName(), lts.
-                            getPrecursorAdduct(), lts.getFragmentName(), lts.
-                            getFragmentAdduct(), lts.getGroup()));
-                    targetSpecs.put(lts.getFile(), lts);
+                while (!pendingChunks.isEmpty() && (line == null || pendingChunks.
+                    size() > 2 * nThreads)) {
+                    groupBuilder.addAll(getSpecs(pendingChunks.poll()));
                 }
+                if (line == null) {
+                    return;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<TransitionSpecification> getSpecs(
+        Future<List<TransitionSpecification>> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().
+                interrupt();
+            throw new InterruptedIOException(
+                "Interrupted while parsing the transition list");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
             }
+            throw new IOException(ex.getCause());
         }
-        Map<Path, TransitionSpecificationGroup> pathToGroups = new LinkedHashMap<>();
-        for (Path p : targetSpecs.keySet()) {
-            Collection<TransitionSpecification> transitions = targetSpecs.get(p);
-            TransitionSpecificationGroup group = null;
-            for (TransitionSpecification tspec : transitions) {
-                log.debug("Handling transition spec {}", tspec);
-                if (group == null) {
-                    group = new TransitionSpecificationGroup(tspec.getInstrument(), tspec.
-                        getMoleculeGroup(), tspec.getPrecursorName(), tspec.
-                        getPrecursorAdduct(), p, tspec.getGroup());
+    }
+
+    /**
+     * Returns the column index of each column key by ordinal, or -1 for
+     * columns that are not part of the header.
+     */
+    private int[] getColumnIndexes(String[] keys) {
+        int[] columnIndexes = new int[TransitionListColumnKeys.values().length];
+        Arrays.fill(columnIndexes, -1);
+        for (int j = 0; j < keys.length; j++) {
+            columnIndexes[TransitionListColumnKeys.fromName(keys[j]).
+                ordinal()] = j;
+        }
+        return columnIndexes;
+    }
+
+    /**
+     * Creates the transition specifications of single lines, reusing its
+     * field buffers. Instances are not thread safe.
+     */
+    private static class LineParser {
+
+        private final int[] columnIndexes;
+        private final MultiValuedMap<ConfigKey, MappingSpecification> mappingSpecs;
+        private final TransitionSpecificationInterner interner;
+        private final String[] fields;
+        private final String[] values = new String[TransitionListColumnKeys.
+            values().length];
+
+        LineParser(int[] columnIndexes,
+            MultiValuedMap<ConfigKey, MappingSpecification> mappingSpecs,
+            TransitionSpecificationInterner interner) {
+            this.columnIndexes = columnIndexes;
+            this.mappingSpecs = mappingSpecs;
+            this.interner = interner;
+            this.fields = new String[Arrays.stream(columnIndexes).
+                max().
+                orElse(-1) + 1];
+        }
+
+        void parse(String line, List<TransitionSpecification> specs) {
+            if (line.isEmpty()) {
+                return;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Processing line: '%s'", line));
+            }
+            int nFields = splitFields(line);
+            for (int k = 0; k < values.length; k++) {
+                int j = columnIndexes[k];
+                values[k] = j >= 0 && j < nFields ? cleanString(fields[j]) : null;
+            }
+            ConfigKey transitionSpecKey = MappingUtils.getSafeKey(
+                pick(TransitionListColumnKeys.MOLECULE_GROUP), pick(
+                TransitionListColumnKeys.PRECURSOR_NAME), pick(
+                TransitionListColumnKeys.PRECURSOR_ADDUCT));
+            Collection<MappingSpecification> mappingSpecsForKey = mappingSpecs.
+                get(
+                    transitionSpecKey);
+            log.debug("Handling {} mapping specifications for key {}",
+                mappingSpecsForKey.size(), transitionSpecKey);
+            if (mappingSpecsForKey.isEmpty()) {
+                return;
+            }
+            double productMz = Double.parseDouble(pick(
+                TransitionListColumnKeys.PRODUCT_MZ));
+            Double precursorMz = parseOptionalDouble(pick(
+                TransitionListColumnKeys.PRECURSOR_MZ));
+            String moleculeGroup = interner.intern(pick(
+                TransitionListColumnKeys.MOLECULE_GROUP));
+            String precursorName = interner.intern(pick(
+                TransitionListColumnKeys.PRECURSOR_NAME));
+            String fragmentName = interner.intern(pick(
+                TransitionListColumnKeys.PRODUCT_NAME));
+            String fragmentAdduct = interner.intern(pick(
+                TransitionListColumnKeys.PRODUCT_ADDUCT));
+            for (MappingSpecification mapping : mappingSpecsForKey) {
+                TransitionSpecificationInterner.IonTargetMzRanges productMzRanges = interner.
+                    getIonTargetMzRanges(productMz, mapping.getPpms());
+                TransitionSpecification lts = TransitionSpecification.
+                    builder().
+                    moleculeGroup(moleculeGroup).
+                    file(mapping.getFile()).
+                    precursorName(precursorName).
+                    precursorMz(precursorMz).
+                    fragmentName(fragmentName).
+                    fragmentAdduct(fragmentAdduct).
+                    calculatedMass(productMzRanges.getProductMz()).
+                    ionTargetMzRanges(productMzRanges.getIonTargetMzRanges()).
+                    maximumMzRange(productMzRanges.getMaximumMzRange()).
+                    ionTargetMzWindows(productMzRanges.getIonTargetMzWindows()).
+                    mappingSpecification(mapping).
+                    build();
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format(
+                        "Adding target spec for moleculeGroup '%s', precursor '%s %s', fragment '%s %s' with group '%s'",
+                        lts.getMoleculeGroup(), lts.getPrecursorName(), lts.
+                        getPrecursorAdduct(), lts.getFragmentName(), lts.
+                        getFragmentAdduct(), lts.getGroup()));
                 }
+                specs.add(lts);
+            }
+        }
+
+        /**
+         * Splits the line at tabs into the field buffer, ignoring fields after
+         * the last column of the header. Like {@link String#split(String)},
+         * trailing empty fields are dropped.
+         *
+         * @return the number of fields.
+         */
+        private int splitFields(String line) {
+            int nFields = 0;
+            int start = 0;
+            while (nFields < fields.length) {
+                int end = line.indexOf('\t', start);
+                if (end < 0) {
+                    fields[nFields++] = line.substring(start);
+                    break;
+                }
+                fields[nFields++] = line.substring(start, end);
+                start = end + 1;
+            }
+            while (nFields > 0 && fields[nFields - 1].isEmpty()) {
+                nFields--;
+            }
+            return nFields;
+        }
+
+        private String pick(TransitionListColumnKeys key) {
+            return values[key.ordinal()];
+        }
+    }
+
+    /**
+     * Adds transition specifications to the groups of their target files.
+     */
+    private static class GroupBuilder {
+
+        private final Set<TransitionSpecification> specs = new HashSet<>();
+        private final Map<Path, Map<List<String>, TransitionSpecificationGroup>> groupsByFile = new LinkedHashMap<>();
+
+        void addAll(List<TransitionSpecification> transitionSpecs) {
+            for (TransitionSpecification tspec : transitionSpecs) {
+                if (!specs.add(tspec)) {
+                    log.debug("Ignoring duplicate transition spec {}", tspec);
+                    continue;
+                }
+                // several mapping rows (precursors and groups) may target the same file
+                Path p = tspec.getFile();
+                TransitionSpecificationGroup group = groupsByFile.
+                    computeIfAbsent(p, (key) -> new LinkedHashMap<>()).
+                    computeIfAbsent(
+                        Arrays.asList(tspec.getInstrument(), tspec.
+                            getMoleculeGroup(), tspec.getPrecursorName(), tspec.
+                            getPrecursorAdduct(), tspec.getGroup()), (key) ->
+                        new TransitionSpecificationGroup(tspec.getInstrument(), tspec.
+                            getMoleculeGroup(), tspec.getPrecursorName(), tspec.
+                            getPrecursorAdduct(), p, tspec.getGroup()));
                 group.addTransitionSpecification(tspec);
             }
-            pathToGroups.put(p, group);
-            log.info("Added {} specs for file {}", pathToGroups.get(
-                p).
-                getSpecifications().
-                size(), p);
         }
-        return pathToGroups;
+
+        Map<Path, List<TransitionSpecificationGroup>> build() {
+            Map<Path, List<TransitionSpecificationGroup>> pathToGroups = new LinkedHashMap<>();
+            for (Map.Entry<Path, Map<List<String>, TransitionSpecificationGroup>> entry : groupsByFile.
+                entrySet()) {
+                Collection<TransitionSpecificationGroup> groups = entry.
+                    getValue().
+                    values();
+                pathToGroups.put(entry.getKey(), new ArrayList<>(groups));
+                log.info("Added {} specs in {} groups for file {}", groups.
+                    stream().
+                    mapToInt((group) -> group.getSpecifications().
+                        size()).
+                    sum(), groups.size(), entry.getKey());
+            }
+            return pathToGroups;
+        }
     }
 
-    private String pick(TransitionListColumnKeys key,
-        Map<TransitionListColumnKeys, String> lineElements) {
-        return lineElements.get(key);
+    private static Double parseOptionalDouble(String string) {
+        if (string == null || string.isEmpty()) {
+            return null;
+        }
+        return Double.parseDouble(string);
     }
 
     /**
      * Trims the string, removing leading and trailing whitespace, then removes
-     * leading and trailing double and single quotes. Finally trims again to
-     * remove any surviving, extraneous whitespace.
+     * leading and trailing double quotes. Finally trims again to remove any
+     * surviving, extraneous whitespace.
      *
      * @param string
      * @return
      */
-    private String cleanString(String string) {
-        return string.trim().
-            replaceAll("^[\"]+|[\"]+$", "").
+    private static String cleanString(String string) {
+        String trimmed = string.trim();
+        int start = 0;
+        int end = trimmed.length();
+        while (start < end && trimmed.charAt(start) == '"') {
+            start++;
+        }
+        while (end > start && trimmed.charAt(end - 1) == '"') {
+            end--;
+        }
+        return trimmed.substring(start, end).
             trim();
     }
 }
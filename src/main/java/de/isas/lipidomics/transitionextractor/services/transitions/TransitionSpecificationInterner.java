@@ -0,0 +1,88 @@
+/*
+ * 
+ */
+package de.isas.lipidomics.transitionextractor.services.transitions;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Range;
+import de.isas.lipidomics.transitionextractor.IonTargetMzWindows;
+import de.isas.lipidomics.transitionextractor.MsUtils;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import lombok.Getter;
+import lombok.Value;
+
+/**
+ * Canonicalizes the values of the transition specifications of one transition
+ * list, so that specifications for the same fragment in several mapping rows
+ * and files share their name strings and ppm search windows instead of holding
+ * copies of them. The returned ranges are shared and must not be modified.
+ * Instances are thread safe.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+class TransitionSpecificationInterner {
+
+    private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<>();
+    private final ConcurrentMap<WindowKey, IonTargetMzRanges> ranges = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the first equal string passed to this method.
+     *
+     * @param string the string, may be null.
+     * @return the canonical string, or null.
+     */
+    String intern(String string) {
+        if (string == null) {
+            return null;
+        }
+        String canonical = strings.putIfAbsent(string, string);
+        return canonical == null ? string : canonical;
+    }
+
+    /**
+     * Returns the ppm search windows around the given product mz, creating them
+     * on first request for a combination of product mz and ppms.
+     *
+     * @param productMz the product mz.
+     * @param ppms the ppms of the windows.
+     * @return the shared windows.
+     */
+    IonTargetMzRanges getIonTargetMzRanges(double productMz, List<Integer> ppms) {
+        return ranges.computeIfAbsent(new WindowKey(productMz, ppms),
+            (key) ->
+            new IonTargetMzRanges(productMz, ImmutableSortedMap.copyOf(MsUtils.
+                createIonTargetMzRanges(productMz, ppms))));
+    }
+
+    @Value
+    private static class WindowKey {
+
+        private final double productMz;
+        private final List<Integer> ppms;
+    }
+
+    /**
+     * The ppm search windows around one product mz in the representations used
+     * by transition specifications. They are shared by all specifications of
+     * the product mz and ppms and therefore immutable.
+     */
+    @Getter
+    static class IonTargetMzRanges {
+
+        private final Double productMz;
+        private final ImmutableSortedMap<Integer, Range<Double>> ionTargetMzRanges;
+        private final Range<Double> maximumMzRange;
+        private final IonTargetMzWindows ionTargetMzWindows;
+
+        IonTargetMzRanges(Double productMz,
+            ImmutableSortedMap<Integer, Range<Double>> ionTargetMzRanges) {
+            this.productMz = productMz;
+            this.ionTargetMzRanges = ionTargetMzRanges;
+            this.maximumMzRange = MsUtils.getMaximumMzRange(ionTargetMzRanges);
+            this.ionTargetMzWindows = MsUtils.createIonTargetMzWindows(
+                ionTargetMzRanges);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * 
+ */
+package de.isas.lipidomics.mzmltotsvconversion;
+
+import de.isas.lipidomics.transitionextractor.ConversionSupplier;
+import de.isas.lipidomics.transitionextractor.ExtractionSettings;
+import de.isas.lipidomics.transitionextractor.TransitionSpecification;
+import de.isas.lipidomics.transitionextractor.TransitionSpecificationGroup;
+import de.isas.lipidomics.transitionextractor.services.LipidTargetFinder;
+import de.isas.lipidomics.transitionextractor.services.metrics.RunMetrics;
+import de.isas.lipidomics.transitionextractor.services.output.ColumnType;
+import de.isas.lipidomics.transitionextractor.services.output.ColumnarRowReader;
+import de.isas.lipidomics.transitionextractor.services.output.ColumnarRowWriter;
+import de.isas.lipidomics.transitionextractor.services.output.RowWriter;
+import de.isas.lipidomics.transitionextractor.services.output.TsvRowWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import junit.framework.Assert;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Slf4j
+public class ColumnarRowWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> readAsTsv(InputStream inputStream) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (ColumnarRowReader reader = new ColumnarRowReader(inputStream)) {
+            lines.add(String.join("\t", reader.getColumns()));
+            String[] values = new String[reader.getColumns().
+                    size()];
+            while (reader.next()) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = reader.isNull(i) ? "" : reader.getString(i);
+                }
+                lines.add(String.join("\t", values));
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void testColumnarOutputMatchesTsv() throws Exception {
+        Path fixture = ConversionSupplierTest.fixture();
+        TransitionSpecificationGroup group = ConversionSupplierTest.createGroup(
+                fixture);
+        ExtractionSettings settings = new ExtractionSettings();
+        settings.setColumnarOutput(true);
+        ConversionSupplier supplier = new ConversionSupplier(
+                new LipidTargetFinder(), folder.getRoot().
+                        toPath(), fixture, Arrays.asList(group), false,
+                ConversionSupplierTest.CREATED, settings);
+        Path tsvFile = supplier.get().
+                get(0).
+                get();
+        List<String> expected = Files.readAllLines(tsvFile,
+                StandardCharsets.UTF_8);
+        List<String> actual = readAsTsv(Files.newInputStream(supplier.
+                getColumnarOutputFile(group)));
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testScanColumnsAreTyped() throws Exception {
+        Path fixture = ConversionSupplierTest.fixture();
+        TransitionSpecificationGroup group = ConversionSupplierTest.createGroup(
+                fixture);
+        ExtractionSettings settings = new ExtractionSettings();
+        settings.setColumnarOutput(true);
+        ConversionSupplier supplier = new ConversionSupplier(
+                new LipidTargetFinder(), folder.getRoot().
+                        toPath(), fixture, Arrays.asList(group), false,
+                ConversionSupplierTest.CREATED, settings);
+        supplier.get();
+        try (ColumnarRowReader reader = new ColumnarRowReader(Files.
+                newInputStream(supplier.getColumnarOutputFile(group)))) {
+            Assert.assertTrue(reader.next());
+            List<String> columns = reader.getColumns();
+            Assert.assertEquals(ColumnType.INT, reader.getType(columns.
+                    indexOf("scanNumber")));
+            Assert.assertEquals(ColumnType.DOUBLE, reader.getType(columns.
+                    indexOf("retentionTime")));
+            Assert.assertEquals(ColumnType.DOUBLE, reader.getType(columns.
+                    indexOf("precursorMz[0]")));
+            Assert.assertEquals(ColumnType.TEXT, reader.getType(columns.
+                    indexOf("id")));
+            Assert.assertEquals(ColumnType.STRING, reader.getType(columns.
+                    indexOf("instrument")));
+            Assert.assertEquals(36.0, reader.getDouble(columns.indexOf(
+                    "retentionTime")));
+        }
+    }
+
+    @Test
+    public void testMixedColumnTypesAcrossRowGroups() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (RowWriter writer = new ColumnarRowWriter(bytes, 3)) {
+            // a is stored as text in the row group with mixed values
+            writer.writeHeader(Arrays.asList("a", "b"), Arrays.asList(
+                    ColumnType.TEXT, ColumnType.STRING));
+            Object[][] rows = new Object[][]{
+                {null, "x"}, {1.5d, "y"}, {2.5f, "x"},
+                {7, null}, {"z", "y"}, {null, null},
+                {0.25d, "w"}};
+            for (Object[] row : rows) {
+                writer.startRow();
+                for (Object value : row) {
+                    if (value == null) {
+                        writer.appendEmpty();
+                    } else if (value instanceof Double) {
+                        writer.append(((Double) value).doubleValue());
+                    } else if (value instanceof Float) {
+                        writer.append(((Float) value).floatValue());
+                    } else if (value instanceof Integer) {
+                        writer.append(((Integer) value).intValue());
+                    } else {
+                        writer.append((String) value);
+                    }
+                }
+                writer.endRow();
+            }
+        }
+        Assert.assertEquals(Arrays.asList("a\tb", "\tx", "1.5\ty", "2.5\tx",
+                "7\t", "z\ty", "\t", "0.25\tw"), readAsTsv(
+                new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @Test
+    public void testSizeAndThroughputComparedToTsv() throws Exception {
+        TransitionSpecificationGroup group = ConversionSupplierTest.createGroup(
+                ConversionSupplierTest.fixture());
+        List<String> lines = Files.readAllLines(extractTsv(group),
+                StandardCharsets.UTF_8);
+        // use the scan column values of the first row for all rows
+        int nScanColumns = Arrays.asList(lines.get(0).
+                split("\t")).
+                indexOf(LipidTargetFinder.TARGET_COLUMNS.get(0));
+        List<String> scanColumns = Arrays.asList(lines.get(1).
+                split("\t")).
+                subList(0, nScanColumns);
+        int nRows = 50000;
+        ByteArrayOutputStream tsv = new ByteArrayOutputStream();
+        long tsvNanos = write(new TsvRowWriter(new OutputStreamWriter(tsv,
+                StandardCharsets.UTF_8)), group, scanColumns, nRows);
+        ByteArrayOutputStream columnar = new ByteArrayOutputStream();
+        long columnarNanos = write(new ColumnarRowWriter(columnar), group,
+                scanColumns, nRows);
+        log.info(String.format(
+                "Wrote %d rows: tsv %d bytes in %.1f ms, columnar %d bytes in %.1f ms (%.1f%% of tsv size)",
+                nRows, tsv.size(), tsvNanos / 1.0e6, columnar.size(),
+                columnarNanos / 1.0e6, 100.0 * columnar.size() / tsv.size()));
+        Assert.assertTrue("Columnar output is not smaller than a fifth of the tsv output", columnar.
+                size() < tsv.size() / 5);
+        long readStart = System.nanoTime();
+        List<String> columnarLines = readAsTsv(new ByteArrayInputStream(
+                columnar.toByteArray()));
+        log.info(String.format("Read %d columnar rows in %.1f ms",
+                columnarLines.size() - 1, (System.nanoTime() - readStart) / 1.0e6));
+        Assert.assertEquals(new String(tsv.toByteArray(),
+                StandardCharsets.UTF_8).
+                split(System.lineSeparator()).length, columnarLines.size());
+    }
+
+    private Path extractTsv(TransitionSpecificationGroup group) throws Exception {
+        return ConversionSupplierTest.extractGroups(folder.newFolder().
+                toPath(), group.getTargetFile(), Arrays.asList(group),
+                new ExtractionSettings(), new RunMetrics()).
+                get(0);
+    }
+
+    private long write(RowWriter writer, TransitionSpecificationGroup group,
+            List<String> scanColumns, int nRows) throws IOException {
+        LipidTargetFinder ltf = new LipidTargetFinder();
+        Random random = new Random(1234L);
+        List<String> header = new ArrayList<>();
+        for (int i = 0; i < scanColumns.size(); i++) {
+            header.add("column" + i);
+        }
+        header.addAll(LipidTargetFinder.TARGET_COLUMNS);
+        long start = System.nanoTime();
+        try (RowWriter rowWriter = writer) {
+            rowWriter.writeHeader(header);
+            for (int i = 0; i < nRows; i++) {
+                TransitionSpecification spec = group.getSpecifications().
+                        get(i % group.getSpecifications().
+                                size());
+                rowWriter.startRow();
+                for (int j = 0; j < scanColumns.size(); j++) {
+                    // the scan number changes every 20 rows
+                    rowWriter.append(j == 3 ? Integer.toString(i / 20) : scanColumns.
+                            get(j));
+                }
+                double mzValue = spec.getCalculatedMass() * (1.0 + (random.
+                        nextDouble() - 0.5) * 1.0e-5);
+                ltf.writeTargetColumns(rowWriter, spec, i % 2, mzValue,
+                        random.nextFloat() * 1.0e6f, 5.0e6f);
+                rowWriter.endRow();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
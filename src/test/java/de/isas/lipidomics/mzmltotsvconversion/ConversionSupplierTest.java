@@ -0,0 +1,361 @@
+/*
+ * 
+ */
+package de.isas.lipidomics.mzmltotsvconversion;
+
+import com.google.common.collect.ImmutableSortedMap;
+import de.isas.lipidomics.transitionextractor.ConversionSupplier;
+import de.isas.lipidomics.transitionextractor.ExtractionSettings;
+import de.isas.lipidomics.transitionextractor.MsUtils;
+import de.isas.lipidomics.transitionextractor.PeakCache;
+import de.isas.lipidomics.transitionextractor.ScanFilter;
+import de.isas.lipidomics.transitionextractor.TransitionSpecification;
+import de.isas.lipidomics.transitionextractor.TransitionSpecificationGroup;
+import de.isas.lipidomics.transitionextractor.services.LipidTargetFinder;
+import de.isas.lipidomics.transitionextractor.services.MappingSpecification;
+import de.isas.lipidomics.transitionextractor.services.mapping.TransitionMappingParser;
+import de.isas.lipidomics.transitionextractor.services.metrics.RunMetrics;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticDataGenerator;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticDataSettings;
+import de.isas.lipidomics.transitionextractor.services.transitions.TransitionListParser;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import junit.framework.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class ConversionSupplierTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public static final LocalDateTime CREATED = LocalDateTime.of(2019, 6, 1, 12, 0);
+
+    public static TransitionSpecificationGroup createGroup(Path mzMlFile) {
+        return createGroup(mzMlFile, "QEx03_NM", 482.4567575);
+    }
+
+    public static TransitionSpecificationGroup createGroup(Path mzMlFile,
+            String groupName, Double precursorMz) {
+        MappingSpecification mapping = MappingSpecification.builder().
+                instrument("MS:1002523").
+                moleculeGroup("Cer").
+                precursorName("Cer 18:1;2/12:0").
+                precursorAdduct("[M+H]1+").
+                file(mzMlFile).
+                ppms(Arrays.asList(5, 10)).
+                group(groupName).
+                minDataPoints(50).
+                build();
+        TransitionSpecificationGroup group = new TransitionSpecificationGroup(
+                mapping.getInstrument(), mapping.getMoleculeGroup(), mapping.
+                getPrecursorName(), mapping.getPrecursorAdduct(), mzMlFile,
+                mapping.getGroup());
+        String[][] fragments = new String[][]{
+            {"NL(H2O)", "[M+H]1+", "464.4462067101"},
+            {"W'", "", "282.2791413101"},
+            {"W''", "", "264.2685766101"},
+            {"W' - CHO", "", "252.2685766101"}
+        };
+        for (String[] fragment : fragments) {
+            double mz = Double.parseDouble(fragment[2]);
+            group.addTransitionSpecification(TransitionSpecification.builder().
+                    file(mzMlFile).
+                    moleculeGroup(mapping.getMoleculeGroup()).
+                    precursorName(mapping.getPrecursorName()).
+                    precursorMz(precursorMz).
+                    fragmentName(fragment[0]).
+                    fragmentAdduct(fragment[1]).
+                    calculatedMass(mz).
+                    ionTargetMzRanges(ImmutableSortedMap.copyOf(MsUtils.
+                            createIonTargetMzRanges(mz, mapping.getPpms()))).
+                    maximumMzRange(MsUtils.getMaximumMzRange(MsUtils.
+                            createIonTargetMzRanges(mz, mapping.getPpms()))).
+                    mappingSpecification(mapping).
+                    build());
+        }
+        return group;
+    }
+
+    public static Path fixture() throws Exception {
+        return Paths.get(ConversionSupplierTest.class.getResource(
+                "/ce-series-fixture.mzML").
+                toURI());
+    }
+
+    /**
+     * Extracts the given groups from the mzML file and asserts that the
+     * output file of every group was written.
+     *
+     * @return the output files, in the order of the groups.
+     */
+    public static List<Path> extractGroups(Path outputDir, Path mzMlFile,
+            List<TransitionSpecificationGroup> groups,
+            ExtractionSettings settings, RunMetrics metrics) throws Exception {
+        List<Optional<Path>> result = new ConversionSupplier(
+                new LipidTargetFinder(), outputDir, mzMlFile, groups, false,
+                CREATED, settings, metrics).get();
+        Assert.assertEquals(groups.size(), result.size());
+        List<Path> outputFiles = new ArrayList<>(result.size());
+        for (Optional<Path> outputFile : result) {
+            Assert.assertTrue(outputFile.isPresent());
+            outputFiles.add(outputFile.get());
+        }
+        return outputFiles;
+    }
+
+    /**
+     * Extracts the group of {@link #createGroup(Path)} from the mzML file.
+     *
+     * @return the lines of the output file.
+     */
+    public static List<String> extractLines(Path outputDir, Path mzMlFile,
+            ExtractionSettings settings) throws Exception {
+        return Files.readAllLines(extractGroups(outputDir, mzMlFile, Arrays.
+                asList(createGroup(mzMlFile)), settings, new RunMetrics()).
+                get(0), StandardCharsets.UTF_8);
+    }
+
+    private List<String> extract(String outputDir, ExtractionSettings settings) throws Exception {
+        return extractLines(folder.newFolder(outputDir).
+                toPath(), fixture(), settings);
+    }
+
+    @Test
+    public void testExtractMaterialized() throws Exception {
+        List<String> lines = extract("materialized", new ExtractionSettings());
+        // header and one line per in-range peak and ppm window of the 5 MS2 scans
+        Assert.assertTrue(lines.size() > 10);
+        Assert.assertTrue(lines.get(0).
+                startsWith("instrument\tlocalDateTimeCreated\torigin\tscanNumber"));
+        for (String line : lines.subList(1, lines.size())) {
+            Assert.assertTrue(line, line.contains("\t2\t"));
+        }
+    }
+
+    @Test
+    public void testStreamingMatchesMaterialized() throws Exception {
+        ExtractionSettings streaming = new ExtractionSettings();
+        streaming.setStreaming(true);
+        Assert.assertEquals(extract("materialized", new ExtractionSettings()),
+                extract("streaming", streaming));
+    }
+
+    @Test
+    public void testMappedDecodingMatchesMaterialized() throws Exception {
+        List<String> expected = extract("materialized", new ExtractionSettings());
+        ExtractionSettings mapped = new ExtractionSettings();
+        mapped.setMappedDecoding(true);
+        Assert.assertEquals(expected, extract("mapped", mapped));
+        mapped.setStreaming(true);
+        Assert.assertEquals(expected, extract("mappedStreaming", mapped));
+    }
+
+    private List<byte[]> extractSynthetic(Path dataDir,
+            ExtractionSettings settings) throws Exception {
+        Map<Path, List<TransitionSpecificationGroup>> groups = new TransitionListParser().
+                parse(dataDir.resolve(SyntheticDataGenerator.TRANSITION_LIST_FILE),
+                        dataDir, new TransitionMappingParser().parse(dataDir.
+                                resolve(SyntheticDataGenerator.MAPPING_FILE),
+                                dataDir));
+        Map.Entry<Path, List<TransitionSpecificationGroup>> entry = groups.
+                entrySet().
+                iterator().
+                next();
+        List<byte[]> outputs = new ArrayList<>();
+        for (Optional<Path> outputFile : new ConversionSupplier(
+                new LipidTargetFinder(), folder.newFolder().
+                        toPath(), entry.getKey(), entry.getValue(), false,
+                CREATED, settings).get()) {
+            outputs.add(Files.readAllBytes(outputFile.get()));
+        }
+        return outputs;
+    }
+
+    @Test
+    public void testParallelMatchingMatchesSequential() throws Exception {
+        SyntheticDataSettings syntheticSettings = new SyntheticDataSettings();
+        syntheticSettings.setFiles(1);
+        syntheticSettings.setPrecursors(30);
+        syntheticSettings.setNoisePeaksPerScan(100);
+        Path dataDir = folder.newFolder("synthetic").
+                toPath();
+        new SyntheticDataGenerator(syntheticSettings).writeDataset(dataDir);
+        List<byte[]> expected = extractSynthetic(dataDir,
+                new ExtractionSettings());
+        ExtractionSettings parallel = new ExtractionSettings();
+        parallel.setMatchThreads(3);
+        for (int i = 0; i < 4; i++) {
+            if (i == 1) {
+                parallel.setMappedDecoding(true);
+            } else if (i == 2) {
+                parallel.setStreaming(true);
+            } else if (i == 3) {
+                parallel.setPeakCache(PeakCache.open(folder.newFolder("cache").
+                        toPath(), PeakCache.DEFAULT_MAX_BYTES));
+            }
+            List<byte[]> outputs = extractSynthetic(dataDir, parallel);
+            Assert.assertEquals(expected.size(), outputs.size());
+            for (int j = 0; j < expected.size(); j++) {
+                Assert.assertTrue(parallel.toString(), Arrays.equals(expected.
+                        get(j), outputs.get(j)));
+            }
+        }
+    }
+
+    @Test
+    public void testParseOnceForAllGroupsOfFile() throws Exception {
+        List<TransitionSpecificationGroup> groups = Arrays.asList(createGroup(
+                fixture(), "QEx03_NM", 482.4567575), createGroup(fixture(),
+                "QEx03_B", 482.4567575));
+        ConversionSupplier supplier = new ConversionSupplier(
+                new LipidTargetFinder(), folder.newFolder("groups").
+                        toPath(), fixture(), groups, false, CREATED,
+                new ExtractionSettings());
+        List<Optional<Path>> result = supplier.get();
+        Assert.assertEquals(2, result.size());
+        List<String> expected = extract("single", new ExtractionSettings());
+        for (int i = 0; i < groups.size(); i++) {
+            Path outputFile = result.get(i).
+                    get();
+            Assert.assertEquals(supplier.getOutputFile(groups.get(i)),
+                    outputFile);
+            List<String> lines = Files.readAllLines(outputFile,
+                    StandardCharsets.UTF_8);
+            Assert.assertEquals(expected.size(), lines.size());
+            int groupColumn = Arrays.asList(lines.get(0).
+                    split("\t")).
+                    indexOf("group");
+            Assert.assertEquals(groups.get(i).
+                    getGroup(), lines.get(1).
+                            split("\t")[groupColumn]);
+        }
+    }
+
+    @Test
+    public void testPrecursorIsolationFilter() throws Exception {
+        List<TransitionSpecificationGroup> groups = Arrays.asList(createGroup(
+                fixture(), "QEx03_NM", 482.4567575), createGroup(fixture(),
+                "QEx03_B", 700.5), createGroup(fixture(), "QEx03_C", null));
+        ExtractionSettings settings = new ExtractionSettings();
+        settings.setPrecursorIsolationFilter(true);
+        ConversionSupplier supplier = new ConversionSupplier(
+                new LipidTargetFinder(), folder.newFolder("filtered").
+                        toPath(), fixture(), groups, false, CREATED,
+                settings);
+        List<Optional<Path>> result = supplier.get();
+        List<String> expected = extract("unfiltered", new ExtractionSettings());
+        Assert.assertEquals(expected.size(), Files.readAllLines(result.get(0).
+                get(), StandardCharsets.UTF_8).
+                size());
+        // no scan was isolated on the second precursor
+        Assert.assertTrue(Files.readAllLines(result.get(1).
+                get(), StandardCharsets.UTF_8).
+                isEmpty());
+        // groups without precursor m/z are matched against all scans
+        Assert.assertEquals(expected.size(), Files.readAllLines(result.get(2).
+                get(), StandardCharsets.UTF_8).
+                size());
+    }
+
+    private List<String> getColumn(List<String> lines, String column) {
+        int index = Arrays.asList(lines.get(0).
+                split("\t")).
+                indexOf(column);
+        return lines.subList(1, lines.size()).
+                stream().
+                map((line) -> line.split("\t")[index]).
+                collect(Collectors.toList());
+    }
+
+    @Test
+    public void testGlobalScanFilter() throws Exception {
+        List<String> expected = extract("unfiltered", new ExtractionSettings());
+        ExtractionSettings settings = new ExtractionSettings();
+        settings.getScanFilter().
+                setMinCollisionEnergy(30.0d);
+        settings.getScanFilter().
+                setMaxRetentionTime(60.0d);
+        List<String> lines = extract("filtered", settings);
+        Assert.assertEquals(expected.get(0), lines.get(0));
+        Assert.assertEquals(Arrays.asList("30.0", "40.0"), getColumn(lines,
+                "precursorCollisionEnergy").
+                stream().
+                distinct().
+                collect(Collectors.toList()));
+        Assert.assertEquals(getColumn(expected, "precursorCollisionEnergy").
+                stream().
+                filter((ce) -> ce.equals("30.0") || ce.equals("40.0")).
+                count(), lines.size() - 1);
+
+        settings.getScanFilter().
+                setPolarity("negative");
+        Assert.assertTrue(extract("negative", settings).
+                isEmpty());
+    }
+
+    @Test
+    public void testConflictingSpecificationsAreRejected() throws Exception {
+        TransitionSpecificationGroup group = createGroup(fixture());
+        group.addTransitionSpecification(createGroup(fixture()).
+                getSpecifications().
+                get(0));
+        TransitionSpecification conflicting = createGroup(fixture(),
+                "QEx03_NM", 482.5).
+                getSpecifications().
+                get(0);
+        try {
+            group.addTransitionSpecification(conflicting);
+            Assert.fail("Conflicting precursor m/z was not rejected");
+        } catch (IllegalArgumentException ex) {
+            Assert.assertTrue(ex.getMessage().
+                    startsWith("Precursor m/z"));
+        }
+    }
+
+    @Test
+    public void testGroupScanFilterOverridesGlobal() throws Exception {
+        TransitionSpecificationGroup filtered = createGroup(fixture(),
+                "QEx03_B", 482.4567575);
+        ScanFilter groupFilter = new ScanFilter();
+        groupFilter.setMinCollisionEnergy(50.0d);
+        groupFilter.setPolarity("POSITIVE");
+        filtered.setScanFilter(groupFilter);
+        ExtractionSettings settings = new ExtractionSettings();
+        settings.getScanFilter().
+                setMinCollisionEnergy(20.0d);
+        List<TransitionSpecificationGroup> groups = Arrays.asList(createGroup(
+                fixture()), filtered);
+        List<Optional<Path>> result = new ConversionSupplier(
+                new LipidTargetFinder(), folder.newFolder("groups").
+                        toPath(), fixture(), groups, false, CREATED,
+                settings).get();
+        List<String> global = Files.readAllLines(result.get(0).
+                get(), StandardCharsets.UTF_8);
+        Assert.assertFalse(getColumn(global, "precursorCollisionEnergy").
+                contains("10.0"));
+        Assert.assertTrue(getColumn(global, "precursorCollisionEnergy").
+                contains("20.0"));
+        Assert.assertEquals(Arrays.asList("50.0"), getColumn(Files.
+                readAllLines(result.get(1).
+                        get(), StandardCharsets.UTF_8),
+                "precursorCollisionEnergy").
+                stream().
+                distinct().
+                collect(Collectors.toList()));
+    }
+}
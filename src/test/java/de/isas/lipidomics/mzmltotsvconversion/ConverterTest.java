@@ -0,0 +1,72 @@
+/*
+ *
+ */
+package de.isas.lipidomics.mzmltotsvconversion;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.isas.lipidomics.transitionextractor.Converter;
+import de.isas.lipidomics.transitionextractor.services.LipidTargetFinder;
+import de.isas.lipidomics.transitionextractor.services.metrics.GroupMetrics;
+import de.isas.lipidomics.transitionextractor.services.metrics.RunMetrics;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticDataGenerator;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticDataSettings;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class ConverterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGroupsBelowMinDataPointsAreNotTrained() throws Exception {
+        SyntheticDataSettings settings = new SyntheticDataSettings();
+        settings.setPrecursors(2);
+        Path dataDir = folder.newFolder().
+                toPath();
+        new SyntheticDataGenerator(settings).writeDataset(dataDir);
+        // more data points than any fragment can have, R is never started
+        Path mappingFile = dataDir.resolve(SyntheticDataGenerator.MAPPING_FILE);
+        List<String> lines = Files.readAllLines(mappingFile,
+                StandardCharsets.UTF_8);
+        List<String> mapping = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            mapping.add(lines.get(i) + "\t" + (i == 0 ? "MinDataPoints" : "1000"));
+        }
+        Files.write(mappingFile, mapping, StandardCharsets.UTF_8);
+        Path outputDir = dataDir.resolve("output");
+        Converter.Arguments arguments = new Converter.Arguments(
+                new LipidTargetFinder(), dataDir, outputDir, dataDir.resolve(
+                SyntheticDataGenerator.TRANSITION_LIST_FILE), mappingFile,
+                "png", false, 0.0d, null, null, 10);
+        arguments.setExtractionCache(true);
+        // the second run reuses the extraction and keeps the model status
+        for (String extraction : new String[]{GroupMetrics.EXTRACTED, GroupMetrics.REUSED}) {
+            new Converter(arguments).convert(1, false);
+            JsonNode groups = new ObjectMapper().
+                    readTree(outputDir.resolve(RunMetrics.JSON_REPORT_FILE).
+                            toFile()).
+                    get("groups");
+            Assert.assertEquals(2, groups.size());
+            for (JsonNode group : groups) {
+                Assert.assertEquals(extraction, group.get("extraction").
+                        asText());
+                Assert.assertEquals(GroupMetrics.INSUFFICIENT_DATA, group.
+                        get("model").
+                        asText());
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *
+ */
+package de.isas.lipidomics.mzmltotsvconversion;
+
+import de.isas.lipidomics.transitionextractor.ExtractionCache;
+import de.isas.lipidomics.transitionextractor.ExtractionSettings;
+import de.isas.lipidomics.transitionextractor.TransitionSpecificationGroup;
+import de.isas.lipidomics.transitionextractor.services.metrics.GroupMetrics;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import junit.framework.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class ExtractionCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testExtractionKey() throws Exception {
+        Path outputDir = folder.newFolder("output").
+                toPath();
+        ExtractionCache cache = ExtractionCache.load(outputDir);
+        Path mzMl = ConversionSupplierTest.fixture();
+        TransitionSpecificationGroup group = ConversionSupplierTest.createGroup(
+                mzMl);
+        ExtractionSettings settings = new ExtractionSettings();
+        String key = cache.getExtractionKey(mzMl, group, false, settings);
+        Assert.assertEquals(key, cache.getExtractionKey(mzMl,
+                ConversionSupplierTest.createGroup(mzMl), false, settings));
+        Assert.assertFalse(key.equals(cache.getExtractionKey(mzMl, group, true,
+                settings)));
+        Assert.assertFalse(key.equals(cache.getExtractionKey(mzMl,
+                ConversionSupplierTest.createGroup(mzMl, "QEx03_NM", 482.5),
+                false, settings)));
+        Path copy = folder.getRoot().
+                toPath().
+                resolve("copy.mzML");
+        Files.copy(mzMl, copy);
+        Files.write(copy, Arrays.asList("<!-- changed -->"),
+                StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+        Assert.assertFalse(cache.getFileDigest(mzMl).
+                equals(cache.getFileDigest(copy)));
+    }
+
+    @Test
+    public void testHitsAfterReload() throws Exception {
+        Path outputDir = folder.newFolder("output").
+                toPath();
+        Path outputFile = outputDir.resolve("group").
+                resolve("group_fip.tsv");
+        Files.createDirectories(outputFile.getParent());
+        Files.write(outputFile, Arrays.asList("header"), StandardCharsets.UTF_8);
+        ExtractionCache cache = ExtractionCache.load(outputDir);
+        Assert.assertFalse(cache.isExtracted(outputFile, "a"));
+        cache.putExtracted(outputFile, "a");
+        String modelKey = cache.getModelKey(outputFile, "png");
+        Assert.assertFalse(cache.isModelled(outputFile, modelKey));
+        cache.putModelled(outputFile, modelKey, GroupMetrics.TRAINED);
+        cache.save();
+
+        ExtractionCache reloaded = ExtractionCache.load(outputDir);
+        Assert.assertTrue(reloaded.isExtracted(outputFile, "a"));
+        Assert.assertFalse(reloaded.isExtracted(outputFile, "b"));
+        Assert.assertTrue(reloaded.isModelled(outputFile, reloaded.getModelKey(
+                outputFile, "png")));
+        Assert.assertFalse(reloaded.isModelled(outputFile, reloaded.
+                getModelKey(outputFile, "svg")));
+        Assert.assertEquals(GroupMetrics.TRAINED, reloaded.getModelStatus(
+                outputFile));
+        Assert.assertEquals(1, reloaded.getExtractionHits());
+        Assert.assertEquals(1, reloaded.getExtractionMisses());
+        Assert.assertEquals(1, reloaded.getModelHits());
+        Assert.assertEquals(1, reloaded.getModelMisses());
+        // re-extraction invalidates the model
+        reloaded.putExtracted(outputFile, "b");
+        Assert.assertFalse(reloaded.isModelled(outputFile, reloaded.getModelKey(
+                outputFile, "png")));
+    }
+
+    @Test
+    public void testDeletedModelFilesAreRetrained() throws Exception {
+        Path outputDir = folder.newFolder("output").
+                toPath();
+        Path outputFile = outputDir.resolve("group").
+                resolve("group_fip.tsv");
+        Files.createDirectories(outputFile.getParent());
+        Files.write(outputFile, Arrays.asList("header"), StandardCharsets.UTF_8);
+        Path modelFile = outputFile.resolveSibling("group-run.out");
+        Files.write(modelFile, Arrays.asList("done"), StandardCharsets.UTF_8);
+        ExtractionCache cache = ExtractionCache.load(outputDir);
+        cache.putExtracted(outputFile, "a");
+        String modelKey = cache.getModelKey(outputFile, "png");
+        cache.putModelled(outputFile, modelKey, GroupMetrics.TRAINED);
+        Assert.assertTrue(cache.isModelled(outputFile, modelKey));
+        Files.delete(modelFile);
+        Assert.assertFalse(cache.isModelled(outputFile, modelKey));
+    }
+}
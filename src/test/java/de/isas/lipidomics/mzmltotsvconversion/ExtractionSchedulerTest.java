@@ -0,0 +1,135 @@
+/*
+ *
+ */
+package de.isas.lipidomics.mzmltotsvconversion;
+
+import de.isas.lipidomics.transitionextractor.ConversionSupplier;
+import de.isas.lipidomics.transitionextractor.ExtractionScheduler;
+import de.isas.lipidomics.transitionextractor.ExtractionSettings;
+import de.isas.lipidomics.transitionextractor.PeakCache;
+import de.isas.lipidomics.transitionextractor.TransitionSpecificationGroup;
+import de.isas.lipidomics.transitionextractor.services.LipidTargetFinder;
+import de.isas.lipidomics.transitionextractor.services.metrics.RunMetrics;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class ExtractionSchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testChunkedExtractionMatchesUnchunked() throws Exception {
+        assertChunkedExtractionMatchesUnchunked(ConversionSupplierTest.fixture());
+    }
+
+    @Test
+    public void testChunkedExtractionKeepsColumnsOfLaterScans() throws Exception {
+        // the first MS2 scan of the second of two chunks has no base peak m/z
+        Path mzMl = folder.getRoot().
+                toPath().
+                resolve("missing-base-peak.mzML");
+        String fixture = new String(Files.readAllBytes(ConversionSupplierTest.
+                fixture()), StandardCharsets.UTF_8);
+        String basePeak = "<cvParam cvRef=\"MS\" accession=\"MS:1000504\" name=\"base peak m/z\" value=\"464.4461\" unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"/>";
+        Assert.assertTrue(fixture.contains(basePeak));
+        Files.write(mzMl, fixture.replace(basePeak, "").
+                getBytes(StandardCharsets.UTF_8));
+        List<String> lines = assertChunkedExtractionMatchesUnchunked(mzMl);
+        Assert.assertTrue(Arrays.asList(lines.get(0).
+                split("\t")).
+                contains("basePeakMz"));
+    }
+
+    private List<String> assertChunkedExtractionMatchesUnchunked(Path mzMl) throws Exception {
+        TransitionSpecificationGroup group = ConversionSupplierTest.
+                createGroup(mzMl);
+        ExtractionSettings settings = new ExtractionSettings();
+        settings.setPeakCache(PeakCache.open(folder.newFolder().
+                toPath(), PeakCache.DEFAULT_MAX_BYTES));
+        RunMetrics expectedMetrics = new RunMetrics();
+        Path expected = ConversionSupplierTest.extractGroups(folder.newFolder().
+                toPath(), mzMl, Arrays.asList(group), settings,
+                expectedMetrics).
+                get(0);
+        byte[] expectedBytes = Files.readAllBytes(expected);
+        ExtractionScheduler scheduler = new ExtractionScheduler(2);
+        try {
+            // the fixture has 5 MS2 scans, 7 chunks include empty ones
+            for (int chunks : new int[]{2, 3, 7}) {
+                RunMetrics metrics = new RunMetrics();
+                ConversionSupplier conversion = new ConversionSupplier(
+                        new LipidTargetFinder(), folder.newFolder().
+                                toPath(), mzMl, Arrays.asList(group), false,
+                        ConversionSupplierTest.CREATED, settings, metrics);
+                List<Optional<Path>> result = conversion.mergeChunks(
+                        scheduler.invokeAll(1, conversion.forChunks(chunks)));
+                Assert.assertEquals(conversion.getOutputFile(group), result.
+                        get(0).
+                        get());
+                Assert.assertEquals(new String(expectedBytes,
+                        StandardCharsets.UTF_8), new String(Files.readAllBytes(
+                        result.get(0).
+                                get()), StandardCharsets.UTF_8));
+                // only the merged output file remains
+                Assert.assertEquals(1, Files.list(result.get(0).
+                        get().
+                        getParent()).
+                        count());
+                Assert.assertEquals(expectedMetrics.getGroupMetrics(group).
+                        getMaxFragmentDataPoints(), metrics.getGroupMetrics(
+                        group).
+                        getMaxFragmentDataPoints());
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+        return Files.readAllLines(expected, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testLongestFirst() throws Exception {
+        ExtractionScheduler scheduler = new ExtractionScheduler(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Long> order = Collections.synchronizedList(new ArrayList<>());
+        scheduler.execute(0, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().
+                        interrupt();
+            }
+        });
+        started.await();
+        for (long cost : new long[]{1, 3, 2, 3}) {
+            scheduler.execute(cost, () -> order.add(cost));
+        }
+        release.countDown();
+        scheduler.shutdown();
+        Assert.assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList(3L, 3L, 2L, 1L), order);
+
+        Assert.assertEquals(1, ExtractionScheduler.getChunks(10, 100, 8, 1));
+        Assert.assertEquals(1, ExtractionScheduler.getChunks(10, 100, 8, 4));
+        Assert.assertEquals(4, ExtractionScheduler.getChunks(100, 100, 8, 4));
+        Assert.assertEquals(3, ExtractionScheduler.getChunks(60, 100, 4, 8));
+    }
+}
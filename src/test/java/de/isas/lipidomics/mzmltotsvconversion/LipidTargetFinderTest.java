@@ -0,0 +1,203 @@
+/*
+ * 
+ */
+package de.isas.lipidomics.mzmltotsvconversion;
+
+import de.isas.lipidomics.transitionextractor.IonTargetMzWindows;
+import de.isas.lipidomics.transitionextractor.MzRangeIndex;
+import de.isas.lipidomics.transitionextractor.SpectrumMatches;
+import de.isas.lipidomics.transitionextractor.TransitionSpecification;
+import de.isas.lipidomics.transitionextractor.TransitionSpecificationGroup;
+import de.isas.lipidomics.transitionextractor.services.LipidTargetFinder;
+import de.isas.lipidomics.transitionextractor.services.mapping.TransitionMappingParser;
+import de.isas.lipidomics.transitionextractor.services.output.RowWriter;
+import de.isas.lipidomics.transitionextractor.services.output.TsvRowWriter;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticDataGenerator;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticDataSettings;
+import de.isas.lipidomics.transitionextractor.services.transitions.TransitionListParser;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import junit.framework.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class LipidTargetFinderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMatchIsEquivalentToApply() throws Exception {
+        LipidTargetFinder ltf = new LipidTargetFinder();
+        SpectrumMatches matches = new SpectrumMatches();
+        Random random = new Random(1234L);
+        for (TransitionSpecification spec : ConversionSupplierTest.createGroup(
+                ConversionSupplierTest.fixture()).
+                getSpecifications()) {
+            double calculatedMass = spec.getCalculatedMass();
+            for (int i = 0; i < 200; i++) {
+                // offsets of up to +/- 15 ppm, every tenth peak without intensity
+                double mzValue = calculatedMass + calculatedMass * (random.
+                        nextDouble() - 0.5) * 3.0e-5;
+                float intensityValue = i % 10 == 0 ? 0.0f : random.nextFloat() * 1000.0f;
+                for (boolean stopAtSmallestPpm : new boolean[]{false, true}) {
+                    Map<String, String> scanDefaults = new LinkedHashMap<>();
+                    List<String> expected = new ArrayList<>();
+                    for (Map<String, String> line : ltf.apply(spec, mzValue,
+                            intensityValue, 5000.0f, scanDefaults,
+                            stopAtSmallestPpm)) {
+                        expected.add(String.join("\t", line.values()));
+                    }
+                    StringWriter actual = new StringWriter();
+                    RowWriter row = new TsvRowWriter(actual);
+                    List<TransitionSpecification> specs = Arrays.asList(spec);
+                    ltf.match(specs, MzRangeIndex.create(specs),
+                            new double[]{mzValue}, new float[]{intensityValue},
+                            1, true, stopAtSmallestPpm, matches);
+                    int nMatches = matches.size();
+                    for (int k = 0; k < Math.max(1, nMatches); k++) {
+                        row.startRow();
+                        row.append(spec.getInstrument());
+                        row.append(spec.getGroup());
+                        ltf.writeTargetColumns(row, spec, nMatches == 0 ? -1 : matches.
+                                getWindow(k), mzValue, intensityValue, 5000.0f);
+                        row.endRow();
+                    }
+                    Assert.assertEquals(expected, Arrays.asList(actual.
+                            toString().
+                            split(System.lineSeparator())));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSpectrumMatchIsEquivalentToPeakMatch() throws Exception {
+        LipidTargetFinder ltf = new LipidTargetFinder();
+        SpectrumMatches spectrumMatches = new SpectrumMatches();
+        List<TransitionSpecification> specs = new ArrayList<>();
+        for (TransitionSpecificationGroup group : createSyntheticGroups()) {
+            specs.addAll(group.getSpecifications());
+        }
+        MzRangeIndex mzRangeIndex = MzRangeIndex.create(specs);
+        Random random = new Random(1234L);
+        // few peaks are looked up in the index, many are searched per spec
+        for (int peakCount : new int[]{20, 2000}) {
+            double[] mzValues = new double[peakCount];
+            float[] intensityValues = new float[peakCount];
+            for (int j = 0; j < peakCount; j++) {
+                double calculatedMass = specs.get(random.nextInt(specs.size())).
+                        getCalculatedMass();
+                // peaks within +/- 15 ppm of a fragment, or noise
+                mzValues[j] = j % 3 == 0 ? 100 + random.nextDouble() * 900 : calculatedMass + calculatedMass * (random.
+                        nextDouble() - 0.5) * 3.0e-5;
+                intensityValues[j] = j % 10 == 0 ? 0.0f : random.nextFloat() * 1000.0f;
+            }
+            for (boolean sorted : new boolean[]{false, true}) {
+                if (sorted) {
+                    sortPeaks(mzValues, intensityValues);
+                }
+                for (boolean stopAtSmallestPpm : new boolean[]{false, true}) {
+                    List<String> expected = new ArrayList<>();
+                    for (int i = 0; i < specs.size(); i++) {
+                        TransitionSpecification spec = specs.get(i);
+                        for (int j = 0; j < peakCount; j++) {
+                            if (!spec.isInRange(mzValues[j])) {
+                                continue;
+                            }
+                            List<Integer> windows = matchPeak(spec,
+                                    mzValues[j], intensityValues[j],
+                                    stopAtSmallestPpm);
+                            if (windows.isEmpty()) {
+                                windows.add(-1);
+                            }
+                            for (Integer window : windows) {
+                                expected.add(i + " " + window + " " + mzValues[j] + " " + intensityValues[j]);
+                            }
+                        }
+                    }
+                    ltf.match(specs, mzRangeIndex, mzValues, intensityValues,
+                            peakCount, sorted, stopAtSmallestPpm,
+                            spectrumMatches);
+                    List<String> actual = new ArrayList<>();
+                    for (int i = 0; i < spectrumMatches.size(); i++) {
+                        actual.add(spectrumMatches.getSpecIndex(i) + " " + spectrumMatches.
+                                getWindow(i) + " " + spectrumMatches.
+                                getMzValue(i) + " " + spectrumMatches.
+                                getIntensityValue(i));
+                    }
+                    Assert.assertFalse(expected.isEmpty());
+                    Assert.assertEquals(expected, actual);
+                    Assert.assertTrue(spectrumMatches.getPeaksExamined() >= spectrumMatches.
+                            getInRangeHits());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reference implementation of the matching of a single peak, returns the
+     * indices of the windows containing it, starting from the narrowest one.
+     */
+    private static List<Integer> matchPeak(TransitionSpecification spec,
+            double mzValue, float intensityValue, boolean stopAtSmallestPpm) {
+        List<Integer> matches = new ArrayList<>();
+        IonTargetMzWindows windows = spec.getIonTargetMzWindows();
+        for (int i = 0; i < windows.size(); i++) {
+            if (windows.contains(i, mzValue) && intensityValue > 0) {
+                matches.add(i);
+                if (stopAtSmallestPpm) {
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private List<TransitionSpecificationGroup> createSyntheticGroups() throws Exception {
+        SyntheticDataSettings syntheticSettings = new SyntheticDataSettings();
+        syntheticSettings.setPrecursors(50);
+        syntheticSettings.setCollisionEnergies(1);
+        Path dataDir = folder.newFolder("synthetic").
+                toPath();
+        new SyntheticDataGenerator(syntheticSettings).writeDataset(dataDir);
+        return new TransitionListParser().
+                parse(dataDir.resolve(
+                        SyntheticDataGenerator.TRANSITION_LIST_FILE),
+                        dataDir, new TransitionMappingParser().parse(dataDir.
+                                resolve(SyntheticDataGenerator.MAPPING_FILE),
+                                dataDir)).
+                values().
+                iterator().
+                next();
+    }
+
+    private void sortPeaks(double[] mzValues, float[] intensityValues) {
+        Integer[] order = new Integer[mzValues.length];
+        for (int j = 0; j < order.length; j++) {
+            order[j] = j;
+        }
+        Arrays.sort(order, Comparator.comparingDouble((j) -> mzValues[j]));
+        double[] sortedMzValues = new double[mzValues.length];
+        float[] sortedIntensityValues = new float[mzValues.length];
+        for (int j = 0; j < order.length; j++) {
+            sortedMzValues[j] = mzValues[order[j]];
+            sortedIntensityValues[j] = intensityValues[order[j]];
+        }
+        System.arraycopy(sortedMzValues, 0, mzValues, 0, mzValues.length);
+        System.arraycopy(sortedIntensityValues, 0, intensityValues, 0,
+                intensityValues.length);
+    }
+}
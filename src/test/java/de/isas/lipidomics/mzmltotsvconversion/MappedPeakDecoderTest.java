@@ -0,0 +1,46 @@
+/*
+ *
+ */
+package de.isas.lipidomics.mzmltotsvconversion;
+
+import de.isas.lipidomics.transitionextractor.MappedPeakDecoder;
+import io.github.msdk.datamodel.MsScan;
+import io.github.msdk.io.mzml.MzMLFileImportMethod;
+import io.github.msdk.io.mzml.data.MzMLMsScan;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class MappedPeakDecoderTest {
+
+    @Test
+    public void testDecodeMatchesMsdk() throws Exception {
+        Path mzMl = ConversionSupplierTest.fixture();
+        List<MsScan> scans = new MzMLFileImportMethod(mzMl).execute().
+                getScans();
+        Assert.assertFalse(scans.isEmpty());
+        int maxPeakCount = 0;
+        try (MappedPeakDecoder decoder = new MappedPeakDecoder(mzMl)) {
+            // decode in reverse order, so that later scans reuse larger buffers
+            for (int i = scans.size() - 1; i >= 0; i--) {
+                MzMLMsScan msScan = (MzMLMsScan) scans.get(i);
+                int peakCount = decoder.decode(msScan);
+                double[] mzValues = msScan.getMzValues();
+                float[] intensityValues = msScan.getIntensityValues();
+                Assert.assertEquals(mzValues.length, peakCount);
+                Assert.assertTrue(Arrays.equals(mzValues, Arrays.copyOf(
+                        decoder.getMzValues(), peakCount)));
+                Assert.assertTrue(Arrays.equals(intensityValues, Arrays.
+                        copyOf(decoder.getIntensityValues(), peakCount)));
+                maxPeakCount = Math.max(maxPeakCount, peakCount);
+            }
+            Assert.assertEquals(maxPeakCount, decoder.getMzValues().length);
+        }
+    }
+}
@@ -5,7 +5,10 @@ package de.isas.lipidomics.mzmltotsvconversion;
 
 import de.isas.lipidomics.transitionextractor.MsUtils;
 import com.google.common.collect.Range;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 import java.util.TreeMap;
 import junit.framework.Assert;
 import org.junit.Test;
@@ -50,4 +53,51 @@ public class MsUtilsTest {
         Assert.assertEquals(Range.closed(464.4415622480329, 464.4508511721671), range);
     }
 
+    @Test
+    public void testIsSortedAscending() {
+        Assert.assertTrue(MsUtils.isSortedAscending(new double[0]));
+        Assert.assertTrue(MsUtils.isSortedAscending(new double[]{100.0, 100.0, 200.5}));
+        Assert.assertFalse(MsUtils.isSortedAscending(new double[]{100.0, 99.9, 200.5}));
+        Assert.assertFalse(MsUtils.isSortedAscending(new double[]{100.0, Double.NaN, 200.5}));
+    }
+
+    @Test
+    public void testLowerBoundIndex() {
+        double[] mzValues = new double[]{100.0, 200.0, 200.0, 300.0};
+        Assert.assertEquals(0, MsUtils.lowerBoundIndex(mzValues, 50.0));
+        Assert.assertEquals(0, MsUtils.lowerBoundIndex(mzValues, 100.0));
+        Assert.assertEquals(1, MsUtils.lowerBoundIndex(mzValues, 150.0));
+        Assert.assertEquals(1, MsUtils.lowerBoundIndex(mzValues, 200.0));
+        Assert.assertEquals(3, MsUtils.lowerBoundIndex(mzValues, 200.1));
+        Assert.assertEquals(4, MsUtils.lowerBoundIndex(mzValues, 300.1));
+        Assert.assertEquals(0, MsUtils.lowerBoundIndex(new double[0], 300.1));
+    }
+
+    @Test
+    public void testLowerBoundIndexMatchesLinearScan() {
+        Random random = new Random(1234L);
+        for (int run = 0; run < 200; run++) {
+            double[] mzValues = new double[random.nextInt(500)];
+            for (int i = 0; i < mzValues.length; i++) {
+                // coarse values to provoke duplicates and exact boundary hits
+                mzValues[i] = 100.0 + random.nextInt(20000) / 20.0;
+            }
+            Arrays.sort(mzValues);
+            double calculatedMass = 100.0 + random.nextInt(20000) / 20.0;
+            Range<Double> range = MsUtils.getMaximumMzRange(MsUtils.
+                    createIonTargetMzRanges(calculatedMass, Arrays.asList(5, 10, 500)));
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < mzValues.length; i++) {
+                if (range.contains(mzValues[i])) {
+                    expected.add(i);
+                }
+            }
+            List<Integer> actual = new ArrayList<>();
+            for (int i = MsUtils.lowerBoundIndex(mzValues, range.lowerEndpoint()); i < mzValues.length && mzValues[i] <= range.upperEndpoint(); i++) {
+                actual.add(i);
+            }
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
 }
@@ -0,0 +1,59 @@
+/*
+ *
+ */
+package de.isas.lipidomics.mzmltotsvconversion;
+
+import de.isas.lipidomics.transitionextractor.MzRangeIndex;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class MzRangeIndexTest {
+
+    @Test
+    public void testFindsContainingRanges() {
+        Random random = new Random(1L);
+        int n = 200;
+        double[] lowerBounds = new double[n];
+        double[] upperBounds = new double[n];
+        for (int i = 0; i < n; i++) {
+            // overlapping ranges, some sharing endpoints or of zero width
+            lowerBounds[i] = 100 + random.nextInt(400) * 0.5;
+            upperBounds[i] = lowerBounds[i] + random.nextInt(8) * 0.5;
+        }
+        MzRangeIndex index = new MzRangeIndex(lowerBounds, upperBounds);
+        for (int q = 0; q < 10000; q++) {
+            double mzValue = q % 2 == 0 ? 99 + random.nextDouble() * 210 : 99 + random.
+                    nextInt(420) * 0.5;
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                if (lowerBounds[i] <= mzValue && mzValue <= upperBounds[i]) {
+                    expected.add(i);
+                }
+            }
+            List<Integer> found = new ArrayList<>();
+            int slot = index.getSlot(mzValue);
+            for (int k = index.getSlotStart(slot); k < index.getSlotEnd(slot); k++) {
+                found.add(index.getRangeIndex(k));
+            }
+            Assert.assertEquals("m/z " + mzValue, expected, found);
+        }
+        int nanSlot = index.getSlot(Double.NaN);
+        Assert.assertEquals(index.getSlotStart(nanSlot), index.getSlotEnd(
+                nanSlot));
+    }
+
+    @Test
+    public void testEmpty() {
+        MzRangeIndex index = new MzRangeIndex(new double[0], new double[0]);
+        Assert.assertEquals(1, index.getSlots());
+        int slot = index.getSlot(500.0);
+        Assert.assertEquals(index.getSlotStart(slot), index.getSlotEnd(slot));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *
+ */
+package de.isas.lipidomics.mzmltotsvconversion;
+
+import de.isas.lipidomics.transitionextractor.ExtractionSettings;
+import de.isas.lipidomics.transitionextractor.PeakCache;
+import de.isas.lipidomics.transitionextractor.PeakCacheReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class PeakCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<String> extract(Path mzMl, ExtractionSettings settings) throws Exception {
+        return ConversionSupplierTest.extractLines(folder.newFolder().
+                toPath(), mzMl, settings);
+    }
+
+    @Test
+    public void testCachedExtractionMatchesMaterialized() throws Exception {
+        Path mzMl = ConversionSupplierTest.fixture();
+        PeakCache peakCache = PeakCache.open(folder.newFolder("cache").
+                toPath(), PeakCache.DEFAULT_MAX_BYTES);
+        ExtractionSettings settings = new ExtractionSettings();
+        settings.setPrecursorIsolationFilter(true);
+        settings.getScanFilter().
+                setMinCollisionEnergy(20.0d);
+        List<String> expected = extract(mzMl, settings);
+        settings.setPeakCache(peakCache);
+        Assert.assertFalse(peakCache.getEntry(mzMl).
+                toFile().
+                exists());
+        // the first run builds the entry, the second one reads it
+        Assert.assertEquals(expected, extract(mzMl, settings));
+        Assert.assertTrue(peakCache.getEntry(mzMl).
+                toFile().
+                isFile());
+        Assert.assertEquals(expected, extract(mzMl, settings));
+        // the index and the entry are reused by a new cache instance
+        settings.setPeakCache(PeakCache.open(peakCache.getDirectory(),
+                PeakCache.DEFAULT_MAX_BYTES));
+        Assert.assertEquals(expected, extract(mzMl, settings));
+        // the extraction cache key does not depend on the peak cache
+        Assert.assertFalse(settings.toString().
+                contains("peakCache"));
+
+        int ms2Scans = 0;
+        try (PeakCacheReader reader = peakCache.read(mzMl)) {
+            Assert.assertEquals(7, reader.getScanCount());
+            while (reader.next()) {
+                Assert.assertTrue(reader.readPeaks() > 0);
+                ms2Scans++;
+            }
+        }
+        Assert.assertEquals(5, ms2Scans);
+    }
+
+    @Test
+    public void testEvictionAndClear() throws Exception {
+        Path mzMl = ConversionSupplierTest.fixture();
+        Path copy = folder.getRoot().
+                toPath().
+                resolve("copy.mzML");
+        Files.copy(mzMl, copy);
+        Files.write(copy, Arrays.asList("<!-- changed -->"),
+                StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+        Path directory = folder.newFolder("cache").
+                toPath();
+        Path entry = PeakCache.open(directory, PeakCache.DEFAULT_MAX_BYTES).
+                build(mzMl);
+        // room for one entry only
+        PeakCache peakCache = PeakCache.open(directory, Files.size(entry));
+        Path copyEntry = peakCache.build(copy);
+        Assert.assertFalse(entry.equals(copyEntry));
+        Assert.assertFalse(entry.toFile().
+                exists());
+        Assert.assertTrue(copyEntry.toFile().
+                isFile());
+        Assert.assertEquals(Files.size(copyEntry), peakCache.getSize());
+        peakCache.clear();
+        Assert.assertEquals(0, peakCache.getSize());
+        Assert.assertFalse(directory.resolve(PeakCache.INDEX_FILE).
+                toFile().
+                exists());
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *
+ */
+package de.isas.lipidomics.mzmltotsvconversion;
+
+import de.isas.lipidomics.transitionextractor.PeakWindowClassifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class PeakWindowClassifierTest {
+
+    @Test
+    public void testFindInRange() {
+        Random random = new Random(1L);
+        double[] mzValues = new double[1001];
+        for (int i = 0; i < mzValues.length; i++) {
+            mzValues[i] = i % 97 == 0 ? Double.NaN : 100 + random.nextInt(9000) * 0.1;
+        }
+        int[] hits = new int[mzValues.length];
+        // the vectorized classifier, if this JVM supports it
+        for (PeakWindowClassifier classifier : Arrays.asList(
+                PeakWindowClassifier.create(false), PeakWindowClassifier.
+                create(true))) {
+            for (int q = 0; q < 200; q++) {
+                int from = random.nextInt(20);
+                int to = mzValues.length - random.nextInt(20);
+                double lowerBound = 100 + random.nextInt(9000) * 0.1;
+                double upperBound = lowerBound + random.nextInt(50) * 0.1;
+                List<Integer> expected = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    if (lowerBound <= mzValues[i] && mzValues[i] <= upperBound) {
+                        expected.add(i);
+                    }
+                }
+                int nHits = classifier.findInRange(mzValues, from, to,
+                        lowerBound, upperBound, hits);
+                List<Integer> actual = new ArrayList<>();
+                for (int k = 0; k < nHits; k++) {
+                    actual.add(hits[k]);
+                }
+                Assert.assertEquals(expected, actual);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *
+ */
+package de.isas.lipidomics.mzmltotsvconversion;
+
+import de.isas.lipidomics.transitionextractor.RWorkerPool;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import junit.framework.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class RWorkerPoolTest {
+
+    @Rule
+    public TemporaryFolder tf = new TemporaryFolder();
+
+    /*
+     * Stand-in for flipr-worker.R, speaking the same line protocol: writes the
+     * job line to its logFile and replies with its status, exits on "crash".
+     */
+    private RWorkerPool createPool(int size) throws IOException {
+        Path workDir = tf.newFolder("workers").
+                toPath();
+        Path script = workDir.resolve("worker.sh");
+        Files.write(script, Arrays.asList(
+                "while IFS= read -r line; do",
+                "  [ \"$line\" = \"quit\" ] && exit 0",
+                "  logFile=$(printf '%s\\n' \"$line\" | tr '\\t' '\\n' | sed -n 's/^logFile=//p')",
+                "  status=$(printf '%s\\n' \"$line\" | tr '\\t' '\\n' | sed -n 's/^status=//p')",
+                "  printf '%s\\n' \"$line\" > \"$logFile\"",
+                "  [ \"$status\" = \"crash\" ] && exit 3",
+                "  echo \"unrelated output\"",
+                "  echo \"" + RWorkerPool.JOB_DONE + "$status\"",
+                "done"), StandardCharsets.UTF_8);
+        return new RWorkerPool(size, Arrays.asList("/bin/sh", script.toString()),
+                workDir);
+    }
+
+    private Map<String, String> createJob(Path logFile, String status) {
+        Map<String, String> job = new LinkedHashMap<>();
+        job.put("projectDir", logFile.getParent().
+                toString());
+        job.put("logFile", logFile.toString());
+        job.put("status", status);
+        return job;
+    }
+
+    @Test
+    public void testRunJobs() throws IOException, InterruptedException {
+        try (RWorkerPool pool = createPool(2)) {
+            for (int i = 0; i < 4; i++) {
+                Path logFile = tf.getRoot().
+                        toPath().
+                        resolve("group" + i + "-run.out");
+                Assert.assertEquals(i % 2, pool.run(createJob(logFile, "" + (i % 2))));
+                String logged = new String(Files.readAllBytes(logFile),
+                        StandardCharsets.UTF_8);
+                Assert.assertTrue(logged.contains("logFile=" + logFile));
+            }
+        }
+    }
+
+    @Test
+    public void testReplaceTerminatedWorker() throws IOException, InterruptedException {
+        try (RWorkerPool pool = createPool(1)) {
+            Path logFile = tf.getRoot().
+                    toPath().
+                    resolve("crash-run.out");
+            try {
+                pool.run(createJob(logFile, "crash"));
+                Assert.fail("Expected IOException for terminated worker!");
+            } catch (IOException ex) {
+                // expected
+            }
+            Assert.assertEquals(0, pool.run(createJob(logFile, "0")));
+        }
+    }
+}
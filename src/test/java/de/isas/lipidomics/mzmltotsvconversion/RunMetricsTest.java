@@ -0,0 +1,142 @@
+/*
+ *
+ */
+package de.isas.lipidomics.mzmltotsvconversion;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.isas.lipidomics.transitionextractor.ExtractionSettings;
+import de.isas.lipidomics.transitionextractor.TransitionSpecificationGroup;
+import de.isas.lipidomics.transitionextractor.services.metrics.GroupMetrics;
+import de.isas.lipidomics.transitionextractor.services.metrics.RunMetrics;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class RunMetricsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RunMetrics extract(Path outputDir, boolean streaming) throws Exception {
+        Path mzMl = ConversionSupplierTest.fixture();
+        ExtractionSettings settings = new ExtractionSettings();
+        settings.setStreaming(streaming);
+        RunMetrics metrics = new RunMetrics();
+        List<Path> outputFiles = ConversionSupplierTest.extractGroups(outputDir,
+                mzMl, Arrays.asList(ConversionSupplierTest.createGroup(mzMl),
+                ConversionSupplierTest.createGroup(mzMl, "QEx03_NM2", 482.4567575)),
+                settings, metrics);
+        metrics.finish();
+        long rows = 0;
+        long bytes = 0;
+        for (Path outputFile : outputFiles) {
+            // without header
+            rows += Files.readAllLines(outputFile, StandardCharsets.UTF_8).
+                    size() - 1;
+            bytes += Files.size(outputFile);
+        }
+        Assert.assertEquals(1, metrics.getFilesRead());
+        Assert.assertEquals(2, metrics.getGroups());
+        Assert.assertEquals(2, metrics.getGroupsExtracted());
+        Assert.assertEquals(rows, metrics.getRowsWritten());
+        Assert.assertEquals(bytes, metrics.getBytesWritten());
+        Assert.assertTrue(metrics.getScansRead() >= metrics.getMs2Scans());
+        Assert.assertTrue(metrics.getMs2Scans() > 0);
+        Assert.assertEquals(metrics.getMs2Scans(), metrics.getMs2ScansKept());
+        Assert.assertTrue(metrics.getPeaksExamined() >= metrics.
+                getInRangeHits());
+        Assert.assertTrue(metrics.getInRangeHits() > 0);
+        Assert.assertTrue(rows >= metrics.getInRangeHits());
+        assertMaxFragmentDataPoints(metrics, mzMl, outputFiles.get(0));
+        return metrics;
+    }
+
+    private void assertMaxFragmentDataPoints(RunMetrics metrics, Path mzMl,
+            Path outputFile) throws Exception {
+        List<String> lines = Files.readAllLines(outputFile,
+                StandardCharsets.UTF_8);
+        List<String> header = Arrays.asList(lines.get(0).
+                split("\t"));
+        int foundMass = header.indexOf("foundMass");
+        int fragment = header.indexOf("fragment");
+        Map<String, Long> dataPoints = new HashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] values = line.split("\t");
+            if (!values[foundMass].isEmpty()) {
+                dataPoints.merge(values[fragment], 1L, Long::sum);
+            }
+        }
+        Assert.assertEquals(Collections.max(dataPoints.values()), metrics.
+                getGroupMetrics(ConversionSupplierTest.createGroup(mzMl)).
+                getMaxFragmentDataPoints());
+    }
+
+    @Test
+    public void testStreamingCountsMatch() throws Exception {
+        RunMetrics inMemory = extract(folder.newFolder().
+                toPath(), false);
+        RunMetrics streaming = extract(folder.newFolder().
+                toPath(), true);
+        Assert.assertEquals(inMemory.getScansRead(), streaming.getScansRead());
+        Assert.assertEquals(inMemory.getMs2Scans(), streaming.getMs2Scans());
+        Assert.assertEquals(inMemory.getPeaksExamined(), streaming.
+                getPeaksExamined());
+        Assert.assertEquals(inMemory.getInRangeHits(), streaming.
+                getInRangeHits());
+        Assert.assertEquals(inMemory.getRowsWritten(), streaming.
+                getRowsWritten());
+    }
+
+    @Test
+    public void testWriteReport() throws Exception {
+        Path outputDir = folder.newFolder().
+                toPath();
+        RunMetrics metrics = extract(outputDir, false);
+        GroupMetrics groupMetrics = metrics.getGroupMetrics(
+                ConversionSupplierTest.createGroup(ConversionSupplierTest.
+                        fixture()));
+        groupMetrics.setModel(GroupMetrics.TRAINED);
+        groupMetrics.setRExitCode(0);
+        metrics.writeReport(outputDir);
+
+        JsonNode report = new ObjectMapper().
+                readTree(outputDir.resolve(RunMetrics.JSON_REPORT_FILE).
+                        toFile());
+        Assert.assertEquals(metrics.getRowsWritten(), report.get("total").
+                get("rowsWritten").
+                asLong());
+        Assert.assertEquals(1, report.get("total").
+                get("rExitCodes").
+                get("0").
+                asInt());
+        Assert.assertEquals(1, report.get("files").
+                size());
+        Assert.assertEquals(2, report.get("groups").
+                size());
+
+        List<String> lines = Files.readAllLines(outputDir.resolve(
+                RunMetrics.CSV_REPORT_FILE), StandardCharsets.UTF_8);
+        // header, one file, two groups and the total
+        Assert.assertEquals(5, lines.size());
+        List<String> header = Arrays.asList(lines.get(0).
+                split(","));
+        Assert.assertEquals("level", header.get(0));
+        Assert.assertTrue(header.contains("rExitCode"));
+        Assert.assertTrue(lines.get(4).
+                startsWith("total,"));
+    }
+}
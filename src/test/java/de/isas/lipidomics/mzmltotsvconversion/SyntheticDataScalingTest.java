@@ -0,0 +1,121 @@
+/*
+ *
+ */
+package de.isas.lipidomics.mzmltotsvconversion;
+
+import de.isas.lipidomics.transitionextractor.ConversionSupplier;
+import de.isas.lipidomics.transitionextractor.ExtractionSettings;
+import de.isas.lipidomics.transitionextractor.TransitionSpecificationGroup;
+import de.isas.lipidomics.transitionextractor.services.LipidTargetFinder;
+import de.isas.lipidomics.transitionextractor.services.mapping.TransitionMappingParser;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticDataGenerator;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticDataSettings;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticFragmentHit;
+import de.isas.lipidomics.transitionextractor.services.transitions.TransitionListParser;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import junit.framework.Assert;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Extracts synthetic data sets of increasing size and checks that every ground
+ * truth fragment hit is found in each ppm window.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+@Slf4j
+public class SyntheticDataScalingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void extractAndVerify(int files, int precursors,
+            int noisePeaksPerScan) throws Exception {
+        SyntheticDataSettings settings = new SyntheticDataSettings();
+        settings.setFiles(files);
+        settings.setPrecursors(precursors);
+        settings.setNoisePeaksPerScan(noisePeaksPerScan);
+        Path dataDir = folder.newFolder().
+                toPath();
+        List<SyntheticFragmentHit> hits = new SyntheticDataGenerator(settings).
+                writeDataset(dataDir);
+        Assert.assertEquals(files * precursors * settings.
+                getFragmentsPerPrecursor() * settings.getCollisionEnergies(),
+                hits.size());
+
+        long start = System.nanoTime();
+        Map<Path, List<TransitionSpecificationGroup>> groups = new TransitionListParser().
+                parse(dataDir.resolve(SyntheticDataGenerator.TRANSITION_LIST_FILE),
+                        dataDir, new TransitionMappingParser().parse(dataDir.
+                                resolve(SyntheticDataGenerator.MAPPING_FILE),
+                                dataDir));
+        Assert.assertEquals(files, groups.size());
+        Path outputDir = dataDir.resolve("output");
+        Map<String, Integer> foundRows = new HashMap<>();
+        for (Map.Entry<Path, List<TransitionSpecificationGroup>> entry : groups.
+                entrySet()) {
+            Assert.assertEquals(precursors, entry.getValue().
+                    size());
+            List<Optional<Path>> outputFiles = new ConversionSupplier(
+                    new LipidTargetFinder(), outputDir, entry.getKey(), entry.
+                    getValue(), false, LocalDateTime.of(2020, 1, 1, 0, 0),
+                    new ExtractionSettings()).get();
+            for (Optional<Path> outputFile : outputFiles) {
+                Assert.assertTrue(outputFile.isPresent());
+                countRows(outputFile.get(), foundRows);
+            }
+        }
+        log.info(String.format(
+                "Extracted %d files with %d precursors and %d noise peaks per scan in %d ms",
+                files, precursors, noisePeaksPerScan,
+                (System.nanoTime() - start) / 1000000));
+
+        for (SyntheticFragmentHit hit : hits) {
+            String key = Arrays.asList(hit.getFile(), Integer.toString(hit.
+                    getScanNumber()), hit.getPrecursorName(), hit.
+                    getFragmentName(), Double.toString(hit.getMz())).
+                    toString();
+            // the mass error is below the smallest ppm window
+            Assert.assertEquals(hit.toString(), settings.getPpms().
+                    size(), foundRows.getOrDefault(key, 0).
+                            intValue());
+        }
+    }
+
+    private void countRows(Path outputFile, Map<String, Integer> foundRows) throws Exception {
+        List<String> lines = Files.readAllLines(outputFile,
+                StandardCharsets.UTF_8);
+        List<String> header = Arrays.asList(lines.get(0).
+                split("\t"));
+        int[] columns = new int[]{header.indexOf("origin"), header.indexOf(
+            "scanNumber"), header.indexOf("species"), header.indexOf(
+            "fragment"), header.indexOf("foundMass")};
+        for (String line : lines.subList(1, lines.size())) {
+            String[] values = line.split("\t");
+            String key = Arrays.asList(values[columns[0]], values[columns[1]],
+                    values[columns[2]], values[columns[3]], values[columns[4]]).
+                    toString();
+            foundRows.merge(key, 1, Integer::sum);
+        }
+    }
+
+    @Test
+    public void testSingleFile() throws Exception {
+        extractAndVerify(1, 5, 50);
+    }
+
+    @Test
+    public void testScaleFilesAndPrecursors() throws Exception {
+        extractAndVerify(3, 20, 200);
+    }
+}
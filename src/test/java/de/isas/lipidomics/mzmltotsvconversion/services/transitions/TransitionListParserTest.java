@@ -0,0 +1,100 @@
+/*
+ *
+ */
+package de.isas.lipidomics.mzmltotsvconversion.services.transitions;
+
+import de.isas.lipidomics.transitionextractor.ConfigKey;
+import de.isas.lipidomics.transitionextractor.TransitionSpecification;
+import de.isas.lipidomics.transitionextractor.TransitionSpecificationGroup;
+import de.isas.lipidomics.transitionextractor.services.MappingSpecification;
+import de.isas.lipidomics.transitionextractor.services.mapping.TransitionMappingParser;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticDataGenerator;
+import de.isas.lipidomics.transitionextractor.services.synthetic.SyntheticDataSettings;
+import de.isas.lipidomics.transitionextractor.services.transitions.TransitionListParser;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import junit.framework.Assert;
+import org.apache.commons.collections4.MultiValuedMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class TransitionListParserTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParse() throws Exception {
+        SyntheticDataSettings syntheticSettings = new SyntheticDataSettings();
+        syntheticSettings.setFiles(2);
+        syntheticSettings.setPrecursors(300);
+        syntheticSettings.setNoisePeaksPerScan(0);
+        syntheticSettings.setCollisionEnergies(1);
+        Path dataDir = folder.newFolder("synthetic").
+                toPath();
+        new SyntheticDataGenerator(syntheticSettings).writeDataset(dataDir);
+        Path transitionList = dataDir.resolve(
+                SyntheticDataGenerator.TRANSITION_LIST_FILE);
+        MultiValuedMap<ConfigKey, MappingSpecification> mappingSpecs = new TransitionMappingParser().
+                parse(dataDir.resolve(SyntheticDataGenerator.MAPPING_FILE),
+                        dataDir);
+        TransitionListParser parser = new TransitionListParser();
+        Map<Path, List<TransitionSpecificationGroup>> expected = parser.parse(
+                transitionList, dataDir, mappingSpecs);
+        Assert.assertEquals(2, expected.size());
+        for (List<TransitionSpecificationGroup> groups : expected.values()) {
+            Assert.assertEquals(300, groups.size());
+            for (TransitionSpecificationGroup group : groups) {
+                Assert.assertEquals(syntheticSettings.getFragmentsPerPrecursor(),
+                        group.getSpecifications().
+                                size());
+            }
+        }
+        // the specifications of both files share their names and windows
+        List<TransitionSpecificationGroup> first = expected.values().
+                iterator().
+                next();
+        List<TransitionSpecificationGroup> second = expected.values().
+                stream().
+                skip(1).
+                findFirst().
+                get();
+        TransitionSpecification spec = first.get(0).
+                getSpecifications().
+                get(0);
+        TransitionSpecification other = second.get(0).
+                getSpecifications().
+                get(0);
+        Assert.assertSame(spec.getFragmentName(), other.getFragmentName());
+        Assert.assertSame(spec.getIonTargetMzRanges(), other.
+                getIonTargetMzRanges());
+        Assert.assertSame(spec.getMaximumMzRange(), other.getMaximumMzRange());
+        Assert.assertSame(spec.getIonTargetMzWindows(), other.
+                getIonTargetMzWindows());
+        // quoted duplicates of existing lines and blank lines are ignored
+        List<String> lines = Files.readAllLines(transitionList,
+                StandardCharsets.UTF_8);
+        List<String> quoted = lines.subList(1, 4).
+                stream().
+                map((line) -> "\" " + line.replace("\t", "\"\t \"") + "\"").
+                collect(Collectors.toList());
+        quoted.add("");
+        Files.write(transitionList, quoted, StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+        // 1200 lines are parsed in two chunks
+        for (int threads : new int[]{1, 3}) {
+            Assert.assertEquals(expected, parser.parse(transitionList, dataDir,
+                    mappingSpecs, threads));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ *
+ */
+package de.isas.lipidomics.transitionextractor;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Compares as many mz values at once with the window as the preferred vector
+ * species of the CPU holds, and the remaining ones like
+ * {@link ScalarPeakWindowClassifier}. Loaded by
+ * {@link PeakWindowClassifier#create(boolean)}, it requires JDK 17 or later and
+ * the {@code jdk.incubator.vector} module.
+ *
+ * @author Nils Hoffmann <nils.hoffmann@isas.de>
+ */
+public class VectorPeakWindowClassifier implements PeakWindowClassifier {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public int findInRange(double[] mzValues, int from, int to,
+            double lowerBound, double upperBound, int[] hits) {
+        int nHits = 0;
+        int i = from;
+        int upperIndex = from + SPECIES.loopBound(to - from);
+        for (; i < upperIndex; i += SPECIES.length()) {
+            DoubleVector mz = DoubleVector.fromArray(SPECIES, mzValues, i);
+            VectorMask<Double> inRange = mz.compare(VectorOperators.GE,
+                    lowerBound).
+                    and(mz.compare(VectorOperators.LE, upperBound));
+            // lane i is bit i
+            long bits = inRange.toLong();
+            while (bits != 0) {
+                hits[nHits++] = i + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return MsUtils.findInRange(mzValues, i, to, lowerBound, upperBound,
+                hits, nHits);
+    }
+
+    @Override
+    public int getLanes() {
+        return SPECIES.length();
+    }
+}